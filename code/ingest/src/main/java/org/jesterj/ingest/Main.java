@@ -198,6 +198,7 @@ public class Main {
           );
       tikaBuilder
           .named(TIKA)
+          .concurrency(4)
           .routingBy(new DuplicateToAll.Builder()
               .named("duplicator"))
           .withProcessor(new TikaProcessor.Builder()
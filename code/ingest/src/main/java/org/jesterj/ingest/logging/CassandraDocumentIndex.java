@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jesterj.ingest.logging;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import org.jesterj.ingest.model.DocumentIndex;
+import org.jesterj.ingest.model.Status;
+
+import java.util.Date;
+
+/**
+ * A document index held in cassandra. The hash and modification time are kept in their own table, and the
+ * status is read from the fault tolerance log, so each lookup is two single partition reads made concurrently.
+ * Statuses logged before the entry was recorded belong to an earlier version of the document, so until a later
+ * one is logged the entry's own status is used.
+ */
+public class CassandraDocumentIndex implements DocumentIndex {
+
+  private static final String SELECT_ENTRY =
+      "SELECT hash, modified, sent, status FROM jj_logging.scanned_by_doc WHERE scanner = ? AND docid = ?";
+
+  private static final String INSERT_ENTRY =
+      "INSERT INTO jj_logging.scanned_by_doc (scanner, docid, hash, modified, sent, status) VALUES(?,?,?,?,?,?)";
+
+  private static final String DELETE_ENTRY =
+      "DELETE FROM jj_logging.scanned_by_doc WHERE scanner = ? AND docid = ?";
+
+  private Session session;
+  private PreparedStatement selectEntry;
+  private PreparedStatement insertEntry;
+  private PreparedStatement deleteEntry;
+  private PreparedStatement selectStatus;
+
+  /**
+   * Create an index that opens a session on the logging cluster connection when first used, by which
+   * time cassandra should have booted.
+   */
+  public CassandraDocumentIndex() {
+  }
+
+  /**
+   * @param session a session connected to the cluster holding the jj_logging keyspace
+   */
+  public CassandraDocumentIndex(Session session) {
+    prepare(session);
+  }
+
+  private synchronized void prepare(Session session) {
+    this.selectEntry = session.prepare(SELECT_ENTRY);
+    this.insertEntry = session.prepare(INSERT_ENTRY);
+    this.deleteEntry = session.prepare(DELETE_ENTRY);
+    this.selectStatus = session.prepare(StatusLookup.SELECT_CURRENT_STATUS);
+    this.session = session;
+  }
+
+  private synchronized Session getSession() {
+    if (session == null) {
+      prepare(JesterJAppender.getCluster().newSession());
+    }
+    return session;
+  }
+
+  @Override
+  public Entry get(String scanner, String docId) {
+    Session s = getSession();
+    ResultSetFuture entryFuture = s.executeAsync(selectEntry.bind(scanner, docId));
+    ResultSetFuture statusFuture = s.executeAsync(selectStatus.bind(docId));
+    Row entry = entryFuture.getUninterruptibly().one();
+    Row status = statusFuture.getUninterruptibly().one();
+    if (entry == null) {
+      return null;
+    }
+    Date modified = entry.getDate("modified");
+    Date sent = entry.getDate("sent");
+    Status current = toStatus(entry);
+    if (status != null && (sent == null || !status.getDate("tstamp").before(sent))) {
+      current = toStatus(status);
+    }
+    return new Entry(docId, entry.getString("hash"), modified == null ? -1 : modified.getTime(), current);
+  }
+
+  private static Status toStatus(Row row) {
+    String status = row.getString("status");
+    if (status == null) {
+      return null;
+    }
+    try {
+      return Status.valueOf(status);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void put(String scanner, Entry entry) {
+    Date modified = entry.getModified() < 0 ? null : new Date(entry.getModified());
+    Status status = entry.getStatus();
+    getSession().execute(insertEntry.bind(scanner, entry.getDocId(), entry.getHash(), modified, new Date(),
+        status == null ? null : status.name()));
+  }
+
+  @Override
+  public void remove(String scanner, String docId) {
+    getSession().execute(deleteEntry.bind(scanner, docId));
+  }
+}
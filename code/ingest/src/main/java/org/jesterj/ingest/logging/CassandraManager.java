@@ -39,27 +39,53 @@ public class CassandraManager extends AbstractManager {
       "CREATE KEYSPACE IF NOT EXISTS jj_logging " +
           "WITH REPLICATION = { 'class' : 'SimpleStrategy', 'replication_factor' : 3 };";
 
-  // Possibly move these to wide rows with time values?
+  // Regular log rows are partitioned by the hour in which they were logged, newest first within the hour.
   public static final String CREATE_LOG_TABLE =
-      "CREATE TABLE IF NOT EXISTS jj_logging.regular(" +
-          "id uuid PRIMARY KEY, " +
-          "logger text, " +
+      "CREATE TABLE IF NOT EXISTS jj_logging.regular_by_hour(" +
+          "bucket bigint, " +
           "tstamp timestamp, " +
+          "id uuid, " +
+          "logger text, " +
           "level text, " +
           "thread text, " +
-          "message text" +
-          ");";
+          "message text, " +
+          "PRIMARY KEY (bucket, tstamp, id)" +
+          ") WITH CLUSTERING ORDER BY (tstamp DESC, id ASC);";
+
+  // Each document's status changes form a single partition, newest first, so the current status of a
+  // document is the first row of its partition. Changes within the same millisecond are common, and are
+  // ordered by the sequence in which they were reported (see StatusEvent.getSequence()).
   public static final String CREATE_FT_TABLE =
-      "CREATE TABLE IF NOT EXISTS jj_logging.fault_tolerant(" +
-          "id uuid PRIMARY KEY, " +
-          "logger text, " +
+      "CREATE TABLE IF NOT EXISTS jj_logging.fault_tolerant_by_doc(" +
+          "docid text, " +
           "tstamp timestamp, " +
+          "seq bigint, " +
+          "id uuid, " +
+          "logger text, " +
           "level text, " +
           "thread text, " +
           "status text, " +
+          "message text, " +
+          "PRIMARY KEY (docid, tstamp, seq, id)" +
+          ") WITH CLUSTERING ORDER BY (tstamp DESC, seq DESC, id ASC);";
+
+  // What each scanner last sent, see CassandraDocumentIndex
+  public static final String CREATE_DOC_INDEX_TABLE =
+      "CREATE TABLE IF NOT EXISTS jj_logging.scanned_by_doc(" +
+          "scanner text, " +
           "docid text, " +
-          "message text" +
+          "hash text, " +
+          "modified timestamp, " +
+          "sent timestamp, " +
+          "status text, " +
+          "PRIMARY KEY ((scanner, docid))" +
           ");";
+
+  /**
+   * The width of the time buckets that partition the regular log table.
+   */
+  public static final long LOG_BUCKET_MILLIS = 60 * 60 * 1000;
+
   private final Future cassandraReady;
 
   Executor executor = new ThreadPoolExecutor(1, 1, 100, TimeUnit.SECONDS, new SynchronousQueue<>());
@@ -92,6 +118,7 @@ public class CassandraManager extends AbstractManager {
             session.execute(CREATE_LOG_KEYSPACE);
             session.execute(CREATE_LOG_TABLE);
             session.execute(CREATE_FT_TABLE);
+            session.execute(CREATE_DOC_INDEX_TABLE);
             tryAgain = false;
           } catch (Exception e) {
             tryCount++;
@@ -16,10 +16,15 @@
 
 package org.jesterj.ingest.logging;
 
-import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import org.apache.logging.log4j.Marker;
 import org.apache.logging.log4j.core.Filter;
 import org.apache.logging.log4j.core.Layout;
@@ -30,34 +35,65 @@ import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
 import org.apache.logging.log4j.core.config.plugins.PluginElement;
 import org.apache.logging.log4j.core.config.plugins.PluginFactory;
 import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.jesterj.ingest.model.StatusEvent;
+import org.jesterj.ingest.utils.MpscRingBuffer;
 
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /*
  * Created with IntelliJ IDEA.
  * User: gus
  * Date: 11/14/14
  */
+
+/**
+ * Records log events in cassandra. Events are copied into a bounded buffer by the logging thread, and a single
+ * writer thread sends them to cassandra asynchronously, so logging never waits on a round trip to cassandra.
+ * Rows for the same partition are sent together as an unlogged batch. The buffer may be tuned with these
+ * attributes:
+ * <ul>
+ * <li><tt>bufferSize</tt> - how many events may wait to be written (default 8192)</li>
+ * <li><tt>batchSize</tt> - the most events the writer takes from the buffer at once (default 100)</li>
+ * <li><tt>flushMillis</tt> - the longest an event waits in the buffer before being sent (default 100)</li>
+ * <li><tt>dropWhenFull</tt> - if true events are discarded and counted when the buffer is full, otherwise the
+ * logging thread waits for space (default false)</li>
+ * </ul>
+ */
 @Plugin(name = "JesterJAppender", category = "Core", elementType = "appender", printObject = false)
 public class JesterJAppender extends AbstractAppender {
 
   private static final String INSERT_REG =
-      "INSERT INTO jj_logging.regular " +
-          "(id, logger, tstamp, level, thread, message) " +
-          "VALUES(?,?,?,?,?,?)";
+      "INSERT INTO jj_logging.regular_by_hour " +
+          "(bucket, tstamp, id, logger, level, thread, message) " +
+          "VALUES(?,?,?,?,?,?,?)";
 
   private static final String INSERT_FTI =
-      "INSERT INTO jj_logging.fault_tolerant " +
-          "(id, logger, tstamp, level, thread, status, docid, message) " +
-          "VALUES(?,?,?,?,?,?,?,?)";
+      "INSERT INTO jj_logging.fault_tolerant_by_doc " +
+          "(docid, tstamp, seq, id, logger, level, thread, status, message) " +
+          "VALUES(?,?,?,?,?,?,?,?,?)";
 
   public static final String JJ_INGEST_DOCID = "jj_ingest.docid";
+  // see StatusEvent.getSequence()
+  public static final String JJ_INGEST_SEQ = "jj_ingest.seq";
+
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+  public static final int DEFAULT_BATCH_SIZE = 100;
+  public static final long DEFAULT_FLUSH_MILLIS = 100;
+
+  // requests sent to cassandra but not yet acknowledged, beyond this the writer waits.
+  private static final int MAX_IN_FLIGHT = 32;
+  private static final long STOP_MILLIS = 5000;
 
   // per datastax reccomendation these are one per application.
   // http://www.datastax.com/dev/blog/4-simple-rules-when-using-the-datastax-drivers-for-cassandra
@@ -69,39 +105,72 @@ public class JesterJAppender extends AbstractAppender {
 
   // we need to delay startup of cassandra until after logger initialization, because when cassandra code
   // tries to log messges we get a deadlock. Therefore the manager does not create cassandra until after the first
-  // logging event, and then queues the events until cassandra is ready to accept them. This variable is then
-  // nullified and the queue should eventually be garbage collected.
-  private static volatile Queue<LogEvent> startupQueue = new ConcurrentLinkedQueue<>();
-  private static volatile Iterator<LogEvent> drainIterator;
+  // logging event, and then queues the events until cassandra is ready to accept them. The writer thread
+  // empties this queue ahead of the buffer once cassandra is ready.
+  private static final Queue<LogRow> startupQueue = new ConcurrentLinkedQueue<>();
   private static Cluster cluster;
 
+  private final MpscRingBuffer<LogRow> buffer;
+  private final int batchSize;
+  private final long flushNanos;
+  private final boolean dropWhenFull;
+  private final AtomicLong dropped = new AtomicLong();
+  private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+  private final Thread writer = new Thread(this::writeRows, "jj-cassandra-log-writer");
+  private volatile boolean stopping;
+
   @SuppressWarnings("UnusedDeclaration")
   protected JesterJAppender(String name, Filter filter, Layout<? extends Serializable> layout) {
-    super(name, filter, null);
+    this(name, filter, layout, true);
   }
 
   @SuppressWarnings("UnusedDeclaration")
   protected JesterJAppender(String name, Filter filter, Layout<? extends Serializable> layout, boolean ignoreExceptions) {
     super(name, filter, null, ignoreExceptions);
+    this.buffer = new MpscRingBuffer<>(DEFAULT_BUFFER_SIZE);
+    this.batchSize = DEFAULT_BATCH_SIZE;
+    this.flushNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_FLUSH_MILLIS);
+    this.dropWhenFull = false;
+    this.writer.setDaemon(true);
+  }
+
+  public JesterJAppender(String name, Layout<? extends Serializable> layout, Filter filter, CassandraManager manager, boolean ignoreExceptions) {
+    this(name, layout, filter, manager, ignoreExceptions,
+        DEFAULT_BUFFER_SIZE, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_MILLIS, false);
   }
 
-  public JesterJAppender(String name, @SuppressWarnings("UnusedParameters") Layout layout, Filter filter, CassandraManager manager, boolean ignoreExceptions) {
+  public JesterJAppender(String name, @SuppressWarnings("UnusedParameters") Layout<? extends Serializable> layout, Filter filter,
+                         CassandraManager manager, boolean ignoreExceptions, int bufferSize, int batchSize,
+                         long flushMillis, boolean dropWhenFull) {
     // perhaps support layout and format the message?... later
     super(name, filter, null, ignoreExceptions);
     JesterJAppender.manager = manager;
+    this.buffer = new MpscRingBuffer<>(bufferSize);
+    this.batchSize = batchSize;
+    this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+    this.dropWhenFull = dropWhenFull;
+    this.writer.setDaemon(true);
   }
 
 
   @PluginFactory
   public static JesterJAppender createAppender(@PluginAttribute("name") String name,
                                                @PluginAttribute("ignoreExceptions") boolean ignoreExceptions,
-                                               @PluginElement("Layout") Layout layout,
+                                               @PluginAttribute(value = "bufferSize", defaultInt = DEFAULT_BUFFER_SIZE) int bufferSize,
+                                               @PluginAttribute(value = "batchSize", defaultInt = DEFAULT_BATCH_SIZE) int batchSize,
+                                               @PluginAttribute(value = "flushMillis", defaultLong = DEFAULT_FLUSH_MILLIS) long flushMillis,
+                                               @PluginAttribute("dropWhenFull") boolean dropWhenFull,
+                                               @PluginElement("Layout") Layout<? extends Serializable> layout,
                                                @PluginElement("Filters") Filter filter) {
 
     if (name == null) {
       LOGGER.error("No name provided for JesterJAppender");
       return null;
     }
+    if (bufferSize < 1 || batchSize < 1 || flushMillis < 1) {
+      LOGGER.error("JesterJAppender {} requires a positive bufferSize, batchSize and flushMillis", name);
+      return null;
+    }
 
     manager = createManager();
     if (manager == null) {
@@ -110,60 +179,90 @@ public class JesterJAppender extends AbstractAppender {
     if (layout == null) {
       layout = PatternLayout.createDefaultLayout();
     }
-    return new JesterJAppender(name, layout, filter, manager, ignoreExceptions);
+    return new JesterJAppender(name, layout, filter, manager, ignoreExceptions, bufferSize, batchSize, flushMillis, dropWhenFull);
   }
 
   private static CassandraManager createManager() {
     return new CassandraManagerFactory().createManager("jjCassandraManager", null);
   }
 
+  @Override
+  public void start() {
+    super.start();
+    writer.start();
+  }
+
   /**
-   * Write events to cassandra. If cassandra is booting log events are cached. Once cassandra has booted
-   * the first subsequent event will synchronize on the queue and begin draining the queue. During this
-   * drain all logging events will need to aquire this lock. At the end of the drain the queue will be
-   * nullified. Subsequent writes will then be
+   * Stop accepting events and wait a short while for those already accepted to be written.
+   */
+  @Override
+  public void stop() {
+    super.stop();
+    stopping = true;
+    writer.interrupt();
+    try {
+      writer.join(STOP_MILLIS);
+      if (inFlight.tryAcquire(MAX_IN_FLIGHT, STOP_MILLIS, TimeUnit.MILLISECONDS)) {
+        inFlight.release(MAX_IN_FLIGHT);
+      } else {
+        LOGGER.warn("Some log events for {} may not have been written to cassandra", getName());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Copy the event into the buffer for the writer thread. If cassandra is booting log events are cached
+   * until it is ready to accept them.
    *
    * @param event the event to write to the log.
    */
   @Override
   public void append(LogEvent event) {
+    LogRow row = LogRow.of(event);
+    if (row == null) {
+      return;
+    }
     if (!manager.isReady()) {
-      startupQueue.add(event);
+      startupQueue.add(row);
+    } else if (dropWhenFull) {
+      if (!buffer.offer(row)) {
+        dropped.incrementAndGet();
+      }
     } else {
-      if (startupQueue != null && startupQueue.peek() != null) {
-        //noinspection SynchronizeOnNonFinalField
-        synchronized (startupQueue) {
-          while (drainIterator != null) {
-            try {
-              Thread.sleep(100);
-            } catch (InterruptedException e) {
-              e.printStackTrace();
-            }
-          }
-          drainIterator = startupQueue.iterator();
-        }
-        while (drainIterator.hasNext()) {
-          writeEvent(drainIterator.next());
-        }
-        writeEvent(event);
-        drainIterator = null;
-        startupQueue = null;
-      } else {
-        writeEvent(event);
+      try {
+        buffer.put(row);
+      } catch (InterruptedException e) {
+        dropped.incrementAndGet();
+        Thread.currentThread().interrupt();
       }
     }
   }
 
-  private Session getRegularSession() {
+  /**
+   * The one cluster connection shared by everything in this JVM that talks to the jj_logging keyspace.
+   * Only call this once cassandra has booted.
+   *
+   * @return the cluster, connected when first requested
+   */
+  static Cluster getCluster() {
     synchronized (Cluster.class) {
-      boolean newCluster = false;
       if (cluster == null) {
         cluster = Cluster.builder()
             .addContactPoint(Cassandra.getListenAddress())
+            //TODO: something secure!
             .withCredentials("cassandra", "cassandra")
             .build();
-        newCluster = true;
       }
+      return cluster;
+    }
+  }
+
+  private Session getRegularSession() {
+    synchronized (Cluster.class) {
+      boolean newCluster = cluster == null;
+      getCluster();
       synchronized (Session.class) {
         // The closed case represents a bug in our code or someone abusing our api's via reflection
         // but try to keep going... risk is a short period of dropped log statements
@@ -178,14 +277,8 @@ public class JesterJAppender extends AbstractAppender {
 
   private Session getFtiSession() {
     synchronized (Cluster.class) {
-      boolean newCluster = false;
-      if (cluster == null) {
-        cluster = Cluster.builder()
-            .addContactPoint(Cassandra.getListenAddress())
-            .withCredentials("cassandra", "cassandra")
-            .build();
-        newCluster = true;
-      }
+      boolean newCluster = cluster == null;
+      getCluster();
       synchronized (Session.class) {
         // The closed session case represents a bug in our code or someone abusing our api's via reflection
         // but try to keep going... The risk is that we drop a log statement, which in turn
@@ -203,42 +296,203 @@ public class JesterJAppender extends AbstractAppender {
     return faultTolerance;
   }
 
-  private void writeEvent(LogEvent e) {
-    Marker m = e.getMarker();
-    new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss,'Z'").format(e.getTimeMillis());
-    // everything wrapped in String.valueOf to avoid any issues with null.
-    String logger  = String.valueOf(e.getLoggerName());
-    Date tstamp = new Date(e.getTimeMillis());
-    String level = String.valueOf(e.getLevel());
-    String thread = String.valueOf(Thread.currentThread().getName());
-    String message = String.valueOf(e.getMessage());
-
-    if (m == null || m.isInstanceOf(Markers.LOG_MARKER)) {
-      Session s = getRegularSession();
-      BoundStatement bs = new BoundStatement(regularInsert);
+  private void writeRows() {
+    List<LogRow> batch = new ArrayList<>(batchSize);
+    while (!stopping || !buffer.isEmpty() || (manager.isReady() && !startupQueue.isEmpty())) {
+      try {
+        fill(batch);
+      } catch (InterruptedException e) {
+        // only stop() interrupts us, and rows already accepted should still be written.
+      }
+      if (!batch.isEmpty()) {
+        try {
+          write(batch);
+        } catch (RuntimeException e) {
+          LOGGER.error("Failed to write {} log events to cassandra", batch.size(), e);
+        }
+        batch.clear();
+      }
+      long lost = dropped.getAndSet(0);
+      if (lost > 0) {
+        LOGGER.warn("{} log events were not written to cassandra because the buffer was full", lost);
+      }
+    }
+  }
 
-      UUID id = UUID.randomUUID();  // maybe we can skip this for regular logs?
+  /**
+   * Take rows from the buffer until the batch is full or the flush interval has passed, whichever comes first.
+   */
+  private void fill(List<LogRow> batch) throws InterruptedException {
+    long deadline = System.nanoTime() + flushNanos;
+    if (manager.isReady()) {
+      LogRow early;
+      while (batch.size() < batchSize && (early = startupQueue.poll()) != null) {
+        batch.add(early);
+      }
+    }
+    while (batch.size() < batchSize) {
+      if (buffer.drainTo(batch, batchSize - batch.size()) == 0) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return;
+        }
+        LogRow row = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+        if (row == null) {
+          return;
+        }
+        batch.add(row);
+      }
+    }
+  }
 
-      s.execute(bs.bind(id, logger, tstamp, level,  thread, message));
+  private void write(List<LogRow> batch) {
+    Map<Object, List<Statement>> regularRows = new LinkedHashMap<>();
+    Map<Object, List<Statement>> ftiRows = new LinkedHashMap<>();
+    Session regularSession = null;
+    Session ftiSession = null;
+    for (LogRow row : batch) {
+      if (row.status == null) {
+        if (regularSession == null) {
+          regularSession = getRegularSession();
+        }
+        regularRows.computeIfAbsent(row.partition(), (k) -> new ArrayList<>(1)).add(row.bind(regularInsert));
+      } else {
+        if (ftiSession == null) {
+          ftiSession = getFtiSession();
+        }
+        ftiRows.computeIfAbsent(row.partition(), (k) -> new ArrayList<>(1)).add(row.bind(ftiInsert));
+      }
+    }
+    for (List<Statement> partition : regularRows.values()) {
+      execute(regularSession, partition);
+    }
+    for (List<Statement> partition : ftiRows.values()) {
+      execute(ftiSession, partition);
+    }
+  }
 
-      return; // never want non FTI logging to write to the FTI table.
+  /**
+   * Send rows that all belong to one partition, as a single statement if possible. Batches spanning partitions
+   * would make one coordinator do the work of several, so they are avoided.
+   */
+  private void execute(Session session, List<Statement> partition) {
+    Statement statement;
+    if (partition.size() == 1) {
+      statement = partition.get(0);
+    } else {
+      statement = new BatchStatement(BatchStatement.Type.UNLOGGED).addAll(partition);
+    }
+    inFlight.acquireUninterruptibly();
+    ResultSetFuture future;
+    try {
+      future = session.executeAsync(statement);
+    } catch (RuntimeException e) {
+      inFlight.release();
+      throw e;
     }
+    Futures.addCallback(future, new FutureCallback<ResultSet>() {
+      @Override
+      public void onSuccess(ResultSet result) {
+        inFlight.release();
+      }
 
-    if (m.isInstanceOf(Markers.FTI_MARKER)) {
-      Session s = getFtiSession();
-      BoundStatement bs = new BoundStatement(ftiInsert);
+      @Override
+      public void onFailure(Throwable t) {
+        inFlight.release();
+        LOGGER.error("Failed to write {} log events to cassandra", partition.size(), t);
+      }
+    });
+  }
 
-      //TODO: this is wrong... should actually be the same for every log for that document on a trip through the pipeline.
-      // but that has to wait until I move this to a wide row... if I do that...
-      UUID id = UUID.randomUUID();
+  /**
+   * The values to be written for one event, captured when it is appended so that nothing about the event
+   * needs to survive until the writer gets to it. The thread is the one the event records, which for status
+   * events is the thread that reported the status rather than the one writing it.
+   */
+  static final class LogRow {
+    private final UUID id;
+    private final String logger;
+    private final Date tstamp;
+    private final String level;
+    private final String thread;
+    private final String message;
+    private final String status; // null for rows in the regular table
+    private final String docid;
+    private final long seq; // orders the status changes of a document within the same millisecond
 
+    private LogRow(LogEvent e, String status, String docid) {
       // everything wrapped in String.valueOf to avoid any issues with null.
-      String status = String.valueOf(e.getMarker().getName());
-      String docid = String.valueOf(e.getContextMap().get(JJ_INGEST_DOCID));
+      this.logger = String.valueOf(e.getLoggerName());
+      this.tstamp = new Date(e.getTimeMillis());
+      this.level = String.valueOf(e.getLevel());
+      this.thread = String.valueOf(e.getThreadName());
+      this.message = String.valueOf(e.getMessage());
+      this.status = status;
+      this.docid = docid;
+      this.seq = status == null ? 0 : sequence(e);
+      // only distinguishes rows logged in the same millisecond, the partition is the docid or the time bucket
+      this.id = UUID.randomUUID();
+    }
+
+    /**
+     * @return the row for the event, or null if the event should not be recorded in cassandra
+     */
+    static LogRow of(LogEvent e) {
+      Marker m = e.getMarker();
+      if (m == null || m.isInstanceOf(Markers.LOG_MARKER)) {
+        return new LogRow(e, null, null); // never want non FTI logging to write to the FTI table.
+      }
+      if (m.isInstanceOf(Markers.FTI_MARKER)) {
+        return new LogRow(e, String.valueOf(m.getName()), String.valueOf(e.getContextMap().get(JJ_INGEST_DOCID)));
+      }
+      return null;
+    }
 
-      s.execute(bs.bind(id, logger, tstamp, level, thread, status, docid, message));
+    // status changes reported through a StatusEvent carry their sequence, others are placed in it as they arrive
+    private static long sequence(LogEvent e) {
+      String seq = e.getContextMap().get(JJ_INGEST_SEQ);
+      if (seq != null) {
+        try {
+          return Long.parseLong(seq);
+        } catch (NumberFormatException ignored) {
+          // fall through
+        }
+      }
+      return StatusEvent.nextSequence();
+    }
 
+    String getThread() {
+      return thread;
     }
 
+    long getSequence() {
+      return seq;
+    }
+
+    Date getTstamp() {
+      return tstamp;
+    }
+
+    String getStatus() {
+      return status;
+    }
+
+    /**
+     * @return the cassandra partition key for this row, rows with equal keys may be batched together.
+     */
+    Object partition() {
+      return status == null ? bucket() : docid;
+    }
+
+    private long bucket() {
+      return tstamp.getTime() / CassandraManager.LOG_BUCKET_MILLIS;
+    }
+
+    Statement bind(PreparedStatement insert) {
+      if (status == null) {
+        return insert.bind(bucket(), tstamp, id, logger, level, thread, message);
+      }
+      return insert.bind(docid, tstamp, seq, id, logger, level, thread, status, message);
+    }
   }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.logging;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.jesterj.ingest.model.StatusEvent;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Writes status changes to the log with the marker for the status and the document id in the thread context,
+ * which is how {@link JesterJAppender} recognizes them and records them in the fault tolerance table.
+ * Events are written with the time, thread and sequence recorded in the {@link StatusEvent}, not those of the
+ * (asynchronous) writer.
+ */
+public class LogStatusWriter implements Consumer<List<StatusEvent>> {
+
+  private static final Logger log = LogManager.getLogger();
+  private static final String FQCN = LogStatusWriter.class.getName();
+
+  @Override
+  public void accept(List<StatusEvent> events) {
+    //noinspection ForLoopReplaceableByForEach
+    for (int i = 0; i < events.size(); i++) {
+      write(events.get(i));
+    }
+  }
+
+  private void write(StatusEvent event) {
+    Marker marker = event.getStatus().getMarker();
+    if (!(log instanceof org.apache.logging.log4j.core.Logger)) {
+      // some other logging implementation, the best we can do is log it now.
+      try {
+        ThreadContext.put(JesterJAppender.JJ_INGEST_DOCID, event.getDocId());
+        log.info(marker, event.getMessagePattern(), event.getMessageParams());
+      } finally {
+        ThreadContext.clearAll();
+      }
+      return;
+    }
+    Message message = new ParameterizedMessage(event.getMessagePattern(), event.getMessageParams());
+    org.apache.logging.log4j.core.Logger coreLogger = (org.apache.logging.log4j.core.Logger) log;
+    if (!coreLogger.isEnabled(Level.INFO, marker, message, null)) {
+      return;
+    }
+    LoggerConfig config = coreLogger.getContext().getConfiguration().getLoggerConfig(log.getName());
+    config.log(toLogEvent(log.getName(), event, message));
+  }
+
+  static LogEvent toLogEvent(String loggerName, StatusEvent event, Message message) {
+    Map<String, String> context = new HashMap<>(4);
+    context.put(JesterJAppender.JJ_INGEST_DOCID, event.getDocId());
+    context.put(JesterJAppender.JJ_INGEST_SEQ, String.valueOf(event.getSequence()));
+    return new Log4jLogEvent(loggerName, event.getStatus().getMarker(), FQCN, Level.INFO, message, null,
+        context, ThreadContext.EMPTY_STACK, event.getThreadName(), null, event.getTimeMillis());
+  }
+}
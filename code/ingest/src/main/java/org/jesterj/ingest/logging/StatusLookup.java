@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jesterj.ingest.logging;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jesterj.ingest.model.Status;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Looks up the current status of documents in the fault tolerance log written by {@link JesterJAppender}.
+ * Each document's status history is a single partition ordered newest first, so each lookup reads one row
+ * of one partition, and the lookups for a batch of documents are made concurrently.
+ */
+public class StatusLookup {
+
+  private static final Logger log = LogManager.getLogger();
+
+  public static final String SELECT_CURRENT_STATUS =
+      "SELECT status, tstamp FROM jj_logging.fault_tolerant_by_doc WHERE docid = ? LIMIT 1";
+
+  // reads sent to cassandra at once for a batch
+  private static final int MAX_CONCURRENT_READS = 64;
+
+  private final Session session;
+  private final PreparedStatement currentStatus;
+
+  /**
+   * @param session a session connected to the cluster holding the jj_logging keyspace
+   */
+  public StatusLookup(Session session) {
+    this.session = session;
+    this.currentStatus = session.prepare(SELECT_CURRENT_STATUS);
+  }
+
+  /**
+   * Find the most recently recorded status of each document.
+   *
+   * @param docIds the ids of the documents of interest
+   * @return the current status of each document, documents that have never been logged are not included.
+   */
+  public Map<String, Status> currentStatus(Collection<String> docIds) {
+    Map<String, Status> result = new HashMap<>(docIds.size() * 2);
+    Deque<String> pendingIds = new ArrayDeque<>(MAX_CONCURRENT_READS);
+    Deque<ResultSetFuture> pending = new ArrayDeque<>(MAX_CONCURRENT_READS);
+    for (String docId : docIds) {
+      if (pending.size() == MAX_CONCURRENT_READS) {
+        collect(pendingIds.remove(), pending.remove(), result);
+      }
+      pendingIds.add(docId);
+      pending.add(session.executeAsync(currentStatus.bind(docId)));
+    }
+    while (!pending.isEmpty()) {
+      collect(pendingIds.remove(), pending.remove(), result);
+    }
+    return result;
+  }
+
+  /**
+   * Find the most recently recorded status of a single document.
+   *
+   * @param docId the id of the document
+   * @return the current status or null if the document has never been logged.
+   */
+  public Status currentStatus(String docId) {
+    Map<String, Status> result = new HashMap<>(2);
+    collect(docId, session.executeAsync(currentStatus.bind(docId)), result);
+    return result.get(docId);
+  }
+
+  private void collect(String docId, ResultSetFuture future, Map<String, Status> result) {
+    Row row = future.getUninterruptibly().one();
+    if (row == null) {
+      return;
+    }
+    String status = row.getString("status");
+    try {
+      result.put(docId, Status.valueOf(status));
+    } catch (IllegalArgumentException e) {
+      log.warn("Ignoring unknown status {} recorded for {}", status, docId);
+    }
+  }
+}
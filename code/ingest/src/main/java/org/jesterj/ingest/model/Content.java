@@ -0,0 +1,73 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The original content of a document, such as the bytes of a file. Content is not read until a processor
+ * asks for it, and may be read any number of times, so a scanner can hand off a document for a very large
+ * file without holding the file in memory. Any function that opens a fresh stream over the same bytes each
+ * time it is called will serve as content, for example <code>() -&gt; Files.newInputStream(path)</code>.
+ */
+@FunctionalInterface
+public interface Content {
+
+  /**
+   * Open a new stream positioned at the start of the content. The caller must close the stream.
+   *
+   * @return a stream of the content
+   * @throws IOException if the content can no longer be read
+   */
+  InputStream open() throws IOException;
+
+  /**
+   * The length of the content in bytes, if it can be known without reading it.
+   *
+   * @return the length, or -1 if it is not known
+   */
+  default long length() {
+    return -1;
+  }
+
+  /**
+   * Read the entire content into memory. Prefer {@link #open()} for content that may be large.
+   *
+   * @return the bytes of the content
+   * @throws IOException if the content can no longer be read
+   */
+  default byte[] toBytes() throws IOException {
+    try (InputStream in = open()) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
+  /**
+   * The content as a read only buffer. Content that is memory mapped is returned without copying it, other
+   * content may be read into memory.
+   *
+   * @return a buffer whose remaining bytes are the content
+   * @throws IOException if the content can no longer be read
+   */
+  default ByteBuffer toByteBuffer() throws IOException {
+    return ByteBuffer.wrap(toBytes()).asReadOnlyBuffer();
+  }
+}
@@ -26,6 +26,8 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
 import net.jini.core.entry.Entry;
 
+import java.time.Instant;
+
 public interface Document extends ListMultimap<String, String> {
 
   /**
@@ -36,9 +38,12 @@ public interface Document extends ListMultimap<String, String> {
   
   /**
    * Get the raw bytes from which this item was constructed. This is usually only used by the first or
-   * second step in the pipeline which converts the binary form into entries in this map.
+   * second step in the pipeline which converts the binary form into entries in this map. If the content
+   * has not yet been read it is read into memory by this method, so processors that can work with a
+   * stream should use {@link #getContent()} instead.
    *
    * @return the actual bytes of the document.
+   * @throws java.io.UncheckedIOException if the content could not be read
    */
   byte[] getRawData();
 
@@ -50,6 +55,20 @@ public interface Document extends ListMultimap<String, String> {
    */
   void setRawData(byte[] rawData);
 
+  /**
+   * Get the content from which this item was constructed, without reading it.
+   *
+   * @return the content, or null if there is none
+   */
+  Content getContent();
+
+  /**
+   * Replace the content. Like {@link #setRawData(byte[])} but the content need not be in memory.
+   *
+   * @param content the content of the document
+   */
+  void setContent(Content content);
+
 
   /**
    * The current processing status of the item. Each {@link DocumentProcessor}
@@ -96,6 +115,18 @@ public interface Document extends ListMultimap<String, String> {
 
   Entry toEntry(Step next);
 
+  /**
+   * Create a copy of this document that can be sent down a different path in the plan. The copy starts with the
+   * same fields, status, and content, but changes made to either document afterwards are not seen by the other.
+   * Fields are shared until one of the documents changes them, or asks for a view through which they could be
+   * changed, and only then copied. The content is never copied, so processors must replace it with
+   * {@link #setContent(Content)} or {@link #setRawData(byte[])} rather than modify the array returned by
+   * {@link #getRawData()}.
+   *
+   * @return the copy
+   */
+  Document fork();
+
   ArrayListMultimap<String, String> getDelegate();
 
   /**
@@ -111,6 +142,100 @@ public interface Document extends ListMultimap<String, String> {
 
   String getFirstValue(String fieldName);
 
+  /**
+   * Add a numeric value to a field. Typed values are held as such where the document supports it, and only
+   * converted to text when read as a string, typically by the step that sends the document on to its
+   * destination. Processors that work with numbers or dates should prefer the typed accessors to avoid
+   * formatting and re-parsing the value at every step.
+   *
+   * @param fieldName the field to which the value is added
+   * @param value     the value
+   */
+  void putLong(String fieldName, long value);
+
+  /**
+   * Add a floating point value to a field.
+   *
+   * @param fieldName the field to which the value is added
+   * @param value     the value
+   * @see #putLong(String, long)
+   */
+  void putDouble(String fieldName, double value);
+
+  /**
+   * Add a point in time to a field. As text, the value is in ISO-8601 form.
+   *
+   * @param fieldName the field to which the value is added
+   * @param value     the value
+   * @see #putLong(String, long)
+   */
+  void putInstant(String fieldName, Instant value);
+
+  /**
+   * Add a boolean value to a field.
+   *
+   * @param fieldName the field to which the value is added
+   * @param value     the value
+   * @see #putLong(String, long)
+   */
+  void putBoolean(String fieldName, boolean value);
+
+  /**
+   * Add binary data to a field. As text, the value is Base64 encoded. The array is not copied and must
+   * not be modified afterwards.
+   *
+   * @param fieldName the field to which the value is added
+   * @param value     the value
+   * @see #putLong(String, long)
+   */
+  void putBytes(String fieldName, byte[] value);
+
+  /**
+   * Get the first value of a field as a long, parsing it if it was added as text. Instants are returned as
+   * milliseconds since the epoch.
+   *
+   * @param fieldName the field to read
+   * @return the value, or null if the field has no value or the value is blank
+   * @throws NumberFormatException if the value is text that is not a number
+   */
+  Long getLong(String fieldName);
+
+  /**
+   * Get the first value of a field as a double, parsing it if it was added as text.
+   *
+   * @param fieldName the field to read
+   * @return the value, or null if the field has no value or the value is blank
+   * @throws NumberFormatException if the value is text that is not a number
+   */
+  Double getDouble(String fieldName);
+
+  /**
+   * Get the first value of a field as an instant. Numbers, and text holding only a number, are taken
+   * to be milliseconds since the epoch. Other text must be in ISO-8601 form.
+   *
+   * @param fieldName the field to read
+   * @return the value, or null if the field has no value or the value is blank
+   * @throws java.time.format.DateTimeParseException if the value is text that cannot be parsed
+   */
+  Instant getInstant(String fieldName);
+
+  /**
+   * Get the first value of a field as a boolean, parsing it if it was added as text.
+   *
+   * @param fieldName the field to read
+   * @return the value, or null if the field has no value or the value is blank
+   */
+  Boolean getBoolean(String fieldName);
+
+  /**
+   * Get the first value of a field as bytes, decoding it from Base64 if it was added as text.
+   *
+   * @param fieldName the field to read
+   * @return the value, or null if the field has no value or the value is blank
+   * @throws IllegalArgumentException if the value is text that is not Base64
+   */
+  byte[] getBytes(String fieldName);
+
   enum Operation {
     NEW,
     UPDATE,
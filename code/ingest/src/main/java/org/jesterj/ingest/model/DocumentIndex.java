@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jesterj.ingest.model;
+
+/**
+ * A persistent record of the documents each scanner has sent into a plan, which scanners consult so that
+ * documents that have not changed since they were last processed are not sent again.
+ */
+public interface DocumentIndex {
+
+  /**
+   * Find what was recorded when a document was last sent.
+   *
+   * @param scanner the name of the scanner that sent the document
+   * @param docId   the id of the document
+   * @return the entry for the document, or null if the scanner has never sent it.
+   */
+  Entry get(String scanner, String docId);
+
+  /**
+   * Record that a document has been sent. The status of the entry is recorded with it, and stands until the
+   * plan reports a later status for the document. Recording an unfinished status means the index can never
+   * claim that a hash was processed when the statuses reported for it were lost, for example because the JVM
+   * stopped before they were written.
+   *
+   * @param scanner the name of the scanner that sent the document
+   * @param entry   what to record about the document
+   */
+  void put(String scanner, Entry entry);
+
+  /**
+   * Forget a document, typically because it has been deleted at its source.
+   *
+   * @param scanner the name of the scanner that sent the document
+   * @param docId   the id of the document
+   */
+  void remove(String scanner, String docId);
+
+  /**
+   * What is known about a document that has been sent.
+   */
+  final class Entry {
+    private final String docId;
+    private final String hash;
+    private final long modified;
+    private final Status status;
+
+    /**
+     * @param docId    the id of the document
+     * @param hash     a hash of the document's content and fields, null if not known
+     * @param modified when the document was last modified at its source in milliseconds since the epoch,
+     *                 or -1 if the source does not say
+     * @param status   the last status reported for the document since the entry was recorded, or the status
+     *                 recorded with the entry if none has been
+     */
+    public Entry(String docId, String hash, long modified, Status status) {
+      this.docId = docId;
+      this.hash = hash;
+      this.modified = modified;
+      this.status = status;
+    }
+
+    public String getDocId() {
+      return docId;
+    }
+
+    public String getHash() {
+      return hash;
+    }
+
+    public long getModified() {
+      return modified;
+    }
+
+    public Status getStatus() {
+      return status;
+    }
+  }
+}
@@ -16,6 +16,11 @@
 
 package org.jesterj.ingest.model;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /*
  * Created with IntelliJ IDEA.
  * User: gus
@@ -36,4 +41,33 @@ public interface DocumentProcessor extends Configurable {
    */
   Document[] processDocument(Document document);
 
+  /**
+   * Process several documents at once. Steps hand documents to their processor in batches of up to the step's
+   * batch size, so processors that can amortize per call setup, reuse buffers or transform documents in place
+   * should override this. The same rules as {@link #processDocument(Document)} apply to each document. The
+   * default implementation simply calls {@link #processDocument(Document)} for each document in turn.
+   * <p>
+   * The step may reuse the supplied list once this method returns, so implementations must not hold on to it.
+   * Processors that modify documents in place may return the list they were given. Implementations must report
+   * the documents they cannot process themselves, by giving them an {@link Status#ERROR} status with
+   * {@link Document#setStatus(Status, String)} and leaving them in the list, so that the rest of the batch
+   * continues without them. An exception thrown from this method is taken to mean the whole batch failed, and
+   * every document in it is reported as an error. None are processed again, as any of them may already have
+   * been changed.
+   *
+   * @param documents the documents to process
+   * @return the documents that should continue on through the plan.
+   */
+  default List<Document> processBatch(List<Document> documents) {
+    if (documents.size() == 1) {
+      Document[] results = processDocument(documents.get(0));
+      return results.length == 0 ? Collections.emptyList() : Arrays.asList(results);
+    }
+    List<Document> results = new ArrayList<>(documents.size());
+    for (Document document : documents) {
+      Collections.addAll(results, processDocument(document));
+    }
+    return results;
+  }
+
 }
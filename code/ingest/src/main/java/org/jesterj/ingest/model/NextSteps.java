@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The steps that follow a step, fixed when the plan is built. Every array handed out by this class is created
+ * once up front and shared, so routing a document allocates nothing. The arrays must never be modified by
+ * routers or by the callers of {@link Step#getNext(Document)}.
+ */
+public final class NextSteps {
+
+  private final Step[] all;
+  private final Step[][] singles;
+  private final Map<String, Step[]> byName;
+  private final LinkedHashMap<String, Step> asMap;
+
+  public NextSteps(LinkedHashMap<String, Step> nextSteps) {
+    this.asMap = new LinkedHashMap<>(nextSteps);
+    this.all = nextSteps.values().toArray(new Step[nextSteps.size()]);
+    this.singles = new Step[all.length][];
+    this.byName = new HashMap<>();
+    for (int i = 0; i < all.length; i++) {
+      singles[i] = new Step[]{all[i]};
+      byName.put(all[i].getName(), singles[i]);
+    }
+  }
+
+  /**
+   * @return the number of following steps.
+   */
+  public int size() {
+    return all.length;
+  }
+
+  /**
+   * @return every following step, in the order they were added to the plan.
+   */
+  public Step[] all() {
+    return all;
+  }
+
+  /**
+   * @param index the position of the step in {@link #all()}
+   * @return an array containing only the step at the given index
+   */
+  public Step[] only(int index) {
+    return singles[index];
+  }
+
+  /**
+   * @param stepName the name of a following step
+   * @return an array containing only the named step, or null if there is no such following step.
+   */
+  public Step[] only(String stepName) {
+    return stepName == null ? null : byName.get(stepName);
+  }
+
+  /**
+   * The following steps keyed by name, for routers written against
+   * {@link Router#route(Document, LinkedHashMap)}. Must not be modified.
+   *
+   * @return the following steps by name
+   */
+  public LinkedHashMap<String, Step> asMap() {
+    return asMap;
+  }
+}
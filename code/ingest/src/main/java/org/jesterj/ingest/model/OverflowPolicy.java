@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model;
+
+/**
+ * What a step does with a document handed to it when its queue is already full.
+ */
+public enum OverflowPolicy {
+  /**
+   * Wait until there is room in the queue. The upstream step stalls until this step catches up.
+   */
+  BLOCK,
+
+  /**
+   * Wait up to a configured time for room in the queue, then give up and mark the document as
+   * {@link Status#ERROR}.
+   */
+  TIMEOUT,
+
+  /**
+   * Write the document to disk and feed it back into the queue once there is room. The upstream step
+   * never stalls, at the cost of disk I/O while this step is behind.
+   */
+  SPILL,
+
+  /**
+   * Immediately mark the document as {@link Status#ERROR} without waiting.
+   */
+  REJECT
+}
@@ -73,4 +73,12 @@ public interface Plan extends JiniServiceProvider, Active, Configurable {
    */
   Step findStep(String stepName);
 
+  /**
+   * The place to which steps and documents in this plan report changes in the status of documents.
+   *
+   * @return the status reporter
+   */
+  @Transient
+  StatusReporter getStatusReporter();
+
 }
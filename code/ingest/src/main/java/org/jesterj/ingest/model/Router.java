@@ -25,4 +25,18 @@ import java.util.LinkedHashMap;
  */
 public interface Router extends Configurable {
   Step[] route(Document doc, LinkedHashMap<String, Step> nextSteps);
+
+  /**
+   * Choose the steps to which a document should be sent. This is called for every document that leaves a step
+   * with more than one successor, so implementations should return one of the shared arrays supplied by
+   * <tt>nextSteps</tt> rather than creating a new one. The default implementation delegates to
+   * {@link #route(Document, LinkedHashMap)}.
+   *
+   * @param doc       the document to route
+   * @param nextSteps the steps that follow the routing step
+   * @return the steps that should receive the document (must not be modified), or null if there are none.
+   */
+  default Step[] route(Document doc, NextSteps nextSteps) {
+    return route(doc, nextSteps.asMap());
+  }
 }
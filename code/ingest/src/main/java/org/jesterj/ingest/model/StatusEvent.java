@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model;
+
+import org.apache.logging.log4j.message.ParameterizedMessage;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A change in the status of a document, as handed to a {@link StatusReporter}. The message is only formatted
+ * if it is asked for, so that the thread reporting the change doesn't pay for it.
+ */
+public final class StatusEvent {
+
+  // orders changes reported within the same millisecond
+  private static final AtomicLong sequence = new AtomicLong();
+
+  private final String docId;
+  private final Status status;
+  private final String message;
+  private final Object[] messageParams;
+  private final long timeMillis;
+  private final String threadName;
+  private final long seq;
+
+  public StatusEvent(String docId, Status status, String message, Object[] messageParams) {
+    this.docId = docId;
+    this.status = status;
+    this.message = message;
+    this.messageParams = messageParams;
+    this.timeMillis = System.currentTimeMillis();
+    this.threadName = Thread.currentThread().getName();
+    this.seq = nextSequence();
+  }
+
+  /**
+   * The next value of the sequence that orders status changes within this JVM. Changes that are logged without
+   * a StatusEvent take their place in the same sequence when they are logged.
+   *
+   * @return a value greater than any previously returned
+   */
+  public static long nextSequence() {
+    return sequence.incrementAndGet();
+  }
+
+  public String getDocId() {
+    return docId;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  /**
+   * @return the message as it was reported, with <code>{}</code> where each parameter belongs
+   */
+  public String getMessagePattern() {
+    return message;
+  }
+
+  public Object[] getMessageParams() {
+    return messageParams;
+  }
+
+  /**
+   * @return the message with the parameters filled in
+   */
+  public String getMessage() {
+    return messageParams == null || messageParams.length == 0 ? message :
+        ParameterizedMessage.format(message, messageParams);
+  }
+
+  /**
+   * @return when the status changed, in milliseconds since the epoch
+   */
+  public long getTimeMillis() {
+    return timeMillis;
+  }
+
+  /**
+   * @return the name of the thread that reported the change
+   */
+  public String getThreadName() {
+    return threadName;
+  }
+
+  /**
+   * @return the position of this change in the order in which changes were reported in this JVM. Unlike the
+   * time, this distinguishes the order of changes reported within the same millisecond.
+   */
+  public long getSequence() {
+    return seq;
+  }
+
+  @Override
+  public String toString() {
+    return "StatusEvent{" + docId + ' ' + status + ' ' + getMessage() + '}';
+  }
+}
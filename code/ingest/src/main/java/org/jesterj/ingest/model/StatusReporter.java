@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model;
+
+/**
+ * Records the status changes of documents as they pass through a plan. Reporting is done on the threads that
+ * process documents, so implementations should return quickly and leave any slow work, such as writing to a
+ * database, to be done elsewhere.
+ */
+public interface StatusReporter {
+
+  /**
+   * Record a change in the status of a document.
+   *
+   * @param docId         the id of the document
+   * @param status        the status of the document
+   * @param message       a message describing the change, in which each <code>{}</code> is replaced by the next
+   *                      parameter
+   * @param messageParams the parameters for the message
+   */
+  void report(String docId, Status status, String message, Object... messageParams);
+
+  /**
+   * Wait until everything reported so far has been recorded, or the time limit is reached.
+   *
+   * @param timeoutMillis the longest to wait
+   * @return true if everything was recorded, false if the time limit was reached first
+   * @throws InterruptedException if interrupted while waiting
+   */
+  default boolean flush(long timeoutMillis) throws InterruptedException {
+    return true;
+  }
+
+  /**
+   * Acquire whatever is needed to record status changes efficiently, such as threads. Called when the plan
+   * is activated; changes may still be reported before this is called, or after {@link #stop()}.
+   */
+  default void start() {
+  }
+
+  /**
+   * Record everything reported so far and release whatever {@link #start()} acquired. Called when the plan
+   * is deactivated.
+   *
+   * @throws InterruptedException if interrupted while waiting for changes to be recorded
+   */
+  default void stop() throws InterruptedException {
+  }
+}
@@ -46,7 +46,15 @@ public interface Step extends Active, JiniServiceProvider, BlockingQueue<Documen
   int getBatchSize();
 
   /**
-   * Get the getNext step in the plan for the given document
+   * Get the number of threads dedicated to processing documents in this step.
+   *
+   * @return the number of worker threads.
+   */
+  int getConcurrency();
+
+  /**
+   * Get the getNext step in the plan for the given document. The array returned may be shared with
+   * other documents and threads and must not be modified.
    *
    * @return the getNext step
    */
@@ -85,4 +93,12 @@ public interface Step extends Active, JiniServiceProvider, BlockingQueue<Documen
 
   void sendToNext(Document doc);
 
+  /**
+   * Hand a document to this step for processing. If the step's queue is full, the step's
+   * {@link OverflowPolicy} decides whether to wait, spill the document to disk or mark it as an error.
+   *
+   * @param document the document to process
+   */
+  void enqueue(Document document);
+
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model.impl;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jesterj.ingest.model.Status;
+import org.jesterj.ingest.model.StatusEvent;
+import org.jesterj.ingest.model.StatusReporter;
+import org.jesterj.ingest.utils.MpscRingBuffer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * A status reporter that puts each status change in a queue and returns. A single background thread takes the
+ * changes off the queue and hands them to a writer in batches of whatever has accumulated, up to the maximum
+ * batch size, so the threads processing documents never wait for the writer unless the queue fills up. When
+ * it does, reporting threads wait for space rather than lose status changes, since those are what allow
+ * processing to resume correctly after a failure. The queue and thread only exist between {@link #start()} and
+ * {@link #stop()}; changes reported at any other time are written directly by the reporting thread.
+ */
+public class AsyncStatusReporter implements StatusReporter {
+
+  private static final Logger log = LogManager.getLogger();
+
+  // tells the writer thread that nothing more will be queued
+  private static final StatusEvent STOP = new StatusEvent(null, null, null, null);
+
+  private final int capacity;
+  private final int maxBatch;
+  private final Consumer<List<StatusEvent>> writer;
+  private final AtomicLong reported = new AtomicLong();
+  private final Object writeLock = new Object(); // the writer is never called concurrently
+  private final Object writtenLock = new Object();
+  private long written; // guarded by writtenLock
+  private final ReadWriteLock runningLock = new ReentrantReadWriteLock();
+  private MpscRingBuffer<StatusEvent> queue; // guarded by runningLock, null while stopped
+  private Thread writerThread; // guarded by runningLock
+
+  /**
+   * @param writer    receives the status changes, never on more than one thread at once. The list is reused
+   *                  once the writer returns, so it must not be kept.
+   * @param capacity  how many status changes may wait to be written before reporting threads must wait
+   * @param maxBatch  the most status changes handed to the writer at once
+   */
+  public AsyncStatusReporter(Consumer<List<StatusEvent>> writer, int capacity, int maxBatch) {
+    if (maxBatch < 1) {
+      throw new IllegalArgumentException("Batches must hold at least one status change");
+    }
+    this.writer = writer;
+    this.capacity = capacity;
+    this.maxBatch = maxBatch;
+  }
+
+  @Override
+  public void start() {
+    runningLock.writeLock().lock();
+    try {
+      if (queue != null) {
+        return;
+      }
+      MpscRingBuffer<StatusEvent> started = new MpscRingBuffer<>(capacity);
+      writerThread = new Thread(() -> writeStatuses(started), "jj-status-writer");
+      writerThread.setDaemon(true);
+      writerThread.start();
+      queue = started;
+    } finally {
+      runningLock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void stop() throws InterruptedException {
+    runningLock.writeLock().lock();
+    try {
+      if (queue == null) {
+        return;
+      }
+      // the writer thread writes everything queued before this, and later changes are written directly
+      queue.put(STOP);
+      writerThread.join();
+      queue = null;
+      writerThread = null;
+    } finally {
+      runningLock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void report(String docId, Status status, String message, Object... messageParams) {
+    StatusEvent event = new StatusEvent(docId, status, message, messageParams);
+    reported.incrementAndGet();
+    runningLock.readLock().lock();
+    try {
+      if (queue == null) {
+        write(Collections.singletonList(event));
+      } else {
+        queue.put(event);
+      }
+    } catch (InterruptedException e) {
+      reported.decrementAndGet();
+      log.warn("Interrupted, status {} of {} was not recorded", status, docId);
+      Thread.currentThread().interrupt();
+    } finally {
+      runningLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean flush(long timeoutMillis) throws InterruptedException {
+    long target = reported.get();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    synchronized (writtenLock) {
+      while (written < target) {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remaining <= 0) {
+          return false;
+        }
+        writtenLock.wait(remaining);
+      }
+    }
+    return true;
+  }
+
+  private void writeStatuses(MpscRingBuffer<StatusEvent> queue) {
+    List<StatusEvent> batch = new ArrayList<>(maxBatch);
+    while (true) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        continue; // nobody should interrupt us, and statuses must still be written
+      }
+      queue.drainTo(batch, maxBatch - 1);
+      // nothing is queued after STOP, so it can only be last
+      boolean stopping = batch.get(batch.size() - 1) == STOP;
+      if (stopping) {
+        batch.remove(batch.size() - 1);
+      }
+      if (!batch.isEmpty()) {
+        write(batch);
+      }
+      batch.clear();
+      if (stopping) {
+        return;
+      }
+    }
+  }
+
+  private void write(List<StatusEvent> batch) {
+    synchronized (writeLock) {
+      try {
+        writer.accept(batch);
+      } catch (RuntimeException e) {
+        log.error("Failed to write {} status changes", batch.size(), e);
+      }
+    }
+    synchronized (writtenLock) {
+      written += batch.size();
+      writtenLock.notifyAll();
+    }
+  }
+}
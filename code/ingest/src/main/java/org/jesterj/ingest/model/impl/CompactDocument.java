@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model.impl;
+
+import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.Plan;
+import org.jesterj.ingest.model.Scanner;
+
+/**
+ * A document that stores its fields in flat arrays with shared field names rather than a map of lists. This
+ * uses considerably less memory for documents with many small fields, such as those carrying the metadata
+ * extracted by Tika, while behaving the same as {@link DocumentImpl} in every other respect. Finding the
+ * values of a field means scanning all the fields, which is fast for the few dozen fields a document
+ * typically has but would be slow for thousands. Values added with the typed methods such as
+ * {@link #putLong(String, long)} are held as they are, and only converted to text if read as strings.
+ *
+ * @see CompactListMultimap
+ */
+public class CompactDocument extends DocumentImpl {
+
+  public CompactDocument(byte[] rawData, String id, Plan plan, Operation operation, Scanner source) {
+    super(new CompactListMultimap(), rawData, id, plan, operation, source);
+  }
+
+  protected CompactDocument(CompactDocument original) {
+    super(original);
+  }
+
+  @Override
+  public Document fork() {
+    return new CompactDocument(this);
+  }
+}
@@ -0,0 +1,592 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model.impl;
+
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multiset;
+
+import javax.annotation.Nullable;
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A list multimap that keeps every entry in a pair of flat arrays, one of field names and one of values, in the
+ * order the entries were added. Field names are interned so that the thousands of documents holding the same
+ * field share a single copy of its name. Compared to an {@link com.google.common.collect.ArrayListMultimap} this
+ * saves a hash map entry and a list per field, at the price of lookups that scan the entries. Documents rarely
+ * have more than a few dozen fields, so the scan is cheap. The collections returned by {@link #get(String)},
+ * {@link #keySet()}, {@link #values()}, {@link #entries()} and {@link #asMap()} are live views as the
+ * {@link ListMultimap} contract requires. {@link #keys()} returns an immutable snapshot. Values may also be
+ * held as longs, doubles, instants, booleans or bytes, and are only converted to text when read as strings,
+ * see {@link FieldValues}. Not thread safe.
+ */
+final class CompactListMultimap implements ListMultimap<String, String> {
+
+  private static final int MAX_INTERNED_NAMES = 10000;
+  private static final ConcurrentHashMap<String, String> NAMES = new ConcurrentHashMap<>();
+
+  private String[] keys;
+  private Object[] values;
+  private int size;
+  private int modCount;
+
+  CompactListMultimap() {
+    this(8);
+  }
+
+  CompactListMultimap(int expectedEntries) {
+    keys = new String[expectedEntries];
+    values = new Object[expectedEntries];
+  }
+
+  /**
+   * @return an independent copy holding the same values, typed values included
+   */
+  CompactListMultimap copy() {
+    CompactListMultimap copy = new CompactListMultimap(Math.max(8, size));
+    System.arraycopy(keys, 0, copy.keys, 0, size);
+    System.arraycopy(values, 0, copy.values, 0, size);
+    copy.size = size;
+    return copy;
+  }
+
+  // Bounded so that a source generating endless distinct field names cannot exhaust the heap.
+  private static String intern(String name) {
+    if (name == null) {
+      return null;
+    }
+    String existing = NAMES.get(name);
+    if (existing != null) {
+      return existing;
+    }
+    if (NAMES.size() >= MAX_INTERNED_NAMES) {
+      return name;
+    }
+    existing = NAMES.putIfAbsent(name, name);
+    return existing == null ? name : existing;
+  }
+
+  private static boolean keyMatches(String candidate, Object key) {
+    //noinspection StringEquality
+    return candidate == key || candidate != null && candidate.equals(key);
+  }
+
+  private String text(int index) {
+    return FieldValues.toText(values[index]);
+  }
+
+  private int indexOfNth(Object key, int n) {
+    for (int i = 0; i < size; i++) {
+      if (keyMatches(keys[i], key) && n-- == 0) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int count(Object key) {
+    int c = 0;
+    for (int i = 0; i < size; i++) {
+      if (keyMatches(keys[i], key)) {
+        c++;
+      }
+    }
+    return c;
+  }
+
+  private void insertAt(int index, String key, Object value) {
+    if (size == keys.length) {
+      int newLength = Math.max(8, size + (size >> 1));
+      keys = Arrays.copyOf(keys, newLength);
+      values = Arrays.copyOf(values, newLength);
+    }
+    System.arraycopy(keys, index, keys, index + 1, size - index);
+    System.arraycopy(values, index, values, index + 1, size - index);
+    keys[index] = intern(key);
+    values[index] = value;
+    size++;
+    modCount++;
+  }
+
+  private String removeAt(int index) {
+    String removed = text(index);
+    int tail = size - index - 1;
+    System.arraycopy(keys, index + 1, keys, index, tail);
+    System.arraycopy(values, index + 1, values, index, tail);
+    size--;
+    keys[size] = null;
+    values[size] = null;
+    modCount++;
+    return removed;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public boolean containsKey(@Nullable Object key) {
+    return indexOfNth(key, 0) >= 0;
+  }
+
+  @Override
+  public boolean containsValue(@Nullable Object value) {
+    for (int i = 0; i < size; i++) {
+      if (Objects.equals(text(i), value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean containsEntry(@Nullable Object key, @Nullable Object value) {
+    for (int i = 0; i < size; i++) {
+      if (keyMatches(keys[i], key) && Objects.equals(text(i), value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean put(@Nullable String key, @Nullable String value) {
+    insertAt(size, key, value);
+    return true;
+  }
+
+  /**
+   * Add a value without converting it to text. It will be converted by {@link FieldValues#toText(Object)}
+   * whenever it is read as a string.
+   *
+   * @param key   the field name
+   * @param value the value, which is not copied
+   */
+  void putValue(String key, Object value) {
+    insertAt(size, key, value);
+  }
+
+  /**
+   * Every entry with its value as it was added, without converting it to text.
+   *
+   * @return a snapshot of the entries, in order
+   */
+  List<Map.Entry<String, Object>> typedEntries() {
+    List<Map.Entry<String, Object>> entries = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      entries.add(new AbstractMap.SimpleImmutableEntry<>(keys[i], values[i]));
+    }
+    return entries;
+  }
+
+  /**
+   * The first value of a field as it was added, without converting it to text.
+   *
+   * @param key the field name
+   * @return the value, or null if there is none
+   */
+  Object getFirstValue(String key) {
+    int i = indexOfNth(key, 0);
+    return i < 0 ? null : values[i];
+  }
+
+  @Override
+  public boolean remove(@Nullable Object key, @Nullable Object value) {
+    for (int i = 0; i < size; i++) {
+      if (keyMatches(keys[i], key) && Objects.equals(text(i), value)) {
+        removeAt(i);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean putAll(@Nullable String key, Iterable<? extends String> values) {
+    boolean changed = false;
+    for (String value : copy(values)) {
+      changed |= put(key, value);
+    }
+    return changed;
+  }
+
+  @Override
+  public boolean putAll(Multimap<? extends String, ? extends String> multimap) {
+    boolean changed = false;
+    for (Map.Entry<? extends String, ? extends String> entry : new ArrayList<>(multimap.entries())) {
+      changed |= put(entry.getKey(), entry.getValue());
+    }
+    return changed;
+  }
+
+  @Override
+  public List<String> replaceValues(@Nullable String key, Iterable<? extends String> values) {
+    List<String> replacement = copy(values); // may be a view of the values being replaced
+    List<String> old = removeAll(key);
+    for (String value : replacement) {
+      put(key, value);
+    }
+    return old;
+  }
+
+  @Override
+  public List<String> removeAll(@Nullable Object key) {
+    List<String> removed = new ArrayList<>();
+    int kept = 0;
+    for (int i = 0; i < size; i++) {
+      if (keyMatches(keys[i], key)) {
+        removed.add(text(i));
+      } else {
+        keys[kept] = keys[i];
+        values[kept] = values[i];
+        kept++;
+      }
+    }
+    Arrays.fill(keys, kept, size, null);
+    Arrays.fill(values, kept, size, null);
+    if (kept != size) {
+      size = kept;
+      modCount++;
+    }
+    return Collections.unmodifiableList(removed);
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(keys, 0, size, null);
+    Arrays.fill(values, 0, size, null);
+    size = 0;
+    modCount++;
+  }
+
+  @Override
+  public List<String> get(@Nullable String key) {
+    return new ValuesForKey(key);
+  }
+
+  @Override
+  public Set<String> keySet() {
+    return new KeySet();
+  }
+
+  /**
+   * @return an immutable snapshot of the field names, with each name repeated once per value.
+   */
+  @Override
+  public Multiset<String> keys() {
+    ImmutableMultiset.Builder<String> builder = ImmutableMultiset.builder();
+    for (int i = 0; i < size; i++) {
+      builder.add(keys[i]);
+    }
+    return builder.build();
+  }
+
+  @Override
+  public Collection<String> values() {
+    return new AbstractCollection<String>() {
+      @Override
+      public Iterator<String> iterator() {
+        return new EntryIterator<String>() {
+          @Override
+          String current(int index) {
+            return text(index);
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  @Override
+  public Collection<Map.Entry<String, String>> entries() {
+    return new AbstractCollection<Map.Entry<String, String>>() {
+      @Override
+      public Iterator<Map.Entry<String, String>> iterator() {
+        return new EntryIterator<Map.Entry<String, String>>() {
+          @Override
+          Map.Entry<String, String> current(int index) {
+            return new AbstractMap.SimpleImmutableEntry<>(keys[index], text(index));
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  @Override
+  public Map<String, Collection<String>> asMap() {
+    return new AbstractMap<String, Collection<String>>() {
+      @Override
+      public Set<Entry<String, Collection<String>>> entrySet() {
+        return new AbstractSet<Entry<String, Collection<String>>>() {
+          @Override
+          public Iterator<Entry<String, Collection<String>>> iterator() {
+            Iterator<String> names = CompactListMultimap.this.keySet().iterator();
+            return new Iterator<Entry<String, Collection<String>>>() {
+              @Override
+              public boolean hasNext() {
+                return names.hasNext();
+              }
+
+              @Override
+              public Entry<String, Collection<String>> next() {
+                String name = names.next();
+                return new SimpleImmutableEntry<>(name, get(name));
+              }
+
+              @Override
+              public void remove() {
+                names.remove();
+              }
+            };
+          }
+
+          @Override
+          public int size() {
+            return CompactListMultimap.this.keySet().size();
+          }
+        };
+      }
+
+      @Override
+      public boolean containsKey(Object key) {
+        return CompactListMultimap.this.containsKey(key);
+      }
+
+      @Override
+      public Collection<String> get(Object key) {
+        return containsKey(key) ? CompactListMultimap.this.get((String) key) : null;
+      }
+
+      @Override
+      public Collection<String> remove(Object key) {
+        return containsKey(key) ? removeAll(key) : null;
+      }
+    };
+  }
+
+  @Override
+  public boolean equals(@Nullable Object obj) {
+    return obj == this || obj instanceof Multimap && asMap().equals(((Multimap) obj).asMap());
+  }
+
+  @Override
+  public int hashCode() {
+    return asMap().hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return asMap().toString();
+  }
+
+  private static List<String> copy(Iterable<? extends String> values) {
+    List<String> list = new ArrayList<>();
+    for (String value : values) {
+      list.add(value);
+    }
+    return list;
+  }
+
+  /**
+   * Iterates all entries in order, supporting removal.
+   */
+  private abstract class EntryIterator<T> implements Iterator<T> {
+    private int next;
+    private int last = -1;
+    private int expectedModCount = modCount;
+
+    abstract T current(int index);
+
+    @Override
+    public boolean hasNext() {
+      return next < size;
+    }
+
+    @Override
+    public T next() {
+      checkForComodification();
+      if (next >= size) {
+        throw new NoSuchElementException();
+      }
+      last = next++;
+      return current(last);
+    }
+
+    @Override
+    public void remove() {
+      if (last < 0) {
+        throw new IllegalStateException();
+      }
+      checkForComodification();
+      removeAt(last);
+      next = last;
+      last = -1;
+      expectedModCount = modCount;
+    }
+
+    private void checkForComodification() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+    }
+  }
+
+  /**
+   * A live view of the distinct field names, in the order each was first added.
+   */
+  private class KeySet extends AbstractSet<String> {
+
+    @Override
+    public Iterator<String> iterator() {
+      Iterator<String> names = distinctKeys().iterator();
+      return new Iterator<String>() {
+        private String last;
+        private boolean removable;
+
+        @Override
+        public boolean hasNext() {
+          return names.hasNext();
+        }
+
+        @Override
+        public String next() {
+          last = names.next();
+          removable = true;
+          return last;
+        }
+
+        @Override
+        public void remove() {
+          if (!removable) {
+            throw new IllegalStateException();
+          }
+          CompactListMultimap.this.removeAll(last);
+          removable = false;
+        }
+      };
+    }
+
+    private Set<String> distinctKeys() {
+      Set<String> distinct = new LinkedHashSet<>();
+      for (int i = 0; i < size; i++) {
+        distinct.add(keys[i]);
+      }
+      return distinct;
+    }
+
+    @Override
+    public int size() {
+      return distinctKeys().size();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return containsKey(o);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+      return !CompactListMultimap.this.removeAll(o).isEmpty();
+    }
+  }
+
+  /**
+   * A live view of the values for one field, backed by the positions in the arrays holding that field.
+   */
+  private class ValuesForKey extends AbstractList<String> {
+    private final String key;
+
+    ValuesForKey(String key) {
+      this.key = key;
+    }
+
+    @Override
+    public String get(int index) {
+      return text(position(index));
+    }
+
+    @Override
+    public String set(int index, String element) {
+      int i = position(index);
+      String old = text(i);
+      values[i] = element;
+      return old;
+    }
+
+    @Override
+    public void add(int index, String element) {
+      int count = count(key);
+      if (index < 0 || index > count) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+      }
+      insertAt(index == count ? size : indexOfNth(key, index), key, element);
+      this.modCount++;
+    }
+
+    @Override
+    public String remove(int index) {
+      String removed = removeAt(position(index));
+      this.modCount++;
+      return removed;
+    }
+
+    @Override
+    public int size() {
+      return count(key);
+    }
+
+    private int position(int index) {
+      int i = index < 0 ? -1 : indexOfNth(key, index);
+      if (i < 0) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count(key));
+      }
+      return i;
+    }
+  }
+}
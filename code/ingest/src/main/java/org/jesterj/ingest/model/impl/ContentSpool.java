@@ -0,0 +1,368 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jesterj.ingest.model.impl;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jesterj.ingest.model.Content;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Collects content that can only be read once, such as a database BLOB that is gone once the scanner moves
+ * to the next row. Content up to the memory limit is kept in memory. Beyond that, it is written to a
+ * temporary file, so that a large value never has to fit in the heap. A background thread deletes the file
+ * once the content is no longer referenced by any document. Files still in use are deleted when their owner
+ * asks (see {@link #deleteSpooled(Object)}) or when the JVM exits.
+ * <p>
+ * Each JVM spools into its own subdirectory of the configured directory, and holds a lock on a file in it for
+ * as long as it runs. Several JVMs can therefore share a directory such as the system's temporary directory.
+ * The first time content is spooled to a directory, the subdirectories of other JVMs whose lock is no longer
+ * held, because they did not exit cleanly, are deleted.
+ */
+public class ContentSpool extends OutputStream {
+
+  private static final Logger log = LogManager.getLogger();
+
+  private static final String PREFIX = "jj-content-";
+  private static final String LOCK = "jj-content.lock";
+
+  // files of spooled content, by the content that reads them, deleted once the content has been collected
+  private static final ReferenceQueue<Content> collected = new ReferenceQueue<>();
+  private static final Set<SpoolFile> spoolFiles = ConcurrentHashMap.newKeySet();
+
+  // this JVM's subdirectory of each directory content has been spooled to, and the locks that mark them in use
+  private static final Map<Path, Path> runDirs = new ConcurrentHashMap<>();
+  private static final List<FileLock> runLocks = new CopyOnWriteArrayList<>();
+
+  static {
+    Thread reaper = new Thread(ContentSpool::reap, "jj-content-reaper");
+    reaper.setDaemon(true);
+    reaper.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(ContentSpool::deleteAll, "jj-content-cleanup"));
+  }
+
+  private final int memoryLimit;
+  private final File dir;
+  private final Object owner;
+  private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+  private Path file;
+  private OutputStream fileOut;
+  private long length;
+  private boolean closed;
+
+  /**
+   * @param memoryLimit the most bytes to hold in memory
+   * @param dir         the directory for temporary files, or null for the system's default
+   */
+  public ContentSpool(int memoryLimit, File dir) {
+    this(memoryLimit, dir, null);
+  }
+
+  /**
+   * @param memoryLimit the most bytes to hold in memory
+   * @param dir         the directory for temporary files, or null for the system's default
+   * @param owner       whatever the content is spooled for, so that its files can be deleted with
+   *                    {@link #deleteSpooled(Object)}, or null
+   */
+  public ContentSpool(int memoryLimit, File dir, Object owner) {
+    this.memoryLimit = memoryLimit;
+    this.dir = dir;
+    this.owner = owner;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[]{(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("Spool is closed");
+    }
+    if (fileOut == null && memory.size() + len > memoryLimit) {
+      Path spoolDir = dir == null ? Paths.get(System.getProperty("java.io.tmpdir")) : dir.toPath();
+      file = Files.createTempFile(runDir(spoolDir), PREFIX, null);
+      fileOut = new BufferedOutputStream(Files.newOutputStream(file));
+      memory.writeTo(fileOut);
+      memory = null;
+    }
+    if (fileOut != null) {
+      fileOut.write(b, off, len);
+    } else {
+      memory.write(b, off, len);
+    }
+    length += len;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (fileOut != null) {
+      fileOut.flush();
+    }
+  }
+
+  /**
+   * Stop spooling. If the content was written to a file, the file is deleted, unless the content has been
+   * taken with {@link #toContent()}.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (fileOut != null) {
+      fileOut.close();
+    }
+  }
+
+  /**
+   * Stop spooling and take the content.
+   *
+   * @return the content that was written
+   * @throws IOException if the content could not be written to its file
+   */
+  public Content toContent() throws IOException {
+    close();
+    if (file == null) {
+      return new ByteArrayContent(memory.toByteArray());
+    }
+    Content content = new SpooledContent(file, length);
+    spoolFiles.add(new SpoolFile(content, file, owner));
+    file = null;
+    return content;
+  }
+
+  /**
+   * Delete the file of content that was not taken. Call in a finally block after spooling.
+   */
+  public void discard() {
+    try {
+      close();
+    } catch (IOException e) {
+      log.debug("Error closing spool file {}", file, e);
+    }
+    if (file != null) {
+      delete(file);
+      file = null;
+    }
+  }
+
+  /**
+   * The number of bytes written so far.
+   *
+   * @return the length of the content
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Whether the content went over the memory limit and was written to a file.
+   *
+   * @return true if the content is in a file
+   */
+  public boolean isSpilled() {
+    return fileOut != null;
+  }
+
+  /**
+   * Delete the files of all content spooled for an owner, such as a scanner that is being deactivated. Any
+   * document still holding such content can no longer read it.
+   *
+   * @param owner the owner passed to {@link #ContentSpool(int, File, Object)}
+   */
+  public static void deleteSpooled(Object owner) {
+    for (SpoolFile spoolFile : spoolFiles) {
+      if (spoolFile.owner == owner && spoolFiles.remove(spoolFile)) {
+        spoolFile.clear();
+        delete(spoolFile.path);
+      }
+    }
+  }
+
+  // Runs on the reaper thread, deleting the file of each piece of content as it is collected.
+  private static void reap() {
+    while (true) {
+      try {
+        SpoolFile spoolFile = (SpoolFile) collected.remove();
+        if (spoolFiles.remove(spoolFile)) {
+          delete(spoolFile.path);
+        }
+      } catch (InterruptedException e) {
+        return;
+      } catch (RuntimeException e) {
+        log.error("Error deleting spooled content", e);
+      }
+    }
+  }
+
+  // Runs in a shutdown hook, so must not log.
+  private static void deleteAll() {
+    for (SpoolFile spoolFile : spoolFiles) {
+      try {
+        Files.deleteIfExists(spoolFile.path);
+      } catch (IOException | RuntimeException e) {
+        // nothing more can be done
+      }
+    }
+    for (FileLock lock : runLocks) {
+      try {
+        lock.channel().close();
+      } catch (IOException | RuntimeException e) {
+        // nothing more can be done
+      }
+    }
+    for (Path runDir : runDirs.values()) {
+      try {
+        Files.deleteIfExists(runDir.resolve(LOCK));
+        Files.deleteIfExists(runDir);
+      } catch (IOException | RuntimeException e) {
+        // nothing more can be done, an unlocked directory is deleted by the next JVM to spool here
+      }
+    }
+  }
+
+  // The subdirectory of dir that belongs to this JVM, created and locked the first time it is needed.
+  private static Path runDir(Path dir) throws IOException {
+    try {
+      return runDirs.computeIfAbsent(dir.toAbsolutePath().normalize(), d -> {
+        try {
+          deleteStale(d);
+          return createRunDir(d);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static Path createRunDir(Path dir) throws IOException {
+    while (true) {
+      Path runDir = Files.createTempDirectory(dir, PREFIX);
+      FileChannel channel = FileChannel.open(runDir.resolve(LOCK), StandardOpenOption.CREATE_NEW,
+          StandardOpenOption.WRITE);
+      FileLock lock = channel.tryLock();
+      if (lock != null) {
+        runLocks.add(lock);
+        return runDir;
+      }
+      // another JVM took it for a stale directory between its creation and our lock, and will delete it
+      channel.close();
+    }
+  }
+
+  // The directories of other JVMs that still hold their lock are in use, the rest were left by a JVM that did
+  // not exit cleanly.
+  private static void deleteStale(Path dir) {
+    try (DirectoryStream<Path> others = Files.newDirectoryStream(dir, PREFIX + "*")) {
+      for (Path runDir : others) {
+        try {
+          deleteIfStale(runDir);
+        } catch (IOException e) {
+          log.debug("Could not check {} for spooled content left by an earlier run", runDir, e);
+        }
+      }
+    } catch (IOException e) {
+      log.warn("Could not check {} for spooled content left by an earlier run", dir, e);
+    }
+  }
+
+  private static void deleteIfStale(Path runDir) throws IOException {
+    Path lockFile = runDir.resolve(LOCK);
+    if (runDirs.containsValue(runDir.toAbsolutePath().normalize())) {
+      return; // ours, and not to be opened again, as closing another channel to it may release our lock
+    }
+    if (!Files.isDirectory(runDir) || !Files.exists(lockFile)) {
+      return; // not a spool directory, or one that is still being created
+    }
+    try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE)) {
+      FileLock lock;
+      try {
+        lock = channel.tryLock();
+      } catch (OverlappingFileLockException e) {
+        return; // held by this JVM
+      }
+      if (lock == null) {
+        return; // held by another JVM
+      }
+      log.info("Deleting spooled content in {} left by an earlier run", runDir);
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(runDir)) {
+        for (Path stale : files) {
+          if (!stale.equals(lockFile)) {
+            delete(stale);
+          }
+        }
+      }
+      delete(lockFile);
+    }
+    delete(runDir);
+  }
+
+  private static void delete(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      log.warn("Could not delete spooled content {}", path, e);
+    }
+  }
+
+  /**
+   * Content in a file that belongs to the spool, rather than to the source of the document.
+   */
+  static final class SpooledContent extends FileContent {
+    SpooledContent(Path path, long length) {
+      super(path, length);
+    }
+  }
+
+  private static class SpoolFile extends PhantomReference<Content> {
+    private final Path path;
+    private final Object owner;
+
+    SpoolFile(Content content, Path path, Object owner) {
+      super(content, collected);
+      this.path = path;
+      this.owner = owner;
+    }
+  }
+}
@@ -18,11 +18,12 @@ package org.jesterj.ingest.model.impl;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ForwardingListMultimap;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multiset;
 import net.jini.core.entry.Entry;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
+import org.jesterj.ingest.model.Content;
 import org.jesterj.ingest.model.Document;
 import org.jesterj.ingest.model.Plan;
 import org.jesterj.ingest.model.Scanner;
@@ -31,10 +32,21 @@ import org.jesterj.ingest.model.Step;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
 import java.util.Set;
 
 /*
@@ -57,10 +69,10 @@ public class DocumentImpl implements Document {
   // document id field.
   private final String idField;
 
-  Logger log = LogManager.getLogger();
-
-  private ArrayListMultimap<String, String> delegate = ArrayListMultimap.create();
-  private byte[] rawData;
+  private ListMultimap<String, String> delegate;
+  // set when the delegate may be shared with a fork, in which case it must be copied before it is changed
+  private boolean sharedFields;
+  private Content content;
   private Status status = Status.PROCESSING;
   private String statusMessage = "";
   private Plan plan;
@@ -68,26 +80,83 @@ public class DocumentImpl implements Document {
   private String sourceScannerName;
 
   public DocumentImpl(byte[] rawData, String id, Plan plan, Operation operation, Scanner source) {
-    this.rawData = rawData;
+    this(ArrayListMultimap.create(), rawData, id, plan, operation, source);
+  }
+
+  /**
+   * For subclasses that store fields differently.
+   *
+   * @param fields    an empty multimap in which to store the fields of this document
+   * @param rawData   the bytes from which this document was constructed
+   * @param id        the id of the document
+   * @param plan      the plan processing the document
+   * @param operation what is to be done with the document
+   * @param source    the scanner that found the document
+   */
+  protected DocumentImpl(ListMultimap<String, String> fields, byte[] rawData, String id, Plan plan,
+                         Operation operation, Scanner source) {
+    this.delegate = fields;
+    this.content = rawData == null ? null : new ByteArrayContent(rawData);
     this.operation = operation;
     this.sourceScannerName = source.getName();
     this.idField = plan.getDocIdField();
     this.delegate.put(idField, id);
     this.plan = plan;
     
-    if (this.rawData != null) {
-      this.delegate.put(FIELD_FILE_SIZE, String.valueOf(this.rawData.length));
+    if (rawData != null) {
+      putValue(FIELD_FILE_SIZE, (long) rawData.length);
     }
   }
 
+  /**
+   * For {@link #fork()}. The new document shares the fields and content of the original.
+   *
+   * @param original the document to copy
+   */
+  protected DocumentImpl(DocumentImpl original) {
+    original.sharedFields = true;
+    this.delegate = original.delegate;
+    this.sharedFields = true;
+    this.content = original.content;
+    this.status = original.status;
+    this.statusMessage = original.statusMessage;
+    this.plan = original.plan;
+    this.operation = original.operation;
+    this.sourceScannerName = original.sourceScannerName;
+    this.idField = original.idField;
+  }
+
+  @Override
+  public Document fork() {
+    return new DocumentImpl(this);
+  }
+
+  /**
+   * The fields, copied first if they are shared with a fork. Used by everything that changes the fields. While
+   * the fields are shared, the methods returning views return views that read the shared fields and only call
+   * this when they are used to make a change, so that a branch that only reads its fields never copies them.
+   */
+  private ListMultimap<String, String> fields() {
+    if (sharedFields) {
+      if (delegate instanceof CompactListMultimap) {
+        delegate = ((CompactListMultimap) delegate).copy();
+      } else {
+        delegate = ArrayListMultimap.create(delegate);
+      }
+      sharedFields = false;
+    }
+    return delegate;
+  }
+
   @Override
   public Multiset<String> keys() {
-    return delegate.keys();
+    // like the keys of compact storage, a snapshot rather than a view
+    return sharedFields ? ImmutableMultiset.copyOf(delegate.keys()) : delegate.keys();
   }
 
   @Override
   public boolean putAll(@Nullable java.lang.String key, Iterable<? extends String> values) {
-    return delegate.putAll(key, values);
+    return fields().putAll(key, values);
   }
 
   @Override
@@ -98,18 +167,18 @@ public class DocumentImpl implements Document {
       List<String> prev = replaceValues(this.idField, values);
       return prev == null || prev.size() != 1 || !prev.get(0).equals(value);
     } else {
-      return delegate.put(key, value);
+      return fields().put(key, value);
     }
   }
 
   @Override
   public boolean putAll(Multimap<? extends String, ? extends String> multimap) {
-    return delegate.putAll(multimap);
+    return fields().putAll(multimap);
   }
 
   @Override
   public Set<String> keySet() {
-    return delegate.keySet();
+    return sharedFields ? new SharedKeySet() : delegate.keySet();
   }
 
   @Override
@@ -119,7 +188,7 @@ public class DocumentImpl implements Document {
 
   @Override
   public boolean remove(@Nullable java.lang.Object key, @Nullable java.lang.Object value) {
-    return delegate.remove(key, value);
+    return fields().remove(key, value);
   }
 
   @Override
@@ -129,7 +198,7 @@ public class DocumentImpl implements Document {
 
   @Override
   public Collection<Map.Entry<String, String>> entries() {
-    return delegate.entries();
+    return sharedFields ? new SharedEntries() : delegate.entries();
   }
 
   @Override
@@ -139,22 +208,22 @@ public class DocumentImpl implements Document {
 
   @Override
   public void clear() {
-    delegate.clear();
+    fields().clear();
   }
 
   @Override
   public Map<String, Collection<String>> asMap() {
-    return delegate.asMap();
+    return sharedFields ? new SharedAsMap() : delegate.asMap();
   }
 
   @Override
   public List<String> replaceValues(@Nullable java.lang.String key, Iterable<? extends String> values) {
-    return delegate.replaceValues(key, values);
+    return fields().replaceValues(key, values);
   }
 
   @Override
   public Collection<String> values() {
-    return delegate.values();
+    return sharedFields ? new SharedValues() : delegate.values();
   }
 
   @Override
@@ -164,7 +233,7 @@ public class DocumentImpl implements Document {
 
   @Override
   public List<String> get(@Nullable java.lang.String key) {
-    return delegate.get(key);
+    return sharedFields ? new SharedField(key) : delegate.get(key);
   }
 
   @Override
@@ -174,17 +243,40 @@ public class DocumentImpl implements Document {
 
   @Override
   public List<String> removeAll(@Nullable java.lang.Object key) {
-    return delegate.removeAll(key);
+    return fields().removeAll(key);
   }
 
   @Override
   public byte[] getRawData() {
-    return rawData;
+    if (content == null) {
+      return null;
+    }
+    if (content instanceof ByteArrayContent) {
+      return ((ByteArrayContent) content).toBytes();
+    }
+    try {
+      // keep what we read, we've paid for it and the caller may well ask again
+      byte[] bytes = content.toBytes();
+      content = new ByteArrayContent(bytes);
+      return bytes;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not read content of " + getId() + " from " + content, e);
+    }
   }
 
   @Override
   public void setRawData(byte[] rawData) {
-    this.rawData = rawData;
+    this.content = rawData == null ? null : new ByteArrayContent(rawData);
+  }
+
+  @Override
+  public Content getContent() {
+    return content;
+  }
+
+  @Override
+  public void setContent(Content content) {
+    this.content = content;
   }
 
   @Override
@@ -201,7 +293,7 @@ public class DocumentImpl implements Document {
   @Override
   public void setStatus(Status status) {
     this.status = status;
-    log.info(status.getMarker(),statusMessage);
+    plan.getStatusReporter().report(getId(), status, statusMessage);
   }
 
   @Override
@@ -224,14 +316,23 @@ public class DocumentImpl implements Document {
     return new DocumentEntry(this, next);
   }
 
+  /**
+   * The fields of this document as an {@link ArrayListMultimap}. For documents that store their fields some
+   * other way this is a copy, and changes to it are not reflected in the document.
+   *
+   * @return the fields of this document
+   */
   @Override
   public ArrayListMultimap<String, String> getDelegate() {
-    return delegate;
+    if (delegate instanceof ArrayListMultimap) {
+      return (ArrayListMultimap<String, String>) fields();
+    }
+    return ArrayListMultimap.create(delegate);
   }
 
   @Override
   public String getId() {
-    return get(getIdField()).get(0);
+    return delegate.get(getIdField()).get(0);
   }
 
   @Override
@@ -251,7 +352,361 @@ public class DocumentImpl implements Document {
 
   @Override
   public String getFirstValue(String fieldName) {
-    return get(fieldName).get(0);
+    return delegate.get(fieldName).get(0);
+  }
+
+  @Override
+  public void putLong(String fieldName, long value) {
+    putValue(fieldName, value);
+  }
+
+  @Override
+  public void putDouble(String fieldName, double value) {
+    putValue(fieldName, value);
+  }
+
+  @Override
+  public void putInstant(String fieldName, Instant value) {
+    putValue(fieldName, value);
+  }
+
+  @Override
+  public void putBoolean(String fieldName, boolean value) {
+    putValue(fieldName, value);
+  }
+
+  @Override
+  public void putBytes(String fieldName, byte[] value) {
+    putValue(fieldName, value);
+  }
+
+  @Override
+  public Long getLong(String fieldName) {
+    return FieldValues.asLong(firstValue(fieldName));
+  }
+
+  @Override
+  public Double getDouble(String fieldName) {
+    return FieldValues.asDouble(firstValue(fieldName));
+  }
+
+  @Override
+  public Instant getInstant(String fieldName) {
+    return FieldValues.asInstant(firstValue(fieldName));
+  }
+
+  @Override
+  public Boolean getBoolean(String fieldName) {
+    return FieldValues.asBoolean(firstValue(fieldName));
+  }
+
+  @Override
+  public byte[] getBytes(String fieldName) {
+    return FieldValues.asBytes(firstValue(fieldName));
+  }
+
+  /**
+   * Every field with its value as it was added, so that typed values held by compact storage are not converted
+   * to text.
+   *
+   * @return a snapshot of the entries, in order
+   */
+  List<Map.Entry<String, Object>> typedEntries() {
+    if (delegate instanceof CompactListMultimap) {
+      return ((CompactListMultimap) delegate).typedEntries();
+    }
+    List<Map.Entry<String, Object>> entries = new ArrayList<>(delegate.size());
+    for (Map.Entry<String, String> entry : delegate.entries()) {
+      entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+    }
+    return entries;
+  }
+
+  // Only compact storage can hold values other than strings, for anything else the text is stored up front.
+  void putValue(String fieldName, Object value) {
+    if (delegate instanceof CompactListMultimap && !idField.equals(fieldName)) {
+      ((CompactListMultimap) fields()).putValue(fieldName, value);
+    } else {
+      put(fieldName, FieldValues.toText(value));
+    }
+  }
+
+  private Object firstValue(String fieldName) {
+    if (delegate instanceof CompactListMultimap) {
+      return ((CompactListMultimap) delegate).getFirstValue(fieldName);
+    }
+    List<String> values = delegate.get(fieldName);
+    return values.isEmpty() ? null : values.get(0);
+  }
+
+  /**
+   * @return true if the fields are still shared with a fork, or its original, and have not been copied
+   */
+  boolean isSharingFields() {
+    return sharedFields;
+  }
+
+  /**
+   * The values of one field while the fields are shared. Reads go to whatever the fields are at the time, and
+   * changes go to this document's own copy.
+   */
+  private class SharedField extends AbstractList<String> implements RandomAccess {
+    private final String key;
+
+    SharedField(String key) {
+      this.key = key;
+    }
+
+    @Override
+    public String get(int index) {
+      return delegate.get(key).get(index);
+    }
+
+    @Override
+    public int size() {
+      return delegate.get(key).size();
+    }
+
+    @Override
+    public String set(int index, String element) {
+      return fields().get(key).set(index, element);
+    }
+
+    @Override
+    public void add(int index, String element) {
+      fields().get(key).add(index, element);
+    }
+
+    @Override
+    public String remove(int index) {
+      return fields().get(key).remove(index);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      if (!sharedFields) {
+        return delegate.get(key).iterator();
+      }
+      return new SharedIterator<String>(delegate.get(key).iterator()) {
+        @Override
+        void removeFromCopy(String value, int position) {
+          fields().get(key).remove(position - removed());
+        }
+      };
+    }
+  }
+
+  private class SharedKeySet extends AbstractSet<String> {
+    @Override
+    public int size() {
+      return delegate.keySet().size();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return delegate.containsKey(o);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+      return delegate.containsKey(o) && !fields().removeAll(o).isEmpty();
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      if (!sharedFields) {
+        return delegate.keySet().iterator();
+      }
+      return new SharedIterator<String>(delegate.keySet().iterator()) {
+        @Override
+        void removeFromCopy(String key, int position) {
+          fields().removeAll(key);
+        }
+      };
+    }
+  }
+
+  private class SharedEntries extends AbstractCollection<Map.Entry<String, String>> {
+    @Override
+    public int size() {
+      return delegate.size();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return delegate.entries().contains(o);
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+      return sharedFields ? new SharedEntryIterator() : delegate.entries().iterator();
+    }
+  }
+
+  private class SharedValues extends AbstractCollection<String> {
+    @Override
+    public int size() {
+      return delegate.size();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return delegate.containsValue(o);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      if (!sharedFields) {
+        return delegate.values().iterator();
+      }
+      Iterator<Map.Entry<String, String>> entries = new SharedEntryIterator();
+      return new Iterator<String>() {
+        @Override
+        public boolean hasNext() {
+          return entries.hasNext();
+        }
+
+        @Override
+        public String next() {
+          return entries.next().getValue();
+        }
+
+        @Override
+        public void remove() {
+          entries.remove();
+        }
+      };
+    }
+  }
+
+  private class SharedAsMap extends AbstractMap<String, Collection<String>> {
+    @Override
+    public Set<Entry<String, Collection<String>>> entrySet() {
+      return new AbstractSet<Entry<String, Collection<String>>>() {
+        @Override
+        public Iterator<Entry<String, Collection<String>>> iterator() {
+          Iterator<String> names = DocumentImpl.this.keySet().iterator();
+          return new Iterator<Entry<String, Collection<String>>>() {
+            @Override
+            public boolean hasNext() {
+              return names.hasNext();
+            }
+
+            @Override
+            public Entry<String, Collection<String>> next() {
+              String name = names.next();
+              return new SimpleImmutableEntry<>(name, DocumentImpl.this.get(name));
+            }
+
+            @Override
+            public void remove() {
+              names.remove();
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return delegate.keySet().size();
+        }
+      };
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return delegate.containsKey(key);
+    }
+
+    @Override
+    public Collection<String> get(Object key) {
+      return delegate.containsKey(key) ? DocumentImpl.this.get((String) key) : null;
+    }
+
+    @Override
+    public Collection<String> remove(Object key) {
+      return delegate.containsKey(key) ? DocumentImpl.this.removeAll(key) : null;
+    }
+  }
+
+  /**
+   * Iterates fields that were shared when the iteration began. Nothing changes shared fields, so the iteration
+   * carries on over them after a removal has made this document copy its fields, and each removal is made in
+   * the copy instead.
+   */
+  private abstract static class SharedIterator<T> implements Iterator<T> {
+    private final Iterator<T> shared;
+    private T last;
+    private int position = -1;
+    private int removed;
+    private boolean removable;
+
+    SharedIterator(Iterator<T> shared) {
+      this.shared = shared;
+    }
+
+    /**
+     * @param element  the element last returned
+     * @param position its position in the shared fields
+     */
+    abstract void removeFromCopy(T element, int position);
+
+    int removed() {
+      return removed;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return shared.hasNext();
+    }
+
+    @Override
+    public T next() {
+      last = shared.next();
+      position++;
+      removable = true;
+      return last;
+    }
+
+    @Override
+    public void remove() {
+      if (!removable) {
+        throw new IllegalStateException();
+      }
+      removeFromCopy(last, position);
+      removed++;
+      removable = false;
+    }
+  }
+
+  /**
+   * Removes each entry from the copy by its field and its position among the values of that field, which are
+   * the same in the copy even where the order of the fields is not.
+   */
+  private class SharedEntryIterator extends SharedIterator<Map.Entry<String, String>> {
+    private final ListMultimap<String, String> shared = delegate;
+    private Map<String, Integer> removedByKey;
+
+    SharedEntryIterator() {
+      super(delegate.entries().iterator());
+    }
+
+    @Override
+    void removeFromCopy(Map.Entry<String, String> entry, int position) {
+      String key = entry.getKey();
+      int index = -1;
+      Iterator<Map.Entry<String, String>> before = shared.entries().iterator();
+      for (int i = 0; i <= position; i++) {
+        if (Objects.equals(key, before.next().getKey())) {
+          index++;
+        }
+      }
+      if (removedByKey == null) {
+        removedByKey = new HashMap<>();
+      }
+      int removedBefore = removedByKey.getOrDefault(key, 0);
+      fields().get(key).remove(index - removedBefore);
+      removedByKey.put(key, removedBefore + 1);
+    }
   }
 
   /**
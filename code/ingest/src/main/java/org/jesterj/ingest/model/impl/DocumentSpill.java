@@ -0,0 +1,287 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model.impl;
+
+import com.google.common.io.ByteStreams;
+import org.jesterj.ingest.model.Content;
+import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.Plan;
+import org.jesterj.ingest.model.Scanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A first in first out store of documents on disk, used by steps that spill rather than block when their
+ * queue is full. Each document is written to its own numbered file so that reading and writing never
+ * contend for the same file. Files left behind by a previous run are picked up again when the spill is
+ * created. Callers must synchronize access.
+ * <p>
+ * Documents come back as the same kind of document with the same fields, typed values included. Content read
+ * from a file of the document's own (such as {@link FileContent} or {@link MappedContent}) is kept as a
+ * reference to the file, so it is read from the file again later. Other content is copied into the spill
+ * without being read into memory, and copied back through a {@link ContentSpool}. The status and status
+ * message are not kept, documents waiting in a queue are always still processing.
+ */
+class DocumentSpill {
+
+  private static final String SUFFIX = ".spill";
+  private static final int FORMAT = 2;
+  private static final int CONTENT_MEMORY_LIMIT = 1024 * 1024;
+
+  // kinds of content and values
+  private static final byte NO_CONTENT = 0;
+  private static final byte BYTES = 1;
+  private static final byte FILE = 2;
+  private static final byte MAPPED_FILE = 3;
+  private static final byte TEXT = 4;
+  private static final byte LONG = 5;
+  private static final byte DOUBLE = 6;
+  private static final byte INSTANT = 7;
+  private static final byte BOOLEAN = 8;
+
+  private final File dir;
+  private long head;
+  private long tail;
+
+  DocumentSpill(File dir) {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IllegalStateException("Could not create spill directory " + dir);
+    }
+    this.dir = dir;
+    long min = Long.MAX_VALUE;
+    long max = -1;
+    File[] existing = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+    if (existing != null) {
+      for (File file : existing) {
+        String name = file.getName();
+        try {
+          long seq = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+          min = Math.min(min, seq);
+          max = Math.max(max, seq);
+        } catch (NumberFormatException e) {
+          // not one of ours
+        }
+      }
+    }
+    this.head = max < 0 ? 0 : min;
+    this.tail = max + 1;
+  }
+
+  boolean isEmpty() {
+    return head == tail;
+  }
+
+  long size() {
+    return tail - head;
+  }
+
+  void write(Document doc) throws IOException {
+    File file = file(tail);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(FORMAT);
+      writeString(out, doc.getSourceScannerName());
+      writeString(out, doc.getOperation().name());
+      writeString(out, doc.getId());
+      out.writeBoolean(doc instanceof CompactDocument);
+      writeContent(out, doc.getContent());
+      Collection<? extends Map.Entry<String, ?>> entries = doc instanceof DocumentImpl ?
+          ((DocumentImpl) doc).typedEntries() : doc.entries();
+      out.writeInt(entries.size());
+      for (Map.Entry<String, ?> entry : entries) {
+        writeString(out, entry.getKey());
+        writeValue(out, entry.getValue());
+      }
+    }
+    tail++;
+  }
+
+  /**
+   * Remove the oldest document from the spill.
+   *
+   * @param plan the plan to which the spilled documents belong
+   * @return the document, or null if the spill is empty
+   * @throws IOException if the document cannot be read back.
+   */
+  Document read(Plan plan) throws IOException {
+    if (isEmpty()) {
+      return null;
+    }
+    File file = file(head);
+    DocumentImpl doc;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      int format = in.readInt();
+      if (format != FORMAT) {
+        throw new IOException("Unknown spill format " + format + " in " + file);
+      }
+      Scanner source = (Scanner) plan.findStep(readString(in));
+      Document.Operation operation = Document.Operation.valueOf(readString(in));
+      String id = readString(in);
+      boolean compact = in.readBoolean();
+      doc = compact ? new CompactDocument(null, id, plan, operation, source) :
+          new DocumentImpl(null, id, plan, operation, source);
+      doc.setContent(readContent(in));
+      doc.clear();
+      int entries = in.readInt();
+      for (int i = 0; i < entries; i++) {
+        doc.putValue(readString(in), readValue(in));
+      }
+    } finally {
+      head++;
+      //noinspection ResultOfMethodCallIgnored
+      file.delete();
+    }
+    return doc;
+  }
+
+  // Content from the document's own file is spilled as a reference to the file, anything else is copied.
+  private static void writeContent(DataOutputStream out, Content content) throws IOException {
+    if (content == null) {
+      out.writeByte(NO_CONTENT);
+    } else if (content instanceof MappedContent) {
+      out.writeByte(MAPPED_FILE);
+      writeString(out, ((MappedContent) content).getPath().toString());
+      out.writeLong(content.length());
+    } else if (content instanceof FileContent && !(content instanceof ContentSpool.SpooledContent)) {
+      out.writeByte(FILE);
+      writeString(out, ((FileContent) content).getPath().toString());
+      out.writeLong(content.length());
+    } else {
+      out.writeByte(BYTES);
+      long length = content.length();
+      if (length < 0) {
+        byte[] bytes = content.toBytes();
+        out.writeLong(bytes.length);
+        out.write(bytes);
+        return;
+      }
+      out.writeLong(length);
+      try (InputStream in = content.open()) {
+        if (ByteStreams.copy(ByteStreams.limit(in, length), out) != length) {
+          throw new IOException("Content ended before its length of " + length + " bytes");
+        }
+      }
+    }
+  }
+
+  // Copied content is read back through a spool, so that large content does not have to fit in memory.
+  private Content readContent(DataInputStream in) throws IOException {
+    byte kind = in.readByte();
+    switch (kind) {
+      case NO_CONTENT:
+        return null;
+      case MAPPED_FILE:
+        return new MappedContent(Paths.get(readString(in)), in.readLong());
+      case FILE:
+        return new FileContent(Paths.get(readString(in)), in.readLong());
+      case BYTES:
+        long length = in.readLong();
+        ContentSpool spool = new ContentSpool(CONTENT_MEMORY_LIMIT, null);
+        try {
+          ByteStreams.copy(ByteStreams.limit(in, length), spool);
+          return spool.toContent();
+        } finally {
+          spool.discard();
+        }
+      default:
+        throw new IOException("Unknown kind of content " + kind);
+    }
+  }
+
+  private static void writeValue(DataOutputStream out, Object value) throws IOException {
+    if (value instanceof Long) {
+      out.writeByte(LONG);
+      out.writeLong((Long) value);
+    } else if (value instanceof Double) {
+      out.writeByte(DOUBLE);
+      out.writeDouble((Double) value);
+    } else if (value instanceof Instant) {
+      out.writeByte(INSTANT);
+      out.writeLong(((Instant) value).getEpochSecond());
+      out.writeInt(((Instant) value).getNano());
+    } else if (value instanceof Boolean) {
+      out.writeByte(BOOLEAN);
+      out.writeBoolean((Boolean) value);
+    } else if (value instanceof byte[]) {
+      out.writeByte(BYTES);
+      out.writeInt(((byte[]) value).length);
+      out.write((byte[]) value);
+    } else {
+      out.writeByte(TEXT);
+      writeString(out, FieldValues.toText(value));
+    }
+  }
+
+  private static Object readValue(DataInputStream in) throws IOException {
+    byte kind = in.readByte();
+    switch (kind) {
+      case LONG:
+        return in.readLong();
+      case DOUBLE:
+        return in.readDouble();
+      case INSTANT:
+        return Instant.ofEpochSecond(in.readLong(), in.readInt());
+      case BOOLEAN:
+        return in.readBoolean();
+      case BYTES:
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+      case TEXT:
+        return readString(in);
+      default:
+        throw new IOException("Unknown kind of value " + kind);
+    }
+  }
+
+  private File file(long seq) {
+    return new File(dir, seq + SUFFIX);
+  }
+
+  // DataOutput.writeUTF is limited to 64k, and extracted text is frequently larger than that.
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model.impl;
+
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Conversions between the typed values a document may hold and their text form. Longs, doubles and booleans
+ * are written as by their <code>toString()</code> methods, instants in ISO-8601 form, and bytes as Base64.
+ * Text that is blank converts to null. Instants may be read from text holding either ISO-8601 or a number of
+ * milliseconds since the epoch, and longs may be read from instants, which are then milliseconds since the epoch.
+ */
+final class FieldValues {
+
+  private FieldValues() {
+  }
+
+  static String toText(Object value) {
+    if (value == null || value instanceof String) {
+      return (String) value;
+    }
+    if (value instanceof byte[]) {
+      return Base64.getEncoder().encodeToString((byte[]) value);
+    }
+    return value.toString();
+  }
+
+  static Long asLong(Object value) {
+    if (value instanceof Long) {
+      return (Long) value;
+    }
+    if (value instanceof Number) {
+      return ((Number) value).longValue();
+    }
+    if (value instanceof Instant) {
+      return ((Instant) value).toEpochMilli();
+    }
+    String text = nonBlankText(value);
+    return text == null ? null : Long.valueOf(text);
+  }
+
+  static Double asDouble(Object value) {
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue();
+    }
+    String text = nonBlankText(value);
+    return text == null ? null : Double.valueOf(text);
+  }
+
+  static Instant asInstant(Object value) {
+    if (value instanceof Instant) {
+      return (Instant) value;
+    }
+    if (value instanceof Number) {
+      return Instant.ofEpochMilli(((Number) value).longValue());
+    }
+    String text = nonBlankText(value);
+    if (text == null) {
+      return null;
+    }
+    char first = text.charAt(0);
+    if (first == '-' || Character.isDigit(first)) {
+      try {
+        return Instant.ofEpochMilli(Long.parseLong(text));
+      } catch (NumberFormatException e) {
+        // not millis, so expect ISO-8601 (which also starts with a digit)
+      }
+    }
+    return Instant.parse(text);
+  }
+
+  static Boolean asBoolean(Object value) {
+    if (value instanceof Boolean) {
+      return (Boolean) value;
+    }
+    String text = nonBlankText(value);
+    return text == null ? null : Boolean.valueOf(text);
+  }
+
+  static byte[] asBytes(Object value) {
+    if (value instanceof byte[]) {
+      return (byte[]) value;
+    }
+    String text = nonBlankText(value);
+    return text == null ? null : Base64.getDecoder().decode(text);
+  }
+
+  private static String nonBlankText(Object value) {
+    String text = toText(value);
+    if (text == null) {
+      return null;
+    }
+    text = text.trim();
+    return text.isEmpty() ? null : text;
+  }
+}
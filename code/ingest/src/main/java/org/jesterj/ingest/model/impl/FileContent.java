@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model.impl;
+
+import org.jesterj.ingest.model.Content;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Content that is read from a file each time it is opened. Nothing is held in memory, but changes to the
+ * file before the content is read will be seen by whoever reads it.
+ */
+public class FileContent implements Content {
+
+  private final Path path;
+  private final long length;
+
+  /**
+   * @param path   the file holding the content
+   * @param length the size of the file if already known, or -1 to look it up
+   */
+  public FileContent(Path path, long length) {
+    this.path = path;
+    this.length = length;
+  }
+
+  public FileContent(Path path) {
+    this(path, -1);
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  @Override
+  public InputStream open() throws IOException {
+    return Files.newInputStream(path);
+  }
+
+  @Override
+  public long length() {
+    if (length >= 0) {
+      return length;
+    }
+    try {
+      return Files.size(path);
+    } catch (IOException e) {
+      return -1;
+    }
+  }
+
+  @Override
+  public byte[] toBytes() throws IOException {
+    return Files.readAllBytes(path);
+  }
+
+  @Override
+  public String toString() {
+    return "FileContent{" + path + '}';
+  }
+}
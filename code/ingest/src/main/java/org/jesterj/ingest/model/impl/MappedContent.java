@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model.impl;
+
+import org.jesterj.ingest.model.Content;
+import org.jesterj.ingest.utils.ByteBufferInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Content read from a memory mapped file. The file is mapped the first time the content is read, and the
+ * streams and buffers handed out read the operating system's page cache directly, so even very large files
+ * are never copied onto the heap. The mapping is released when this object is garbage collected. As with
+ * any mapping, truncating the file while it is being read will cause the reader to fail.
+ */
+public class MappedContent implements Content {
+
+  private final Path path;
+  private final long length;
+  private volatile MappedByteBuffer mapped;
+
+  /**
+   * @param path   the file holding the content
+   * @param length the size of the file, which may not exceed {@link Integer#MAX_VALUE}
+   */
+  public MappedContent(Path path, long length) {
+    if (length > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Cannot map " + length + " bytes of " + path + " into a single buffer");
+    }
+    this.path = path;
+    this.length = length;
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  private MappedByteBuffer map() throws IOException {
+    MappedByteBuffer buffer = mapped;
+    if (buffer == null) {
+      synchronized (this) {
+        buffer = mapped;
+        if (buffer == null) {
+          try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(length, channel.size()));
+          }
+          mapped = buffer;
+        }
+      }
+    }
+    return buffer;
+  }
+
+  @Override
+  public InputStream open() throws IOException {
+    return new ByteBufferInputStream(map());
+  }
+
+  @Override
+  public long length() {
+    return length;
+  }
+
+  /**
+   * A read only view of the mapped file, positioned at the start of the content.
+   */
+  @Override
+  public ByteBuffer toByteBuffer() throws IOException {
+    return map().asReadOnlyBuffer();
+  }
+
+  @Override
+  public String toString() {
+    return "MappedContent{" + path + '}';
+  }
+}
@@ -17,11 +17,16 @@
 package org.jesterj.ingest.model.impl;
 
 import com.google.common.collect.ArrayListMultimap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.jesterj.ingest.config.Transient;
+import org.jesterj.ingest.logging.LogStatusWriter;
 import org.jesterj.ingest.model.Plan;
+import org.jesterj.ingest.model.StatusReporter;
 import org.jesterj.ingest.model.Step;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Set;
@@ -34,10 +39,14 @@ import java.util.stream.Collectors;
  */
 public class PlanImpl implements Plan {
 
+  private static final Logger log = LogManager.getLogger();
+  private static final long STATUS_FLUSH_MILLIS = 5000;
+
   private LinkedHashMap<String, Step> steps;
   private String idField;
   private boolean active = false;
   private String name;
+  private StatusReporter statusReporter;
 
   protected PlanImpl() {
   }
@@ -76,6 +85,7 @@ public class PlanImpl implements Plan {
 
   @Override
   public synchronized void activate() {
+    statusReporter.start();
     steps.values().forEach(Step::activate);
     this.active = true;
   }
@@ -84,6 +94,20 @@ public class PlanImpl implements Plan {
   public synchronized void deactivate() {
     steps.values().forEach(Step::deactivate);
     this.active = false;
+    try {
+      if (!statusReporter.flush(STATUS_FLUSH_MILLIS)) {
+        log.warn("Not all document statuses for {} were recorded within {}ms", name, STATUS_FLUSH_MILLIS);
+      }
+      statusReporter.stop();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Transient
+  @Override
+  public StatusReporter getStatusReporter() {
+    return statusReporter;
   }
 
   @Transient
@@ -125,6 +149,9 @@ public class PlanImpl implements Plan {
 
   public static class Builder extends NamedBuilder<Plan> {
 
+    private static final int STATUS_QUEUE_CAPACITY = 8192;
+    private static final int STATUS_BATCH_SIZE = 512;
+
     PlanImpl obj = new PlanImpl();
     /**
      * The steps already built
@@ -149,6 +176,11 @@ public class PlanImpl implements Plan {
      */
     ArrayListMultimap<String, String> predecessors = ArrayListMultimap.create();
 
+    /**
+     * Whether linear chains of steps should be fused when the plan is built.
+     */
+    boolean fuse;
+
     /**
      * Add a step to the plan. Will automatically append the supplied step to the specified predecessor step.
      * If a step is added twice with different predecessors this represents a node that coalesces two paths in the DAG.
@@ -192,15 +224,42 @@ public class PlanImpl implements Plan {
       }
       List<StepImpl.Builder> scanners = findScanners();
       scanners.forEach(this::buildStep);
+      if (fuse) {
+        fuseLinearSteps();
+      }
       PlanImpl obj = getObj();
       this.obj = new PlanImpl();
       obj.steps = this.steps;
+      if (obj.statusReporter == null) {
+        obj.statusReporter = new AsyncStatusReporter(new LogStatusWriter(), STATUS_QUEUE_CAPACITY, STATUS_BATCH_SIZE);
+      }
       for (Step step : steps.values()) {
         ((StepImpl) step).setPlan(obj); // get with the plan...
       }
       return obj;
     }
 
+    /**
+     * Mark each step that is the only successor of its only predecessor as fused, so that the predecessor's
+     * threads run it directly instead of passing documents through its queue. Steps are never fused with a scanner,
+     * and a step is only fused if it has the same number of threads as the predecessor that will be running it, so
+     * that fusion neither limits the parallelism of a step nor runs a step on more threads than it asked for.
+     */
+    private void fuseLinearSteps() {
+      for (String stepName : predecessors.keySet()) {
+        List<String> from = predecessors.get(stepName);
+        if (from.size() != 1) {
+          continue;
+        }
+        StepImpl step = (StepImpl) steps.get(stepName);
+        StepImpl previous = (StepImpl) steps.get(from.get(0));
+        if (Collections.frequency(predecessors.values(), previous.getName()) == 1 &&
+            step.canFuse() && previous.canFuse() && step.getConcurrency() == previous.getConcurrency()) {
+          step.setFused(true);
+        }
+      }
+    }
+
     private void buildStep(StepImpl.Builder builder) {
       if (pendingBuilders.contains(builder)) {
         throw new CyclicGraphException("Step " + builder.getStepName() + " is referenced by one of it's descendants");
@@ -235,10 +294,35 @@ public class PlanImpl implements Plan {
       return obj;
     }
 
+    /**
+     * Run linear chains of steps on a single set of threads. Where a step is the only successor of a step that has
+     * no other successors, the predecessor calls the step's processor directly rather than queueing documents for
+     * it. This removes a queue hand off per step for chains of cheap steps. Each step still reports the status of
+     * every document it processes under its own name.
+     *
+     * @return this builder
+     */
+    public Builder fusingLinearSteps() {
+      this.fuse = true;
+      return this;
+    }
+
     public Builder withIdField(String id) {
       getObj().idField = id;
       return this;
     }
+
+    /**
+     * Send the changes in status of documents in this plan somewhere other than the log. By default they are
+     * logged by a background thread, and recorded by the {@link org.jesterj.ingest.logging.JesterJAppender}.
+     *
+     * @param reporter the status reporter to use
+     * @return this builder
+     */
+    public Builder reportingStatusTo(StatusReporter reporter) {
+      getObj().statusReporter = reporter;
+      return this;
+    }
   }
 
 }
@@ -16,17 +16,33 @@
 
 package org.jesterj.ingest.model.impl;
 
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 import net.jini.space.JavaSpace;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jesterj.ingest.model.ConfiguredBuildable;
+import org.jesterj.ingest.model.Content;
 import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.DocumentIndex;
 import org.jesterj.ingest.model.Router;
 import org.jesterj.ingest.model.Scanner;
+import org.jesterj.ingest.model.Status;
 import org.jesterj.ingest.model.Step;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -50,8 +66,23 @@ public abstract class ScannerImpl extends StepImpl implements Scanner {
 
   private static final Logger log = LogManager.getLogger();
 
+  // documents last seen in these states may not have finished processing, so are sent even if unchanged
+  private static final EnumSet<Status> UNFINISHED = EnumSet.of(Status.DIRTY, Status.PROCESSING, Status.BATCHED);
+
   private long interval;
 
+  private boolean compactDocuments;
+
+  private DocumentIndex documentIndex;
+
+  private static final double SEEN_FILTER_FPP = 0.01;
+  private Path seenFilterFile;
+  private int expectedDocuments;
+  private SeenDocumentFilter seenFilter;
+  private Thread seenFilterSaver;
+
+  protected Thread worker;
+
   // can be used to avoid starting a scan while one is still running. This is not required however
   // and can be ignored if desired.
   protected final AtomicBoolean activeScan = new AtomicBoolean(false);
@@ -83,11 +114,25 @@ public abstract class ScannerImpl extends StepImpl implements Scanner {
     }
   }
 
+  /**
+   * Scanners have no queue to consume, so a single thread runs the scan scheduling loop regardless of
+   * the configured concurrency.
+   */
+  @Override
+  protected synchronized void startWorkers() {
+    if (worker == null || !worker.isAlive()) {
+      worker = new Thread(this);
+      worker.setDaemon(true);
+      worker.start();
+    }
+  }
+
   @Override
   public void deactivate() {
     super.deactivate();
     worker.interrupt();
     worker = null;
+    saveSeenFilter();
   }
 
   /**
@@ -101,9 +146,137 @@ public abstract class ScannerImpl extends StepImpl implements Scanner {
     String result = idFunction.apply(id);
     String idField = doc.getIdField();
     doc.put(idField, result);
+    if (documentIndex != null && !recordIfChanged(doc)) {
+      log.trace("{} skipped unchanged document {}", getName(), doc.getId());
+      return;
+    }
     getDocumentTracker().accept(doc);
     sendToNext(doc);
   }
+
+  /**
+   * Compare a document with what the document index recorded when it was last sent, and record it if it
+   * has changed. The content is only hashed if the modification time can't show the document is unchanged.
+   *
+   * @param doc the document found
+   * @return true if the document is new, changed, deleted or may not have finished processing last time.
+   */
+  private boolean recordIfChanged(Document doc) {
+    String id = doc.getId();
+    try {
+      if (doc.getOperation() == Document.Operation.DELETE) {
+        documentIndex.remove(getName(), id);
+        return true;
+      }
+      SeenDocumentFilter filter = getSeenFilter();
+      DocumentIndex.Entry previous = null;
+      if (filter == null || filter.mightHaveSeen(id)) {
+        previous = documentIndex.get(getName(), id);
+      }
+      if (filter != null) {
+        filter.seen(id); // after this call the index holds the id whether it changed or not
+      }
+      boolean finished = previous != null && previous.getStatus() != null && !UNFINISHED.contains(previous.getStatus());
+      long modified = lastModified(doc);
+      if (finished && modified >= 0 && modified == previous.getModified()) {
+        return false;
+      }
+      String hash = hash(doc);
+      boolean changed = !finished || !hash.equals(previous.getHash());
+      if (changed || modified != previous.getModified()) {
+        // unfinished until the plan reports otherwise, in case this run stops before it does
+        documentIndex.put(getName(), new DocumentIndex.Entry(id, hash, modified, Status.DIRTY));
+      }
+      return changed;
+    } catch (IOException | RuntimeException e) {
+      log.warn("Could not check {} against the document index, sending it anyway", id, e);
+      return true;
+    }
+  }
+
+  private synchronized SeenDocumentFilter getSeenFilter() {
+    if (seenFilter == null && seenFilterFile != null) {
+      SeenDocumentFilter filter = new SeenDocumentFilter(seenFilterFile, expectedDocuments, SEEN_FILTER_FPP);
+      // no logging here, the JVM's shutdown thread can deadlock with logging
+      seenFilterSaver = new Thread(() -> {
+        try {
+          filter.save();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }, getName() + "-seen-filter-saver");
+      Runtime.getRuntime().addShutdownHook(seenFilterSaver);
+      seenFilter = filter;
+    }
+    return seenFilter;
+  }
+
+  /**
+   * Save the filter of seen documents, if there is one, so that the next run can trust it.
+   */
+  synchronized void saveSeenFilter() {
+    if (seenFilter == null) {
+      return;
+    }
+    if (seenFilter.isOverfull()) {
+      log.warn("{} has seen more than the {} documents it expected, {} should be recreated with a larger size",
+          getName(), expectedDocuments, seenFilter.getFile());
+    }
+    try {
+      seenFilter.save();
+    } catch (IOException e) {
+      log.error("Could not save the seen document filter for {}", getName(), e);
+    }
+    try {
+      Runtime.getRuntime().removeShutdownHook(seenFilterSaver);
+    } catch (IllegalStateException e) {
+      // already shutting down, the hook will save it again
+    }
+    seenFilter = null;
+  }
+
+  /**
+   * The time at which the document was last modified at its source. Where this is known, unchanged documents
+   * can be recognized without reading their content.
+   *
+   * @param doc the document found
+   * @return milliseconds since the epoch, or -1 if not known
+   */
+  protected long lastModified(Document doc) {
+    return -1;
+  }
+
+  /**
+   * Whether a field should be included in the hash that detects changed documents. Fields that change without
+   * the document changing (such as access times) should be excluded.
+   *
+   * @param field the name of the field
+   * @return true if changes to the field should cause the document to be sent again
+   */
+  protected boolean isHashed(String field) {
+    return true;
+  }
+
+  private String hash(Document doc) throws IOException {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    Content content = doc.getContent();
+    if (content != null) {
+      try (InputStream in = content.open()) {
+        ByteStreams.copy(in, Funnels.asOutputStream(hasher));
+      }
+    }
+    List<String> fields = new ArrayList<>(doc.keySet());
+    Collections.sort(fields);
+    for (String field : fields) {
+      if (isHashed(field)) {
+        hasher.putString(field, StandardCharsets.UTF_8).putByte((byte) 0);
+        for (String value : doc.get(field)) {
+          hasher.putString(String.valueOf(value), StandardCharsets.UTF_8).putByte((byte) 0);
+        }
+      }
+    }
+    return hasher.hash().toString();
+  }
   
   @Override
   public long getInterval() {
@@ -126,6 +299,19 @@ public abstract class ScannerImpl extends StepImpl implements Scanner {
     throw new UnsupportedOperationException("Scanners are a push only source of documents. Queue methods are not supported for this type of step.");
   }
 
+  /**
+   * Scanners always run on their own thread, and never run their successor inline.
+   */
+  @Override
+  boolean canFuse() {
+    return false;
+  }
+
+  @Override
+  public void enqueue(Document document) {
+    throw new UnsupportedOperationException("Scanners are a push only source of documents. Queue methods are not supported for this type of step.");
+  }
+
   @Override
   public boolean offer(Document document) {
     throw new UnsupportedOperationException("Scanners are a push only source of documents. Queue methods are not supported for this type of step.");
@@ -272,6 +458,49 @@ public abstract class ScannerImpl extends StepImpl implements Scanner {
     return log;
   }
 
+  /**
+   * Create a new document for something this scanner found. Scanners should use this rather than
+   * constructing documents directly so that the document representation can be configured.
+   *
+   * @param rawData   the bytes from which the document is constructed
+   * @param id        the id of the document
+   * @param operation what is to be done with the document
+   * @return a new document
+   */
+  protected DocumentImpl newDocument(byte[] rawData, String id, Document.Operation operation) {
+    if (compactDocuments) {
+      return new CompactDocument(rawData, id, getPlan(), operation, this);
+    }
+    return new DocumentImpl(rawData, id, getPlan(), operation, this);
+  }
+
+  /**
+   * Create a new document whose content is only read if a processor needs it.
+   *
+   * @param content   the content from which the document is constructed
+   * @param id        the id of the document
+   * @param operation what is to be done with the document
+   * @return a new document
+   * @see #newDocument(byte[], String, Document.Operation)
+   */
+  protected DocumentImpl newDocument(Content content, String id, Document.Operation operation) {
+    DocumentImpl doc = newDocument((byte[]) null, id, operation);
+    doc.setContent(content);
+    long length = content == null ? -1 : content.length();
+    if (length >= 0) {
+      doc.putLong(Document.FIELD_FILE_SIZE, length);
+    }
+    return doc;
+  }
+
+  public boolean isCompactDocuments() {
+    return compactDocuments;
+  }
+
+  public DocumentIndex getDocumentIndex() {
+    return documentIndex;
+  }
+
   public boolean isActiveScan() {
     return activeScan.get();
   }
@@ -330,6 +559,48 @@ public abstract class ScannerImpl extends StepImpl implements Scanner {
       return this;
     }
 
+    /**
+     * Produce {@link CompactDocument}s, which use much less memory for documents with many fields.
+     *
+     * @return this builder
+     */
+    public Builder producingCompactDocuments() {
+      getObject().compactDocuments = true;
+      return this;
+    }
+
+    /**
+     * Consult and update an index of the documents this scanner has sent, and only send documents that
+     * have changed since they were last sent or that may not have finished processing.
+     *
+     * @param index the index of documents sent
+     * @return this builder
+     */
+    public Builder trackingDocumentsIn(DocumentIndex index) {
+      getObject().documentIndex = index;
+      return this;
+    }
+
+    /**
+     * Keep a bloom filter of the ids recorded in the document index, so that documents this scanner has never
+     * seen are sent without looking them up. The filter is saved to the file when the scanner is deactivated
+     * or the JVM shuts down, and only trusted once it has been saved. It has no effect unless documents are
+     * tracked with {@link #trackingDocumentsIn(DocumentIndex)}.
+     *
+     * @param file              where the filter is saved between runs
+     * @param expectedDocuments roughly how many distinct documents the scanner will see. Each million takes
+     *                          about 1.2MB of memory.
+     * @return this builder
+     */
+    public Builder filteringSeenDocuments(File file, int expectedDocuments) {
+      if (expectedDocuments < 1) {
+        throw new IllegalArgumentException("The seen document filter must expect at least one document");
+      }
+      getObject().seenFilterFile = file.toPath();
+      getObject().expectedDocuments = expectedDocuments;
+      return this;
+    }
+
     public abstract ScannerImpl build();
 
 
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jesterj.ingest.model.impl;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A bloom filter of the ids a scanner has recorded in its document index, so that ids it has never seen can be
+ * recognized without asking the index. The filter is loaded from a file when created and saved back to it by
+ * {@link #save()}. Bloom filters have no false negatives, so any id the filter has not seen is certainly not
+ * in the index, as long as the filter was saved after the ids were recorded. If no saved filter exists, or it
+ * cannot be read, the filter only collects ids and every id is looked up until it has been saved and reloaded.
+ * A filter that is saved earlier than the index is written only causes documents to be sent again.
+ */
+class SeenDocumentFilter {
+
+  private static final Logger log = LogManager.getLogger();
+
+  private final Path file;
+  private final double fpp;
+  private final boolean trusted;
+  private final BloomFilter<CharSequence> filter;
+
+  /**
+   * @param file              where the filter is saved
+   * @param expectedDocuments how many distinct ids the filter should hold, used if there is no saved filter
+   * @param fpp               the desired false positive probability at that size
+   */
+  SeenDocumentFilter(Path file, int expectedDocuments, double fpp) {
+    this.file = file;
+    this.fpp = fpp;
+    BloomFilter<CharSequence> loaded = null;
+    if (Files.exists(file)) {
+      try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+        loaded = BloomFilter.readFrom(in, Funnels.stringFunnel(StandardCharsets.UTF_8));
+      } catch (IOException | RuntimeException e) {
+        log.warn("Could not read seen document filter {}, all documents will be looked up", file, e);
+      }
+    }
+    this.trusted = loaded != null;
+    this.filter = loaded != null ? loaded : BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedDocuments, fpp);
+  }
+
+  /**
+   * @param docId the id of a document
+   * @return false only if the id has certainly never been recorded in the document index.
+   */
+  synchronized boolean mightHaveSeen(String docId) {
+    return !trusted || filter.mightContain(docId);
+  }
+
+  synchronized void seen(String docId) {
+    filter.put(docId);
+  }
+
+  /**
+   * @return true if the filter holds so many more ids than it was sized for that many unseen ids will be
+   * looked up anyway.
+   */
+  synchronized boolean isOverfull() {
+    return filter.expectedFpp() > fpp * 10;
+  }
+
+  Path getFile() {
+    return file;
+  }
+
+  /**
+   * Write the filter to its file, replacing the previous version only once the new one is complete.
+   *
+   * @throws IOException if the filter cannot be written.
+   */
+  synchronized void save() throws IOException {
+    Path dir = file.toAbsolutePath().getParent();
+    Files.createDirectories(dir);
+    Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+    try {
+      try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+        filter.writeTo(out);
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+}
@@ -16,6 +16,7 @@
 
 package org.jesterj.ingest.model.impl;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import net.jini.space.JavaSpace;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -24,23 +25,40 @@ import org.jesterj.ingest.logging.JesterJAppender;
 import org.jesterj.ingest.model.ConfiguredBuildable;
 import org.jesterj.ingest.model.Document;
 import org.jesterj.ingest.model.DocumentProcessor;
+import org.jesterj.ingest.model.NextSteps;
+import org.jesterj.ingest.model.OverflowPolicy;
 import org.jesterj.ingest.model.Plan;
 import org.jesterj.ingest.model.Router;
 import org.jesterj.ingest.model.Status;
 import org.jesterj.ingest.model.Step;
 import org.jesterj.ingest.processors.DefaultWarningProcessor;
 import org.jesterj.ingest.routers.RouteByStepName;
-
+import org.jesterj.ingest.utils.MpscRingBuffer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Spliterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
@@ -63,17 +81,32 @@ public class StepImpl implements Step {
 
   private static final Logger log = LogManager.getLogger();
 
-  private LinkedBlockingQueue<Document> queue;
-  private final Object queueLock = new Object();
+  private BlockingQueue<Document> queue;
+  private final Object activation = new Object();
   private int batchSize; // no concurrency by default
+  private int concurrency = 1;
+  private int maxInFlight; // zero means documents are processed on the worker threads
+  private int queueCapacity; // zero means size the queue from the batch size
+  private boolean ringBuffer;
+  private boolean fused; // processed on the predecessor's thread rather than by workers of its own
+  private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+  private long overflowTimeoutMs;
+  private File spillDir;
+  private DocumentSpill spill;
+  private final Object spillLock = new Object();
+  private final AtomicLong rejected = new AtomicLong();
   private LinkedHashMap<String, Step> nextSteps = new LinkedHashMap<>();
+  private NextSteps successors = new NextSteps(nextSteps);
   private volatile boolean active;
   private JavaSpace outputSpace;
   private JavaSpace inputSpace;
   private String stepName;
   private Router router = new RouteByStepName();
   private DocumentProcessor processor = new DefaultWarningProcessor();
-  protected Thread worker;
+  private ExecutorService workers;
+  private final DocumentConsumer inline = new DocumentConsumer();
+  private ExecutorService documentThreads;
+  private Semaphore inFlight;
   private Plan plan;
 
   private List<Runnable> deferred = new ArrayList<>();
@@ -207,11 +240,34 @@ public class StepImpl implements Step {
     return batchSize;
   }
 
+  @Override
+  public int getConcurrency() {
+    return concurrency;
+  }
+
+  /**
+   * What this step does with documents that arrive when its queue is full.
+   *
+   * @return the overflow policy
+   */
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  /**
+   * The maximum number of documents this step will process simultaneously on per-document threads.
+   *
+   * @return the in-flight limit, or zero if documents are processed directly on the worker threads.
+   */
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
   @Override
   public Step[] getNext(Document doc) {
-    if (nextSteps.size() == 0) return null;
-    if (nextSteps.size() == 1) return new Step[]{nextSteps.values().iterator().next()};
-    return router.route(doc, nextSteps);
+    if (successors.size() == 0) return null;
+    if (successors.size() == 1) return successors.all();
+    return router.route(doc, successors);
   }
 
   @Override
@@ -261,17 +317,88 @@ public class StepImpl implements Step {
 
   @Override
   public void activate() {
-    if (worker == null || !worker.isAlive()) {
-      worker = new Thread(this);
-      worker.setDaemon(true);
-      worker.start();
+    synchronized (activation) {
+      this.active = true;
+      activation.notifyAll();
+    }
+    startWorkers();
+  }
+
+  /**
+   * Start the threads that process documents for this step. Each step gets its own fixed pool of
+   * threads named for the step so that a slow step cannot starve its neighbors, and so that thread dumps
+   * show where the time is going.
+   */
+  protected synchronized void startWorkers() {
+    if (fused) {
+      return;
+    }
+    if (workers == null) {
+      workers = Executors.newFixedThreadPool(concurrency, new ThreadFactoryBuilder()
+          .setNameFormat(String.valueOf(getName()).replace("%", "%%") + "-worker-%d")
+          .setDaemon(true)
+          .build());
+      if (maxInFlight > 0) {
+        inFlight = new Semaphore(maxInFlight);
+        documentThreads = newDocumentThreads();
+      }
+      if (spill != null) {
+        synchronized (spillLock) {
+          unspill(); // documents left on disk by a previous run
+        }
+      }
+      registerQueueGauge();
+      for (int i = 0; i < concurrency; i++) {
+        workers.execute(this);
+      }
+    }
+  }
+
+  private void registerQueueGauge() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      String planName = getPlan() == null ? "none" : String.valueOf(getPlan().getName());
+      ObjectName name = new ObjectName("org.jesterj:type=Step,plan=" + ObjectName.quote(planName) +
+          ",name=" + ObjectName.quote(String.valueOf(getName())));
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name); // the most recently activated step of that name wins
+      }
+      server.registerMBean(new StandardMBean(new QueueGauge(), StepQueueMXBean.class, true), name);
+    } catch (JMException e) {
+      log.warn("Could not register queue gauge for " + getName(), e);
+    }
+  }
+
+  /**
+   * Create the executor that gives each document its own thread. Virtual threads are used when the JVM
+   * provides them (Java 21+) so that thousands of documents blocked on sockets cost very little. Older JVMs
+   * fall back to a cache of platform threads, still bounded by the in-flight limit.
+   *
+   * @return an executor that runs each task on a new or idle thread
+   */
+  private ExecutorService newDocumentThreads() {
+    String prefix = String.valueOf(getName()) + "-doc-";
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> threadBuilder = Class.forName("java.lang.Thread$Builder");
+      builder = threadBuilder.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+      ThreadFactory factory = (ThreadFactory) threadBuilder.getMethod("factory").invoke(builder);
+      Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+      return (ExecutorService) perTask.invoke(null, factory);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      log.debug("Virtual threads not available for {}, using platform threads", getName());
+      return Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+          .setNameFormat(prefix.replace("%", "%%") + "%d")
+          .setDaemon(true)
+          .build());
     }
-    this.active = true;
   }
 
   @Override
   public void deactivate() {
-    this.active = false;
+    synchronized (activation) {
+      this.active = false;
+    }
   }
 
   @Override
@@ -292,15 +419,14 @@ public class StepImpl implements Step {
         reportDocStatus(Status.DROPPED, document, "No qualifying next step found by {} in {}", router, getName());
         return;
       }
-      for (Step step : next) {
+      int last = next.length - 1;
+      for (int i = 0; i <= last; i++) {
+        Step step = next[i];
+        // each branch gets its own copy so that they can't see each other's changes, the last gets the original
+        Document branch = i == last ? document : document.fork();
         if (this.outputSpace == null) {
-          // local processing is our only option, do blocking put.
-          try {
-            step.put(document);
-          } catch (InterruptedException e) {
-            String message = "Exception while offering to " + step.getName();
-            reportException(document, e, message);
-          }
+          // local processing is our only option, the next step decides what to do if it is full.
+          step.enqueue(branch);
         } else {
           if (this.isFinalHelper()) {
             // remote processing is our only option.
@@ -310,7 +436,7 @@ public class StepImpl implements Step {
             // Try to process this item locally first with a non-blocking add, and
             // if the getNext step is bogged down send it out for processing by helpers.
             try {
-              step.add(document);
+              step.add(branch);
             } catch (IllegalStateException e) {
               log.debug("todo: send to JavaSpace");
               // todo: put in JavaSpace
@@ -324,7 +450,109 @@ public class StepImpl implements Step {
     }
   }
 
+  /**
+   * Whether this step has been fused into its predecessor by the plan. A fused step has no worker threads,
+   * documents handed to it are processed immediately on the thread that handed them over.
+   *
+   * @return true if this step is executed inline by its predecessor
+   */
+  boolean isFused() {
+    return fused;
+  }
+
+  void setFused(boolean fused) {
+    this.fused = fused;
+  }
+
+  /**
+   * Whether this step may take part in fusion, either running inline on its predecessor's thread or running its
+   * successor inline. Steps that hand documents to per-document threads, exchange documents through a JavaSpace
+   * or keep documents on disk need their own workers.
+   *
+   * @return true if this step can be fused with a neighbor
+   */
+  boolean canFuse() {
+    return maxInFlight == 0 && outputSpace == null && inputSpace == null && overflowPolicy != OverflowPolicy.SPILL;
+  }
+
+  @Override
+  public void enqueue(Document document) {
+    if (fused) {
+      // like a worker, wait while this step is inactive, which holds up the predecessor as a full queue would
+      awaitActivation();
+      inline.accept(document);
+      return;
+    }
+    try {
+      switch (overflowPolicy) {
+        case BLOCK:
+          queue.put(document);
+          break;
+        case TIMEOUT:
+          if (!queue.offer(document, overflowTimeoutMs, TimeUnit.MILLISECONDS)) {
+            reject(document, "Timed out after " + overflowTimeoutMs + "ms waiting for space in the queue for " + getName());
+          }
+          break;
+        case REJECT:
+          if (!queue.offer(document)) {
+            reject(document, "Queue full for " + getName());
+          }
+          break;
+        case SPILL:
+          synchronized (spillLock) {
+            // once anything is spilled, everything behind it must be spilled too to keep documents in order
+            if (spill.isEmpty() && queue.offer(document)) {
+              break;
+            }
+            spill.write(document);
+            unspill();
+          }
+          break;
+      }
+    } catch (InterruptedException e) {
+      reportException(document, e, "Exception while offering to " + getName());
+    } catch (IOException e) {
+      reportException(document, e, "Could not spill document to disk for " + getName());
+    }
+  }
+
+  private void reject(Document document, String message) {
+    rejected.incrementAndGet();
+    document.setStatus(Status.ERROR, message);
+  }
+
+  /**
+   * Move the oldest spilled documents back into the queue while there is room. Must be called while holding
+   * the spill lock.
+   */
+  private void unspill() {
+    while (!spill.isEmpty() && queue.remainingCapacity() > 0) {
+      try {
+        queue.offer(spill.read(getPlan()));
+      } catch (IOException e) {
+        log.error("Could not read back a document spilled by " + getName(), e);
+      }
+    }
+  }
+
+  /**
+   * Move spilled documents back into the queue.
+   *
+   * @return true if the queue now holds documents
+   */
+  private boolean unspillAny() {
+    synchronized (spillLock) {
+      unspill();
+      return !queue.isEmpty();
+    }
+  }
+
   private void reportDocStatus(Status status, Document document, String message, Object... messageParams) {
+    Plan plan = getPlan();
+    if (plan != null) {
+      plan.getStatusReporter().report(document.getId(), status, message, messageParams);
+      return;
+    }
     try {
       ThreadContext.put(JesterJAppender.JJ_INGEST_DOCID, document.getId());
       log.info(status.getMarker(), message, messageParams);
@@ -333,35 +561,67 @@ public class StepImpl implements Step {
     }
   }
 
+  /**
+   * Waits for documents to arrive rather than polling for them. The worker sleeps inside the queue until
+   * a document is put, so an idle step costs nothing and a document is picked up as soon as it arrives.
+   * Whatever else is already waiting, up to the batch size, is handed to the processor along with it.
+   * Documents that arrive while the step is inactive are held until it is activated again. One copy of
+   * this loop runs on each of the step's worker threads.
+   */
   @Override
   public void run() {
+    DocumentConsumer consumer = new DocumentConsumer();
+    int maxBatch = Math.max(1, batchSize);
+    List<Document> batch = new ArrayList<>(maxBatch);
     //noinspection InfiniteLoopStatement
     while (true) {
-      while (!this.active) {
-        try {
-          Thread.sleep(500);
-        } catch (InterruptedException e) {
-          // ignore
-        }
+      Document document;
+      try {
+        document = queue.take();
+      } catch (InterruptedException e) {
+        continue;
       }
-      ArrayList<Document> temp = null;
-      synchronized (queueLock) {
-        if (peek() != null) {
-          temp = new ArrayList<>();
-          temp.addAll(queue);
-          clear();
+      awaitActivation();
+      if (spill != null) {
+        synchronized (spillLock) {
+          unspill();
         }
       }
-      if (temp != null) {
-        temp.parallelStream().forEach(new DocumentConsumer());
-        continue;
+      if (documentThreads == null) {
+        batch.add(document);
+        queue.drainTo(batch, maxBatch - 1);
+        // the drain may have emptied the queue with documents still on disk, which nothing else would bring back
+        while (spill != null && unspillAny() && batch.size() < maxBatch) {
+          queue.drainTo(batch, maxBatch - batch.size());
+        }
+        consumer.acceptBatch(batch);
+        batch.clear();
+      } else {
+        inFlight.acquireUninterruptibly();
+        try {
+          documentThreads.execute(() -> {
+            try {
+              consumer.accept(document);
+            } finally {
+              inFlight.release();
+            }
+          });
+        } catch (RuntimeException e) {
+          inFlight.release();
+          throw e;
+        }
       }
+    }
+  }
 
-      try {
-        // if we don't have work make sure we let others do their work.
-        Thread.sleep(25);
-      } catch (InterruptedException e) {
-        // ignore
+  private void awaitActivation() {
+    synchronized (activation) {
+      while (!this.active) {
+        try {
+          activation.wait();
+        } catch (InterruptedException e) {
+          // ignore
+        }
       }
     }
   }
@@ -395,20 +655,103 @@ public class StepImpl implements Step {
     deferred.add(builderAction);
   }
 
+  /**
+   * Hands documents to the processor. A document that makes the processor throw is reported as an error, and
+   * does not take the rest of its batch down with it.
+   */
   private class DocumentConsumer implements Consumer<Document> {
 
+    private Boolean batching; // looked up when first needed, the processor is set after the step is constructed
+
     @Override
     public void accept(Document document) {
       try {
         for (Document documentResult : StepImpl.this.processor.processDocument(document)) {
           pushToNextIfOk(documentResult);
         }
-      } catch (Error e) {
-        throw e;
-      } catch (Throwable t) {
-        t.printStackTrace();
+      } catch (Exception e) {
+        reportException(document, e, "Exception while processing " + document.getId() + " in " + getName());
       }
     }
+
+    void acceptBatch(List<Document> documents) {
+      if (batching == null) {
+        batching = overridesProcessBatch(StepImpl.this.processor);
+      }
+      if (!batching || documents.size() == 1) {
+        //noinspection ForLoopReplaceableByForEach
+        for (int i = 0; i < documents.size(); i++) {
+          accept(documents.get(i));
+        }
+        return;
+      }
+      List<Document> results;
+      try {
+        results = StepImpl.this.processor.processBatch(documents);
+      } catch (Exception e) {
+        // Batch processors report the documents they cannot process themselves, so this is a failure of the
+        // batch as a whole. Any document may already have been changed, so none can safely be processed again.
+        log.warn("Batch of {} documents failed in {}", documents.size(), getName(), e);
+        //noinspection ForLoopReplaceableByForEach
+        for (int i = 0; i < documents.size(); i++) {
+          Document document = documents.get(i);
+          reportException(document, e, "Batch failed while processing " + document.getId() + " in " + getName());
+        }
+        return;
+      }
+      //noinspection ForLoopReplaceableByForEach
+      for (int i = 0; i < results.size(); i++) {
+        Document document = results.get(i);
+        try {
+          pushToNextIfOk(document);
+        } catch (Exception e) {
+          reportException(document, e, "Exception while sending " + document.getId() + " on from " + getName());
+        }
+      }
+    }
+  }
+
+  // The default processBatch calls processDocument for each document, which the consumer can do itself while
+  // keeping the failure of one document from affecting the others.
+  private static boolean overridesProcessBatch(DocumentProcessor processor) {
+    try {
+      return !processor.getClass().getMethod("processBatch", List.class).isDefault();
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  private class QueueGauge implements StepQueueMXBean {
+
+    @Override
+    public int getQueueDepth() {
+      return queue.size();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+      return queue.size() + queue.remainingCapacity();
+    }
+
+    @Override
+    public long getSpilledDocuments() {
+      if (spill == null) {
+        return 0;
+      }
+      synchronized (spillLock) {
+        return spill.size();
+      }
+    }
+
+    @Override
+    public long getRejectedDocuments() {
+      return rejected.get();
+    }
+
+    @Override
+    public String getOverflowPolicyName() {
+      return overflowPolicy.name();
+    }
   }
 
   public static class Builder extends NamedBuilder<StepImpl> {
@@ -436,6 +779,110 @@ public class StepImpl implements Step {
       return this;
     }
 
+    /**
+     * Set the number of documents that may wait in this step's queue. Defaults to the batch size, or 50 if
+     * no batch size is set.
+     *
+     * @param capacity the maximum number of queued documents
+     * @return this builder
+     */
+    public Builder queueCapacity(int capacity) {
+      if (capacity < 1) {
+        throw new IllegalArgumentException("Queue capacity must be at least 1, got " + capacity);
+      }
+      getObject().queueCapacity = capacity;
+      return this;
+    }
+
+    /**
+     * Queue documents for this step in a preallocated lock-free ring buffer rather than a linked queue. Upstream
+     * steps no longer contend on a lock to hand off documents, and no garbage is created per document. The ring
+     * buffer permits only one consumer, so this step must have a concurrency of 1 (documents may still be
+     * processed in parallel via {@link #virtualThreads(int)}). The capacity is rounded up to a power of two.
+     *
+     * @return this builder
+     */
+    public Builder usingRingBuffer() {
+      getObject().ringBuffer = true;
+      return this;
+    }
+
+    /**
+     * When the queue is full, make the upstream step wait until there is room. This is the default.
+     *
+     * @return this builder
+     */
+    public Builder blockingWhenFull() {
+      getObject().overflowPolicy = OverflowPolicy.BLOCK;
+      return this;
+    }
+
+    /**
+     * When the queue is full, make the upstream step wait for room, but only for a limited time after which the
+     * document is marked as an error.
+     *
+     * @param timeoutMs how long to wait for room in the queue
+     * @return this builder
+     */
+    public Builder blockingWhenFullFor(long timeoutMs) {
+      getObject().overflowPolicy = OverflowPolicy.TIMEOUT;
+      getObject().overflowTimeoutMs = timeoutMs;
+      return this;
+    }
+
+    /**
+     * When the queue is full, immediately mark the document as an error.
+     *
+     * @return this builder
+     */
+    public Builder rejectingWhenFull() {
+      getObject().overflowPolicy = OverflowPolicy.REJECT;
+      return this;
+    }
+
+    /**
+     * When the queue is full, write documents to disk and feed them back to this step as it catches up.
+     * Each step spills into a subdirectory of the supplied directory named for the step.
+     *
+     * @param directory the directory in which to spill documents
+     * @return this builder
+     */
+    public Builder spillingWhenFull(File directory) {
+      getObject().overflowPolicy = OverflowPolicy.SPILL;
+      getObject().spillDir = directory;
+      return this;
+    }
+
+    /**
+     * Process each document on its own thread, with at most <tt>maxInFlight</tt> documents in progress at once.
+     * This suits steps that spend most of their time waiting on the network, such as senders. Virtual threads
+     * are used if the JVM supports them.
+     *
+     * @param maxInFlight the maximum number of documents processed simultaneously, must be at least 1
+     * @return this builder
+     */
+    public Builder virtualThreads(int maxInFlight) {
+      if (maxInFlight < 1) {
+        throw new IllegalArgumentException("In flight document limit must be at least 1, got " + maxInFlight);
+      }
+      getObject().maxInFlight = maxInFlight;
+      return this;
+    }
+
+    /**
+     * Set the number of threads dedicated to processing documents for this step. Defaults to 1.
+     *
+     * @param threads the number of worker threads for this step, must be at least 1
+     * @return this builder
+     */
+    public Builder concurrency(int threads) {
+      if (threads < 1) {
+        throw new IllegalArgumentException("A step requires at least one thread, got " + threads);
+      }
+      getObject().concurrency = threads;
+      return this;
+    }
+
 
     public Builder outputSpace(JavaSpace outputSpace) {
       getObject().outputSpace = outputSpace;
@@ -484,7 +931,19 @@ public class StepImpl implements Step {
       StepImpl object = getObject();
       object.executeDeferred();
       int batchSize = object.batchSize;
-      object.queue = new LinkedBlockingQueue<>(batchSize > 0 ? batchSize : 50);
+      int capacity = object.queueCapacity > 0 ? object.queueCapacity : batchSize > 0 ? batchSize : 50;
+      if (object.ringBuffer) {
+        if (object.concurrency > 1) {
+          throw new IllegalStateException("Step " + object.stepName + " uses a ring buffer, which supports only " +
+              "a single worker thread, but has concurrency " + object.concurrency);
+        }
+        object.queue = new MpscRingBuffer<>(capacity);
+      } else {
+        object.queue = new LinkedBlockingQueue<>(capacity);
+      }
+      if (object.overflowPolicy == OverflowPolicy.SPILL) {
+        object.spill = new DocumentSpill(new File(object.spillDir, object.stepName));
+      }
       setObj(new StepImpl());
       return object;
     }
@@ -496,6 +955,7 @@ public class StepImpl implements Step {
      */
     void addNextStep(Step step) {
       getObject().nextSteps.put(step.getName(), step);
+      getObject().successors = new NextSteps(getObject().nextSteps);
     }
   }
 
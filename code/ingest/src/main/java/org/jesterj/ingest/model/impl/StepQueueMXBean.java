@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model.impl;
+
+/**
+ * Gauges for a step's input queue, registered with the platform MBean server when the step is activated
+ * so that a saturated step can be located with jconsole or any other JMX client.
+ */
+public interface StepQueueMXBean {
+
+  /**
+   * @return the number of documents waiting in the queue
+   */
+  int getQueueDepth();
+
+  /**
+   * @return the maximum number of documents the queue will hold
+   */
+  int getQueueCapacity();
+
+  /**
+   * @return the number of documents currently spilled to disk
+   */
+  long getSpilledDocuments();
+
+  /**
+   * @return the number of documents marked as errors because the queue was full
+   */
+  long getRejectedDocuments();
+
+  /**
+   * @return the name of the overflow policy in effect
+   */
+  String getOverflowPolicyName();
+}
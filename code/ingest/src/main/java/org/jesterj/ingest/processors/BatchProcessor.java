@@ -26,6 +26,9 @@ import org.jesterj.ingest.model.DocumentProcessor;
 import org.jesterj.ingest.model.Status;
 import org.jesterj.ingest.model.impl.NamedBuilder;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -38,6 +41,7 @@ import java.util.concurrent.TimeUnit;
  */
 public abstract class BatchProcessor<T> implements DocumentProcessor {
   private static final Logger log = LogManager.getLogger();
+  private static final Document[] NO_DOCUMENTS = new Document[0];
 
   private final ScheduledExecutorService sender = Executors.newScheduledThreadPool(1);
   private int batchSize = 100;
@@ -49,19 +53,59 @@ public abstract class BatchProcessor<T> implements DocumentProcessor {
   public Document[] processDocument(Document document) {
     T doc = convertDoc(document);
     synchronized (getBatch()) {
-      if (getBatch().size() == batchSize) {
-        sendBatch();
-      } else {
-        getBatch().put(document, doc);
-        if (scheduledSend != null) {
-          scheduledSend.cancel(false);
+      addToBatch(document, doc);
+      scheduleSend();
+    }
+    return NO_DOCUMENTS;
+  }
+
+  /**
+   * Converts the whole batch before taking the lock, and only reschedules the partial batch send once. A document
+   * that cannot be converted is marked as an error and left out of the batch.
+   *
+   * @param documents the documents to send
+   * @return an empty list, the documents go no further once sent
+   */
+  @Override
+  public List<Document> processBatch(List<Document> documents) {
+    List<T> converted = new ArrayList<>(documents.size());
+    //noinspection ForLoopReplaceableByForEach
+    for (int i = 0; i < documents.size(); i++) {
+      Document document = documents.get(i);
+      try {
+        converted.add(convertDoc(document));
+      } catch (RuntimeException e) {
+        document.setStatus(Status.ERROR, getName() + " could not convert " + document.getId() + ": " + e.getMessage());
+        converted.add(null);
+      }
+    }
+    synchronized (getBatch()) {
+      for (int i = 0; i < documents.size(); i++) {
+        if (converted.get(i) != null) {
+          addToBatch(documents.get(i), converted.get(i));
         }
-        scheduledSend = sender.schedule((Runnable) this::sendBatch, sendPartialBatchAfterMs, TimeUnit.MILLISECONDS);
       }
-      log.info(Status.BATCHED.getMarker(), "{} queued in postition {} for sending to solr. " +
-          "Will be sent within {} milliseconds.", document.getId(), getBatch().size(), sendPartialBatchAfterMs);
+      scheduleSend();
+    }
+    return Collections.emptyList();
+  }
+
+  // must be called while synchronized on the batch
+  private void addToBatch(Document document, T doc) {
+    if (getBatch().size() == batchSize) {
+      sendBatch();
+    }
+    getBatch().put(document, doc);
+    log.info(Status.BATCHED.getMarker(), "{} queued in postition {} for sending to solr. " +
+        "Will be sent within {} milliseconds.", document.getId(), getBatch().size(), sendPartialBatchAfterMs);
+  }
+
+  // must be called while synchronized on the batch
+  private void scheduleSend() {
+    if (scheduledSend != null) {
+      scheduledSend.cancel(false);
     }
-    return new Document[0];
+    scheduledSend = sender.schedule((Runnable) this::sendBatch, sendPartialBatchAfterMs, TimeUnit.MILLISECONDS);
   }
 
   private void sendBatch() {
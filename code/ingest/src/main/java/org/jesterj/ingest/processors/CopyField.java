@@ -19,6 +19,7 @@ package org.jesterj.ingest.processors;
 import com.copyright.easiertest.SimpleProperty;
 import org.jesterj.ingest.model.Document;
 import org.jesterj.ingest.model.DocumentProcessor;
+import org.jesterj.ingest.model.Status;
 import org.jesterj.ingest.model.impl.NamedBuilder;
 
 import java.util.List;
@@ -36,13 +37,30 @@ public class CopyField implements DocumentProcessor {
 
   @Override
   public Document[] processDocument(Document document) {
+    copy(document);
+    return new Document[]{document};
+  }
 
+  @Override
+  public List<Document> processBatch(List<Document> documents) {
+    //noinspection ForLoopReplaceableByForEach
+    for (int i = 0; i < documents.size(); i++) {
+      Document document = documents.get(i);
+      try {
+        copy(document);
+      } catch (RuntimeException e) {
+        document.setStatus(Status.ERROR, getName() + " failed on " + document.getId() + ": " + e.getMessage());
+      }
+    }
+    return documents;
+  }
+
+  private void copy(Document document) {
     List<String> values = document.get(getFrom());
     document.putAll(getInto(), values);
     if (!isRetainOriginal()) {
       document.removeAll(getFrom());
     }
-    return new Document[]{document};
   }
 
   @SimpleProperty
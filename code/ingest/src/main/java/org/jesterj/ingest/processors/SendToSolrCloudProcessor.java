@@ -23,12 +23,15 @@ import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.CloudSolrClient;
 import org.apache.solr.common.SolrInputDocument;
 import org.jesterj.ingest.logging.JesterJAppender;
+import org.jesterj.ingest.model.Content;
 import org.jesterj.ingest.model.Document;
 import org.jesterj.ingest.model.DocumentProcessor;
 import org.jesterj.ingest.model.Status;
 
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -124,6 +127,11 @@ public class SendToSolrCloudProcessor extends BatchProcessor<SolrInputDocument>
     } else {
       doc = new SolrInputDocument();
     }
+    // Note that raw data should be empty or have been converted to the bytes of a utf-8 string.
+    String text = textContent(document);
+    if (text != null) {
+      doc.addField(textContentField, text);
+    }
     for (String field : document.keySet()) {
       List<String> values = document.get(field);
       if (values.size() > 1) {
@@ -131,11 +139,6 @@ public class SendToSolrCloudProcessor extends BatchProcessor<SolrInputDocument>
       } else {
         doc.addField(field, document.getFirstValue(field));
       }
-      // Note that raw data should be empty or have been converted to the bytes of a utf-8 string.
-      if (document.getRawData() != null && document.getRawData().length > 0) {
-        String value = new String(document.getRawData(), Charset.forName("UTF-8"));
-        doc.addField(textContentField, value);
-      }
       if (fieldsField != null) {
         doc.addField(fieldsField, field);
       }
@@ -143,6 +146,20 @@ public class SendToSolrCloudProcessor extends BatchProcessor<SolrInputDocument>
     return doc;
   }
 
+  // decodes straight from the content's buffer, which for mapped content avoids copying the bytes to the heap
+  private String textContent(Document document) {
+    Content content = document.getContent();
+    if (content == null || content.length() == 0) {
+      return null;
+    }
+    try {
+      ByteBuffer bytes = content.toByteBuffer();
+      return bytes.hasRemaining() ? StandardCharsets.UTF_8.decode(bytes).toString() : null;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not read content of " + document.getId(), e);
+    }
+  }
+
   private static class Delete extends SolrInputDocument {
   }
   
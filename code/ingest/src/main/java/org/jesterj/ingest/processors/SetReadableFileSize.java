@@ -47,11 +47,9 @@ public class SetReadableFileSize implements DocumentProcessor {
   @Override
   public Document[] processDocument(Document document) {
 
-    String val = document.getFirstValue(getInputField());
-    if (StringUtils.isNotBlank(val)) {
-      long lFileSize = Long.parseLong(val);
-
-      String readableFileSize = FileUtils.byteCountToDisplaySize(lFileSize);
+    Long fileSize = document.getLong(getInputField());
+    if (fileSize != null) {
+      String readableFileSize = FileUtils.byteCountToDisplaySize(fileSize);
 
       if (StringUtils.isNotBlank(getNumericAndUnitsField())) {
         document.put(getNumericAndUnitsField(), readableFileSize);
@@ -20,11 +20,15 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jesterj.ingest.model.Document;
 import org.jesterj.ingest.model.DocumentProcessor;
+import org.jesterj.ingest.model.Status;
 import org.jesterj.ingest.model.impl.NamedBuilder;
 
+import java.time.DateTimeException;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 /*
  * Created with IntelliJ IDEA.
@@ -43,36 +47,74 @@ public class SimpleDateTimeReformatter implements DocumentProcessor {
 
   @Override
   public Document[] processDocument(Document document) {
+    reformat(document);
+    return new Document[]{document};
+  }
+
+  @Override
+  public List<Document> processBatch(List<Document> documents) {
+    //noinspection ForLoopReplaceableByForEach
+    for (int i = 0; i < documents.size(); i++) {
+      Document document = documents.get(i);
+      try {
+        reformat(document);
+      } catch (RuntimeException e) {
+        document.setStatus(Status.ERROR, getName() + " failed on " + document.getId() + ": " + e.getMessage());
+      }
+    }
+    return documents;
+  }
+
+  private void reformat(Document document) {
     List<String> input = document.get(inputField);
+    List<Instant> instants = new ArrayList<>(input.size());
+    if (inputFormat == null && input.size() == 1) {
+      // a single value may already be held as a number or an instant, in which case there is nothing to parse
+      try {
+        instants.add(document.getInstant(inputField));
+      } catch (DateTimeException e) {
+        log.warn("could not parse date field {} with value {} as a Long or ISO-8601 date", inputField, input.get(0));
+      }
+    } else {
+      for (String s : input) {
+        Instant instant = parse(s);
+        if (instant != null) {
+          instants.add(instant);
+        }
+      }
+    }
+    instants.removeIf(Objects::isNull);
+    // if we failed, leave the old value in place
+    if (instants.isEmpty()) {
+      log.warn("reformatting of {} failed. Old value preserved", inputField);
+      return;
+    }
     if (inputField.equals(outputField)) {
       document.removeAll(inputField);
     }
-    boolean updated = false;
-    for (String s : input) {
-      Instant instant = null;
-      if (inputFormat != null) {
-        instant = inputFormat.parse(s, Instant::from);
-        log.warn("could not parse date field {} with value {} as a {}", inputField, s, inputFormat.toString());
-      }
-      if (instant == null) {
-        try {
-          instant = Instant.ofEpochMilli(Long.valueOf(s));
-        } catch (NumberFormatException nfe) {
-          log.warn("could not parse date field {} with value {} as a Long", inputField, s);
-        }
+    for (Instant instant : instants) {
+      if (outputFormat == DateTimeFormatter.ISO_INSTANT) {
+        document.putInstant(outputField, instant); // formatted identically, but only when needed
+      } else {
+        document.put(outputField, outputFormat.format(instant));
       }
-      if (instant == null) {
-        continue;
+    }
+  }
+
+  private Instant parse(String s) {
+    if (inputFormat != null) {
+      try {
+        return inputFormat.parse(s, Instant::from);
+      } catch (DateTimeException e) {
+        log.warn("could not parse date field {} with value {} as a {}", inputField, s, inputFormat.toString());
       }
-      document.put(outputField, outputFormat.format(instant));
-      updated = true;
     }
-    // if we failed, restore the old value
-    if (!updated && inputField.equals(outputField)) {
-      document.putAll(inputField, input);
-      log.warn("reformatting of {} failed. Old value preserved");
+    try {
+      return Instant.ofEpochMilli(Long.valueOf(s));
+    } catch (NumberFormatException nfe) {
+      log.warn("could not parse date field {} with value {} as a Long", inputField, s);
+      return null;
     }
-    return new Document[]{document};
   }
 
   @Override
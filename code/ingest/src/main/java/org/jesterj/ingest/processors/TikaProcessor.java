@@ -20,14 +20,18 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.tika.Tika;
 import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
+import org.jesterj.ingest.model.Content;
 import org.jesterj.ingest.model.Document;
 import org.jesterj.ingest.model.DocumentProcessor;
 import org.jesterj.ingest.model.Status;
+import org.jesterj.ingest.model.impl.FileContent;
 import org.jesterj.ingest.model.impl.NamedBuilder;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.security.AccessControlException;
 
@@ -43,12 +47,12 @@ public class TikaProcessor implements DocumentProcessor {
 
   @Override
   public Document[] processDocument(Document document) {
-    byte[] rawData = document.getRawData();
     try {
       Tika tika = new Tika();
       Metadata metadata = new Metadata();
-      try (ByteArrayInputStream bais = new ByteArrayInputStream(rawData)) {
-        String textContent = tika.parseToString(bais, metadata);
+      // stream the content rather than reading it all into memory, it may be a very large file
+      try (InputStream content = openContent(document)) {
+        String textContent = tika.parseToString(content, metadata);
         document.setRawData(textContent.getBytes(Charset.forName("UTF-8")));
         for (String name : metadata.names()) {
           document.put(name, metadata.get(name));
@@ -70,6 +74,15 @@ public class TikaProcessor implements DocumentProcessor {
     return new Document[]{document};
   }
 
+  private static InputStream openContent(Document document) throws IOException {
+    Content content = document.getContent();
+    if (content instanceof FileContent) {
+      // lets tika use the file directly for formats that need random access
+      return TikaInputStream.get(((FileContent) content).getPath());
+    }
+    return content == null ? new ByteArrayInputStream(new byte[0]) : content.open();
+  }
+
   @Override
   public String getName() {
     return name;
@@ -17,6 +17,7 @@
 package org.jesterj.ingest.routers;
 
 import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.NextSteps;
 import org.jesterj.ingest.model.Router;
 import org.jesterj.ingest.model.Step;
 import org.jesterj.ingest.model.impl.NamedBuilder;
@@ -36,6 +37,11 @@ public class DuplicateToAll implements Router {
     return nextSteps.values().toArray(new Step[nextSteps.size()]);
   }
 
+  @Override
+  public Step[] route(Document doc, NextSteps nextSteps) {
+    return nextSteps.all();
+  }
+
   @Override
   public String getName() {
     return name;
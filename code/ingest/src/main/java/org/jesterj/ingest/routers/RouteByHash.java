@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.routers;
+
+import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.NextSteps;
+import org.jesterj.ingest.model.Router;
+import org.jesterj.ingest.model.Step;
+import org.jesterj.ingest.model.impl.NamedBuilder;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Partitions documents among several equivalent following steps by hashing the value of a field, by default the
+ * document id. Every document with the same value is always sent to the same step, so if each of those steps
+ * has a concurrency of 1, successive versions of a document are processed in the order they arrive while
+ * different documents are processed in parallel. Documents without a value for the field all go to the
+ * first step.
+ */
+public class RouteByHash implements Router {
+  private String name;
+  private String field; // null means the document id
+
+  @Override
+  public Step[] route(Document doc, LinkedHashMap<String, Step> nextSteps) {
+    int lane = lane(doc, nextSteps.size());
+    Iterator<Step> steps = nextSteps.values().iterator();
+    for (int i = 0; i < lane; i++) {
+      steps.next();
+    }
+    return new Step[]{steps.next()};
+  }
+
+  @Override
+  public Step[] route(Document doc, NextSteps nextSteps) {
+    return nextSteps.only(lane(doc, nextSteps.size()));
+  }
+
+  private int lane(Document doc, int lanes) {
+    String value;
+    if (field == null) {
+      value = doc.getId();
+    } else {
+      List<String> values = doc.get(field);
+      value = values.isEmpty() ? null : values.get(0);
+    }
+    if (value == null) {
+      return 0;
+    }
+    int h = value.hashCode();
+    h ^= (h >>> 16); // String hashes of similar ids differ mostly in the low bits, spread them
+    return Math.floorMod(h, lanes);
+  }
+
+  public String getField() {
+    return field;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  public static class Builder extends NamedBuilder<RouteByHash> {
+    private RouteByHash obj = new RouteByHash();
+
+    public Builder named(String name) {
+      getObj().name = name;
+      return this;
+    }
+
+    /**
+     * Partition on the first value of this field rather than the document id.
+     *
+     * @param field the name of the field to hash
+     * @return this builder
+     */
+    public Builder hashingField(String field) {
+      getObj().field = field;
+      return this;
+    }
+
+    protected RouteByHash getObj() {
+      return obj;
+    }
+
+    private void setObj(RouteByHash obj) {
+      this.obj = obj;
+    }
+
+    public RouteByHash build() {
+      RouteByHash object = getObj();
+      setObj(new RouteByHash());
+      return object;
+    }
+  }
+}
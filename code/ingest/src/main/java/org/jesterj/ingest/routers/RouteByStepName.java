@@ -17,6 +17,7 @@
 package org.jesterj.ingest.routers;
 
 import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.NextSteps;
 import org.jesterj.ingest.model.Router;
 import org.jesterj.ingest.model.Step;
 import org.jesterj.ingest.model.impl.NamedBuilder;
@@ -35,7 +36,13 @@ public class RouteByStepName implements Router {
 
   @Override
   public Step[] route(Document doc, LinkedHashMap<String, Step> nextSteps) {
-    return new Step[]{nextSteps.get(doc.getFirstValue(JESTERJ_NEXT_STEP_NAME))};
+    Step step = nextSteps.get(doc.getFirstValue(JESTERJ_NEXT_STEP_NAME));
+    return step == null ? null : new Step[]{step};
+  }
+
+  @Override
+  public Step[] route(Document doc, NextSteps nextSteps) {
+    return nextSteps.only(doc.getFirstValue(JESTERJ_NEXT_STEP_NAME));
   }
 
   @Override
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.routers;
+
+import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.NextSteps;
+import org.jesterj.ingest.model.Router;
+import org.jesterj.ingest.model.Step;
+import org.jesterj.ingest.model.impl.NamedBuilder;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends each document to whichever of several equivalent following steps has the most room in its queue, so that
+ * work flows to the lanes that are keeping up and away from one stuck behind a slow destination. Queue lengths
+ * are read at the moment of routing and may be slightly stale under heavy contention, which is harmless.
+ * Alternatively the step with the fewest queued documents can be chosen, which differs only when the following
+ * steps have queues of different sizes. Unlike {@link RouteByHash} this makes no promise about the order in which
+ * updates to the same document are processed.
+ */
+public class RouteToLeastLoaded implements Router {
+
+  /**
+   * How to choose among steps that are equally loaded.
+   */
+  public enum TieBreak {
+    /**
+     * Prefer the step added to the plan first. Predictable, but an idle plan sends everything to one step.
+     */
+    FIRST,
+
+    /**
+     * Start the search from a different step each time, so that equally loaded steps share the work evenly.
+     */
+    ROTATE
+  }
+
+  private String name;
+  private boolean byQueueDepth;
+  private TieBreak tieBreak = TieBreak.ROTATE;
+  private final AtomicInteger rotation = new AtomicInteger();
+
+  @Override
+  public Step[] route(Document doc, LinkedHashMap<String, Step> nextSteps) {
+    Step[] steps = nextSteps.values().toArray(new Step[nextSteps.size()]);
+    return new Step[]{steps[choose(steps)]};
+  }
+
+  @Override
+  public Step[] route(Document doc, NextSteps nextSteps) {
+    return nextSteps.only(choose(nextSteps.all()));
+  }
+
+  private int choose(Step[] steps) {
+    int n = steps.length;
+    int start = tieBreak == TieBreak.ROTATE ? Math.floorMod(rotation.getAndIncrement(), n) : 0;
+    int best = start;
+    long bestLoad = load(steps[start]);
+    for (int i = 1; i < n; i++) {
+      int candidate = (start + i) % n;
+      long load = load(steps[candidate]);
+      if (load < bestLoad) {
+        best = candidate;
+        bestLoad = load;
+      }
+    }
+    return best;
+  }
+
+  // lower is better
+  private long load(Step step) {
+    return byQueueDepth ? step.size() : -(long) step.remainingCapacity();
+  }
+
+  public boolean isByQueueDepth() {
+    return byQueueDepth;
+  }
+
+  public TieBreak getTieBreak() {
+    return tieBreak;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  public static class Builder extends NamedBuilder<RouteToLeastLoaded> {
+    private RouteToLeastLoaded obj = new RouteToLeastLoaded();
+
+    public Builder named(String name) {
+      getObj().name = name;
+      return this;
+    }
+
+    /**
+     * Choose the step with the fewest documents waiting, rather than the most room in its queue.
+     *
+     * @return this builder
+     */
+    public Builder byQueueDepth() {
+      getObj().byQueueDepth = true;
+      return this;
+    }
+
+    /**
+     * Set how to choose among equally loaded steps. Defaults to {@link TieBreak#ROTATE}.
+     *
+     * @param tieBreak the tie breaking policy
+     * @return this builder
+     */
+    public Builder breakingTiesBy(TieBreak tieBreak) {
+      getObj().tieBreak = tieBreak;
+      return this;
+    }
+
+    protected RouteToLeastLoaded getObj() {
+      return obj;
+    }
+
+    private void setObj(RouteToLeastLoaded obj) {
+      this.obj = obj;
+    }
+
+    public RouteToLeastLoaded build() {
+      RouteToLeastLoaded object = getObj();
+      setObj(new RouteToLeastLoaded());
+      return object;
+    }
+  }
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jesterj.ingest.scanners;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jesterj.ingest.model.exception.ConfigurationException;
+import org.jesterj.ingest.model.exception.PersistenceException;
+import org.jesterj.ingest.utils.SqlUtils;
+
+/**
+ * A bounded pool of connections to one JDBC source, shared by every scanner that connects with the same
+ * driver, URL and user. Borrowed connections are returned to the pool when they are closed. Connections
+ * are validated before they are lent out, and are closed once they have been idle for longer than the
+ * idle time. Each pooled connection keeps the statements prepared on it, so that closing a statement
+ * returns it for reuse by the next caller preparing the same SQL, rather than having the database parse
+ * the SQL again. A background thread closes idle connections even when nothing is borrowing, and the pool is
+ * closed once every scanner using it has released it.
+ */
+class JdbcConnectionPool {
+
+  private static final Logger log = LogManager.getLogger();
+
+  static final long DEFAULT_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  private static final int BORROW_TIMEOUT_SECONDS = 60;
+  private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+  private static final int STATEMENT_CACHE_SIZE = 32;
+  private static final long EVICTION_INTERVAL_SECONDS = 30;
+
+  private static final ConcurrentMap<List<String>, JdbcConnectionPool> pools = new ConcurrentHashMap<>();
+
+  private static final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("jdbc-pool-evictor-%d").setDaemon(true).build());
+
+  static {
+    evictor.scheduleWithFixedDelay(JdbcConnectionPool::evictAll,
+        EVICTION_INTERVAL_SECONDS, EVICTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  private final SqlUtils sqlUtils;
+  private final String jdbcDriver;
+  private final String jdbcUrl;
+  private final String jdbcUser;
+  private final String jdbcPassword;
+  private final List<String> key;
+
+  private final Semaphore available = new Semaphore(0);
+  private final Deque<PooledConnection> idle = new ArrayDeque<>(); // most recently used first, guarded by this
+  private int maxConnections; // guarded by this
+  private long idleNanos; // guarded by this
+  private boolean closed; // guarded by this
+  private int users; // guarded by the pools map, only changed while computing this pool's entry
+
+  private JdbcConnectionPool(SqlUtils sqlUtils, String jdbcDriver, String jdbcUrl, String jdbcUser, String jdbcPassword,
+                             List<String> key) {
+    this.sqlUtils = sqlUtils;
+    this.jdbcDriver = jdbcDriver;
+    this.jdbcUrl = jdbcUrl;
+    this.jdbcUser = jdbcUser;
+    this.jdbcPassword = jdbcPassword;
+    this.key = key;
+  }
+
+  /**
+   * Finds the pool for a source, creating it if need be. A shared pool allows as many connections, and keeps
+   * them idle for as long, as the most demanding of the scanners using it asked for. Each call must be matched
+   * by a call to {@link #release()} once the caller no longer needs the pool.
+   *
+   * @param sqlUtils       makes new connections
+   * @param jdbcDriver     the JDBC driver
+   * @param jdbcUrl        the JDBC URL
+   * @param jdbcUser       the JDBC user
+   * @param jdbcPassword   the JDBC password
+   * @param maxConnections the most connections to have open at once
+   * @param idleMillis     how long a connection may be idle before it is closed
+   * @return the pool
+   */
+  static JdbcConnectionPool forSource(SqlUtils sqlUtils, String jdbcDriver, String jdbcUrl, String jdbcUser,
+                                      String jdbcPassword, int maxConnections, long idleMillis) {
+    JdbcConnectionPool pool = pools.compute(Arrays.asList(jdbcDriver, jdbcUrl, jdbcUser), (key, existing) -> {
+      JdbcConnectionPool p = existing != null ? existing :
+          new JdbcConnectionPool(sqlUtils, jdbcDriver, jdbcUrl, jdbcUser, jdbcPassword, key);
+      p.users++;
+      return p;
+    });
+    pool.accommodate(maxConnections, idleMillis);
+    return pool;
+  }
+
+  /**
+   * Gives up one use of the pool obtained from {@link #forSource}. When no uses remain, the pool is closed:
+   * idle connections are closed at once, and connections still lent out are closed when they are returned.
+   */
+  void release() {
+    boolean last = pools.computeIfPresent(key, (k, pool) -> pool != this || --pool.users > 0 ? pool : null) == null;
+    if (last) {
+      close();
+    }
+  }
+
+  private void close() {
+    List<PooledConnection> open;
+    synchronized (this) {
+      closed = true;
+      open = new ArrayList<>(idle);
+      idle.clear();
+    }
+    log.debug("Closing connection pool for '{}'", jdbcUrl);
+    open.forEach(PooledConnection::discard);
+  }
+
+  synchronized boolean isClosed() {
+    return closed;
+  }
+
+  private static void evictAll() {
+    for (JdbcConnectionPool pool : pools.values()) {
+      try {
+        pool.evictIdle();
+      } catch (RuntimeException ex) {
+        log.error("Error closing idle connections to '{}'", pool.jdbcUrl, ex);
+      }
+    }
+  }
+
+  private synchronized void accommodate(int connections, long idleMillis) {
+    if (connections > maxConnections) {
+      available.release(connections - maxConnections);
+      maxConnections = connections;
+    }
+    idleNanos = Math.max(idleNanos, TimeUnit.MILLISECONDS.toNanos(idleMillis));
+  }
+
+  /**
+   * Lends out a connection, waiting for one to be returned if as many as are allowed are already lent out.
+   * The connection must be closed to return it.
+   *
+   * @param autoCommit the auto-commit mode for the connection
+   * @return the connection
+   * @throws ConfigurationException if the driver cannot be found
+   * @throws PersistenceException   if no connection could be made none became free in time, or the pool is closed
+   */
+  Connection borrow(boolean autoCommit) throws ConfigurationException, PersistenceException {
+    if (isClosed()) {
+      throw new PersistenceException(String.format("The connection pool for JDBC data source '%s' has been closed.", jdbcUrl));
+    }
+    try {
+      if (!available.tryAcquire(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        throw new PersistenceException(String.format("No connection to JDBC data source '%s' became free within %d seconds.",
+            jdbcUrl, BORROW_TIMEOUT_SECONDS));
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new PersistenceException(String.format("Interrupted waiting for a connection to JDBC data source '%s'.", jdbcUrl), ex);
+    }
+    boolean lent = false;
+    try {
+      evictIdle();
+      PooledConnection pooled;
+      while ((pooled = takeIdle()) != null && !pooled.isValid()) {
+        pooled.discard();
+      }
+      if (pooled == null) {
+        pooled = new PooledConnection(sqlUtils.createJdbcConnection(jdbcDriver, jdbcUrl, jdbcUser, jdbcPassword, autoCommit));
+      } else if (pooled.connection.getAutoCommit() != autoCommit) {
+        pooled.connection.setAutoCommit(autoCommit);
+      }
+      Connection lease = pooled.lease();
+      lent = true;
+      return lease;
+    } catch (SQLException ex) {
+      throw new PersistenceException(String.format("Error preparing connection to JDBC data source: '%s'.", jdbcUrl), ex);
+    } finally {
+      if (!lent) {
+        available.release();
+      }
+    }
+  }
+
+  private synchronized PooledConnection takeIdle() {
+    return idle.pollFirst();
+  }
+
+  private void giveBack(PooledConnection pooled) {
+    try {
+      // end any transaction left open, so that it neither holds locks nor hides changes from the next scan
+      if (!pooled.connection.getAutoCommit()) {
+        pooled.connection.rollback();
+      }
+      pooled.lastUsed = System.nanoTime();
+      boolean kept;
+      synchronized (this) {
+        kept = !closed;
+        if (kept) {
+          idle.addFirst(pooled);
+        }
+      }
+      if (!kept) {
+        pooled.discard();
+      }
+    } catch (SQLException ex) {
+      log.debug("Discarding broken connection to '{}'", jdbcUrl, ex);
+      pooled.discard();
+    } finally {
+      available.release();
+    }
+    evictIdle();
+  }
+
+  // The least recently used connections are at the end, so they are the first to exceed the idle time.
+  void evictIdle() {
+    List<PooledConnection> evicted = new ArrayList<>();
+    long now = System.nanoTime();
+    synchronized (this) {
+      while (!idle.isEmpty() && now - idle.peekLast().lastUsed > idleNanos) {
+        evicted.add(idle.pollLast());
+      }
+    }
+    for (PooledConnection pooled : evicted) {
+      log.debug("Closing idle connection to '{}'", jdbcUrl);
+      pooled.discard();
+    }
+  }
+
+  synchronized int getIdleCount() {
+    return idle.size();
+  }
+
+  synchronized int getMaxConnections() {
+    return maxConnections;
+  }
+
+  private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException ex) {
+      throw ex.getCause();
+    }
+  }
+
+  /**
+   * A connection held by the pool, and the statements that have been prepared on it. Only used by one
+   * thread at a time, since it is lent to one borrower at a time.
+   */
+  private class PooledConnection {
+    private final Connection connection;
+    @SuppressWarnings("serial") // never serialized
+    private final Map<String, PreparedStatement> statements =
+        new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() > STATEMENT_CACHE_SIZE) {
+              closeQuietly(eldest.getValue());
+              return true;
+            }
+            return false;
+          }
+        };
+    private long lastUsed;
+
+    PooledConnection(Connection connection) {
+      this.connection = connection;
+    }
+
+    boolean isValid() {
+      try {
+        return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+      } catch (SQLException ex) {
+        return false;
+      }
+    }
+
+    Connection lease() {
+      return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+          new Lease(this));
+    }
+
+    PreparedStatement prepare(Connection lease, String sql, int resultSetType, int resultSetConcurrency)
+        throws SQLException {
+      String key = resultSetType + ":" + resultSetConcurrency + ":" + sql;
+      PreparedStatement statement = statements.get(key);
+      if (statement == null || statement.isClosed()) {
+        statement = connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        statements.put(key, statement);
+      }
+      return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+          new Class<?>[]{PreparedStatement.class}, new StatementLease(lease, statement));
+    }
+
+    void discard() {
+      statements.values().forEach(this::closeQuietly);
+      statements.clear();
+      closeQuietly(connection);
+    }
+
+    private void closeQuietly(AutoCloseable closeable) {
+      try {
+        closeable.close();
+      } catch (Exception ex) {
+        log.debug("Error closing pooled resource for '{}'", jdbcUrl, ex);
+      }
+    }
+  }
+
+  /**
+   * The borrower's view of a pooled connection, which returns the connection to the pool when it is closed
+   * and hands out the cached statements.
+   */
+  private class Lease implements InvocationHandler {
+    private final PooledConnection pooled;
+    private boolean closed;
+
+    Lease(PooledConnection pooled) {
+      this.pooled = pooled;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "close":
+          if (!closed) {
+            closed = true;
+            giveBack(pooled);
+          }
+          return null;
+        case "isClosed":
+          return closed || pooled.connection.isClosed();
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "Pooled " + pooled.connection;
+        default:
+          // fall through to the checks below
+      }
+      if (closed) {
+        throw new SQLException("Connection has been returned to the pool");
+      }
+      if ("prepareStatement".equals(method.getName())) {
+        if (args.length == 1) {
+          return pooled.prepare((Connection) proxy, (String) args[0], ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        }
+        if (args.length == 3 && method.getParameterTypes()[1] == int.class) {
+          return pooled.prepare((Connection) proxy, (String) args[0], (Integer) args[1], (Integer) args[2]);
+        }
+      }
+      return JdbcConnectionPool.invoke(pooled.connection, method, args);
+    }
+  }
+
+  /**
+   * The borrower's view of a cached statement, which is kept for reuse when it is closed.
+   */
+  private static class StatementLease implements InvocationHandler {
+    private final Connection lease;
+    private final PreparedStatement statement;
+    private boolean closed;
+
+    StatementLease(Connection lease, PreparedStatement statement) {
+      this.lease = lease;
+      this.statement = statement;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "close":
+          if (!closed) {
+            closed = true;
+            statement.clearParameters();
+          }
+          return null;
+        case "isClosed":
+          return closed || statement.isClosed();
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "getConnection":
+          return lease;
+        default:
+          // fall through to the check below
+      }
+      if (closed) {
+        throw new SQLException("Statement has been closed");
+      }
+      return JdbcConnectionPool.invoke(statement, method, args);
+    }
+  }
+}
@@ -16,36 +16,63 @@
 
 package org.jesterj.ingest.scanners;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.pdfbox.io.IOUtils;
 import org.jesterj.ingest.model.ConfiguredBuildable;
+import org.jesterj.ingest.model.Content;
 import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.DocumentIndex;
 import org.jesterj.ingest.model.Router;
 import org.jesterj.ingest.model.exception.ConfigurationException;
 import org.jesterj.ingest.model.exception.PersistenceException;
+import org.jesterj.ingest.model.impl.ByteArrayContent;
+import org.jesterj.ingest.model.impl.ContentSpool;
 import org.jesterj.ingest.model.impl.DocumentImpl;
 import org.jesterj.ingest.model.impl.ScannerImpl;
 import org.jesterj.ingest.utils.SqlUtils;
 
 import com.copyright.easiertest.SimpleProperty;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.CharStreams;
 
 import net.jini.space.JavaSpace;
@@ -53,7 +80,9 @@ import net.jini.space.JavaSpace;
 /**
  * Scans a JDBC source such as an RDBMS (e.g. MySQL). Obtains a connection through the specified
  * JDBC driver and extracts rows using the specified SQL statement; converts extracted rows to
- * documents and passes the documents downstream.
+ * documents and passes the documents downstream. Connections come from a pool shared by every scanner
+ * that connects to the same source as the same user, and statements prepared on a pooled connection are
+ * reused by later scans.
  * 
  * @author dgoldenberg
  */
@@ -77,8 +106,41 @@ public class JdbcScanner extends ScannerImpl {
   private boolean autoCommit;
   private int queryTimeout = -1;
 
-  // The (optional) name for the column that contains the document content
+  // The (optional) name for the column that contains the document content, how text content is encoded,
+  // and how much content to hold in memory before spooling it to a file in the spool directory
   private String contentColumn;
+  private Charset contentCharset = StandardCharsets.UTF_8;
+  private int contentMemoryLimit = DEFAULT_CONTENT_MEMORY_LIMIT;
+  private File contentSpoolDir;
+  private static final int DEFAULT_CONTENT_MEMORY_LIMIT = 1024 * 1024;
+
+  // The (optional) integer column or expression on which the query is split into partitions scanned in parallel
+  private String partitionColumn;
+  private int partitionCount = 1;
+  private boolean moduloPartitions;
+
+  // The (optional) column that increases whenever a row changes, and the greatest value seen by a complete scan.
+  // The deletion query selects from different rows (often another table), so it keeps a watermark of its own.
+  private String watermarkColumn;
+  private File watermarkFile;
+  private boolean watermarksLoaded; // guarded by this
+  private Object watermark; // guarded by this
+  private Object scanWatermark; // guarded by this
+  private Object deletionWatermark; // guarded by this
+  private Object scanDeletionWatermark; // guarded by this
+  private long watermarkLag;
+  private static final String WATERMARK_TYPE = "type";
+  private static final String WATERMARK_VALUE = "value";
+  private static final String DELETION_PREFIX = "deletion.";
+
+  // The (optional) query selecting the ids of deleted rows, and column marking rows of the query as deleted
+  private String deletionQuery;
+  private String deletedFlagColumn;
+
+  // The most connections this scanner needs at once (by default, one per partition), and how long they may be idle
+  private int maxConnections = -1;
+  private long connectionIdleMillis = JdbcConnectionPool.DEFAULT_IDLE_MILLIS;
+  private JdbcConnectionPool connectionPool; // guarded by this
 
   private SqlUtils sqlUtils = new SqlUtils();
 
@@ -99,33 +161,392 @@ public class JdbcScanner extends ScannerImpl {
   @Override
   public Runnable getScanOperation() {
     return () -> {
+      Object since;
+      Object deletedSince;
+      synchronized (this) {
+        since = getWatermark();
+        deletedSince = getDeletionWatermark();
+        scanWatermark = since;
+        scanDeletionWatermark = deletedSince;
+      }
+      // deletions first, so that a row deleted and then added again with the same id is not left deleted
+      boolean deletionsComplete = true;
+      if (deletionQuery != null) {
+        deletionsComplete = scanQuery(incremental(deletionQuery, deletedSince), Document.Operation.DELETE, true,
+            params(deletedSince));
+      }
+      Document.Operation operation = since == null ? Document.Operation.NEW : Document.Operation.UPDATE;
+      String sql = incremental(sqlStatement, since);
+      boolean complete;
+      if (partitionColumn == null || partitionCount < 2) {
+        complete = scanQuery(sql, operation, false, params(since));
+      } else {
+        complete = scanPartitions(sql, operation, params(since));
+      }
+      if (watermarkColumn != null && (complete || deletionsComplete)) {
+        advanceWatermarks(complete, deletionsComplete);
+      }
+    };
+  }
+
+  private Object[] params(Object since) {
+    return since == null ? new Object[0] : new Object[]{lagged(since)};
+  }
 
-      try (
-        // Establish a connection and execute the query.
-        Connection conn = sqlUtils.createJdbcConnection(jdbcDriver, jdbcUrl, jdbcUser, jdbcPassword, autoCommit);
+  // Moves the watermark back by the lag, so that rows committed late with an earlier value are still selected.
+  private Object lagged(Object since) {
+    if (watermarkLag == 0) {
+      return since;
+    }
+    if (since instanceof Timestamp) {
+      Timestamp lagged = new Timestamp(((Timestamp) since).getTime() - watermarkLag);
+      // keep any precision finer than a millisecond
+      lagged.setNanos(lagged.getNanos() + ((Timestamp) since).getNanos() % 1_000_000);
+      return lagged;
+    }
+    if (since instanceof BigDecimal) {
+      return ((BigDecimal) since).subtract(BigDecimal.valueOf(watermarkLag));
+    }
+    return since;
+  }
 
-        Statement statement = createStatement(conn);
-        ResultSet rs = statement.executeQuery(sqlStatement)) {
+  // Restricts a query to rows changed since the watermark, if there is one.
+  private String incremental(String sql, Object since) {
+    if (since == null) {
+      return sql;
+    }
+    return "SELECT * FROM (" + stripSemicolon(sql) + ") jj_incremental WHERE " + watermarkColumn + " > ?";
+  }
 
+  private static String stripSemicolon(String sql) {
+    return StringUtils.stripEnd(sql.trim(), ";");
+  }
+
+  /**
+   * Runs a query on a pooled connection and sends a document for each row.
+   *
+   * @param sql       the query
+   * @param operation the operation for the documents
+   * @param deletions true if this is the deletion query, which has its own watermark
+   * @param params    values for the parameters of the query, if any
+   * @return true if every row was read
+   */
+  private boolean scanQuery(String sql, Document.Operation operation, boolean deletions, Object... params) {
+    try (
+      // Borrow a connection and execute the query.
+      Connection conn = getConnectionPool().borrow(autoCommit);
+      PreparedStatement statement = createStatement(conn, sql)) {
+
+      for (int i = 0; i < params.length; i++) {
+        statement.setObject(i + 1, params[i]);
+      }
+      try (ResultSet rs = statement.executeQuery()) {
         String[] columnNames = getColumnNames(rs);
         int docIdColumnIdx = getDocIdColumnIndex(columnNames, getPlan().getDocIdField());
+        // the deletion query need not return the watermark column, in which case it selects every deleted row
+        int watermarkColumnIdx = watermarkColumn == null ? -1 :
+          deletions ? findColumn(columnNames, watermarkColumn) : rs.findColumn(watermarkColumn);
+        int deletedColumnIdx = deletedFlagColumn == null || operation == Document.Operation.DELETE ? -1 :
+          rs.findColumn(deletedFlagColumn);
 
         // For each row
         while (rs.next()) {
           String docId = rs.getString(docIdColumnIdx);
-          Document doc = makeDoc(rs, columnNames, docId);
+          Document.Operation rowOperation = operation;
+          if (deletedColumnIdx > 0 && isDeleted(rs.getObject(deletedColumnIdx))) {
+            rowOperation = Document.Operation.DELETE;
+          }
+          Document doc = makeDoc(rs, columnNames, docId, rowOperation);
+          if (watermarkColumnIdx > 0) {
+            sawWatermark(rs.getObject(watermarkColumnIdx), deletions);
+          }
           JdbcScanner.this.docFound(doc);
         }
+      }
+      return true;
+
+    } catch (ConfigurationException | PersistenceException | SQLException ex) {
+      log.error("JDBC scanner error.", ex);
+      return false;
+    }
+  }
 
+  // Flags may be booleans, numbers, or text such as 'Y' or 'true', depending on what the database supports.
+  private static boolean isDeleted(Object flag) {
+    if (flag == null) {
+      return false;
+    }
+    if (flag instanceof Boolean) {
+      return (Boolean) flag;
+    }
+    if (flag instanceof Number) {
+      return ((Number) flag).doubleValue() != 0;
+    }
+    switch (flag.toString().trim().toLowerCase()) {
+      case "1":
+      case "t":
+      case "true":
+      case "y":
+      case "yes":
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Splits the query on the partition column and scans the partitions concurrently, each on its own
+   * connection. Rows where the partition column is null are scanned with the first partition.
+   *
+   * @param sql       the query
+   * @param operation the operation for the documents
+   * @param params    values for the parameters of the query, if any
+   * @return true if every partition was read completely
+   */
+  private boolean scanPartitions(String sql, Document.Operation operation, Object... params) {
+    String rows = "(" + stripSemicolon(sql) + ") jj_partitioned";
+    String base = "SELECT * FROM " + rows + " WHERE ";
+    List<String> queries = new ArrayList<>(partitionCount);
+    List<Object[]> partitionParams = new ArrayList<>(partitionCount);
+    if (moduloPartitions) {
+      for (int i = 0; i < partitionCount; i++) {
+        String condition = "ABS(MOD(" + partitionColumn + ", " + partitionCount + ")) = " + i;
+        queries.add(base + (i == 0 ? "(" + condition + " OR " + partitionColumn + " IS NULL)" : condition));
+        partitionParams.add(params);
+      }
+    } else {
+      long[] bounds;
+      try {
+        bounds = partitionBounds(rows, params);
       } catch (ConfigurationException | PersistenceException | SQLException ex) {
-        log.error("JDBC scanner error.", ex);
+        log.error("JDBC scanner could not find the range of partition column {}.", partitionColumn, ex);
+        return false;
       }
+      if (bounds == null) {
+        // no rows, or only rows where the partition column is null, which need no partitioning
+        return scanQuery(sql, operation, false, params);
+      }
+      for (int i = 0; i < partitionCount; i++) {
+        if (i == 0) {
+          queries.add(base + "(" + partitionColumn + " < ? OR " + partitionColumn + " IS NULL)");
+          partitionParams.add(ArrayUtils.add(params, bounds[1]));
+        } else if (i == partitionCount - 1) {
+          queries.add(base + partitionColumn + " >= ?");
+          partitionParams.add(ArrayUtils.add(params, bounds[i]));
+        } else {
+          queries.add(base + partitionColumn + " >= ? AND " + partitionColumn + " < ?");
+          partitionParams.add(ArrayUtils.addAll(params, bounds[i], bounds[i + 1]));
+        }
+      }
+    }
 
-    };
+    ExecutorService partitionExec = Executors.newFixedThreadPool(partitionCount, new ThreadFactoryBuilder()
+        .setNameFormat(String.valueOf(getName()).replace("%", "%%") + "-partition-%d")
+        .setDaemon(true)
+        .build());
+    try {
+      List<Future<Boolean>> scans = new ArrayList<>(partitionCount);
+      for (int i = 0; i < partitionCount; i++) {
+        String query = queries.get(i);
+        Object[] queryParams = partitionParams.get(i);
+        scans.add(partitionExec.submit(() -> scanQuery(query, operation, false, queryParams)));
+      }
+      boolean complete = true;
+      for (Future<Boolean> scan : scans) {
+        complete &= scan.get();
+      }
+      return complete;
+    } catch (ExecutionException ex) {
+      log.error("JDBC scanner error.", ex.getCause());
+      return false;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      partitionExec.shutdownNow();
+    }
   }
 
   /**
-   * Creates a document from a result set row.
+   * Divides the values of the partition column into ranges of equal width.
+   *
+   * @param rows   the scanned rows as a sub-select
+   * @param params values for the parameters of the sub-select, if any
+   * @return the lowest value of each partition, or null if the partition column has no values
+   */
+  private long[] partitionBounds(String rows, Object... params)
+    throws ConfigurationException, PersistenceException, SQLException {
+    String rangeSql = "SELECT MIN(" + partitionColumn + "), MAX(" + partitionColumn + ") FROM " + rows;
+    try (
+      Connection conn = getConnectionPool().borrow(autoCommit);
+      PreparedStatement statement = createStatement(conn, rangeSql)) {
+      for (int i = 0; i < params.length; i++) {
+        statement.setObject(i + 1, params[i]);
+      }
+      try (ResultSet rs = statement.executeQuery()) {
+        rs.next();
+        long min = rs.getLong(1);
+        if (rs.wasNull()) {
+          return null;
+        }
+        long max = rs.getLong(2);
+        // BigInteger since the span of a long column need not fit in a long
+        BigInteger span = BigInteger.valueOf(max).subtract(BigInteger.valueOf(min)).add(BigInteger.ONE);
+        long[] bounds = new long[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+          bounds[i] = span.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(partitionCount)).longValue() + min;
+        }
+        return bounds;
+      }
+    }
+  }
+
+  synchronized JdbcConnectionPool getConnectionPool() {
+    if (connectionPool == null) {
+      int connections = maxConnections > 0 ? maxConnections : partitionCount;
+      connectionPool = JdbcConnectionPool.forSource(sqlUtils, jdbcDriver, jdbcUrl, jdbcUser, jdbcPassword,
+          connections, connectionIdleMillis);
+    }
+    return connectionPool;
+  }
+
+  @Override
+  public void deactivate() {
+    super.deactivate();
+    releaseConnectionPool();
+    ContentSpool.deleteSpooled(this);
+  }
+
+  // An inactive scanner holds no connections. The pool is found again if the scanner is reactivated.
+  synchronized void releaseConnectionPool() {
+    if (connectionPool != null) {
+      connectionPool.release();
+      connectionPool = null;
+    }
+  }
+
+  // Values are kept in forms that compare consistently and that the JDBC driver can bind back into the query.
+  private static Object watermarkValue(Object value) {
+    if (value == null || value instanceof Timestamp) {
+      return value;
+    }
+    if (value instanceof Date) {
+      return new Timestamp(((Date) value).getTime());
+    }
+    if (value instanceof Number) {
+      return new BigDecimal(value.toString());
+    }
+    return value.toString();
+  }
+
+  @SuppressWarnings("unchecked")
+  private synchronized void sawWatermark(Object value, boolean deletions) {
+    Object candidate = watermarkValue(value);
+    Object seen = deletions ? scanDeletionWatermark : scanWatermark;
+    if (candidate != null && (seen == null || ((Comparable<Object>) candidate).compareTo(seen) > 0)) {
+      if (deletions) {
+        scanDeletionWatermark = candidate;
+      } else {
+        scanWatermark = candidate;
+      }
+    }
+  }
+
+  /**
+   * The greatest value of the watermark column seen by the last complete scan, loaded from the watermark file
+   * if there is one and nothing has been scanned yet.
+   *
+   * @return the watermark, or null if the next scan should select every row
+   */
+  synchronized Object getWatermark() {
+    loadWatermarks();
+    return watermark;
+  }
+
+  /**
+   * The greatest value of the watermark column seen by the last complete run of the deletion query, which is
+   * independent of the watermark of the scan query.
+   *
+   * @return the watermark, or null if the deletion query should select every row
+   */
+  synchronized Object getDeletionWatermark() {
+    loadWatermarks();
+    return deletionWatermark;
+  }
+
+  private synchronized void loadWatermarks() {
+    if (watermarksLoaded) {
+      return;
+    }
+    watermarksLoaded = true;
+    if (watermarkFile != null && watermarkFile.exists()) {
+      Properties saved = new Properties();
+      try (InputStream in = new FileInputStream(watermarkFile)) {
+        saved.load(in);
+        watermark = readWatermark(saved, "");
+        deletionWatermark = readWatermark(saved, DELETION_PREFIX);
+      } catch (IOException | IllegalArgumentException ex) {
+        log.error("Could not read watermark from {}, scanning every row.", watermarkFile, ex);
+        watermark = null;
+        deletionWatermark = null;
+      }
+    }
+  }
+
+  private static Object readWatermark(Properties saved, String prefix) {
+    String value = saved.getProperty(prefix + WATERMARK_VALUE);
+    if (value == null) {
+      return null;
+    }
+    switch (saved.getProperty(prefix + WATERMARK_TYPE, "")) {
+      case "timestamp":
+        return watermarkValue(Timestamp.valueOf(value));
+      case "number":
+        return watermarkValue(new BigDecimal(value));
+      default:
+        return watermarkValue(value);
+    }
+  }
+
+  private static void writeWatermark(Properties saved, String prefix, Object value) {
+    if (value != null) {
+      saved.setProperty(prefix + WATERMARK_TYPE, value instanceof Timestamp ? "timestamp" :
+        value instanceof BigDecimal ? "number" : "text");
+      saved.setProperty(prefix + WATERMARK_VALUE, value.toString());
+    }
+  }
+
+  // Only called once a query has read every row, so that rows are never skipped because a scan failed part way.
+  private synchronized void advanceWatermarks(boolean scanned, boolean deletionsScanned) {
+    Object advanced = scanned && scanWatermark != null ? scanWatermark : watermark;
+    Object deletionAdvanced = deletionsScanned && scanDeletionWatermark != null ? scanDeletionWatermark :
+      deletionWatermark;
+    if (Objects.equals(advanced, watermark) && Objects.equals(deletionAdvanced, deletionWatermark)) {
+      return;
+    }
+    watermark = advanced;
+    deletionWatermark = deletionAdvanced;
+    if (watermarkFile != null) {
+      Properties saved = new Properties();
+      writeWatermark(saved, "", watermark);
+      writeWatermark(saved, DELETION_PREFIX, deletionWatermark);
+      File tmp = new File(watermarkFile.getPath() + ".tmp");
+      try (OutputStream out = new FileOutputStream(tmp)) {
+        saved.store(out, "Watermark for " + getName());
+      } catch (IOException ex) {
+        log.error("Could not save watermark to {}.", watermarkFile, ex);
+        return;
+      }
+      try {
+        Files.move(tmp.toPath(), watermarkFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException ex) {
+        log.error("Could not save watermark to {}.", watermarkFile, ex);
+      }
+    }
+  }
+
+  /**
+   * Creates a document from a result set row. Documents to be deleted carry only their id.
    * 
    * @param rs
    *          the result set
@@ -133,36 +554,27 @@ public class JdbcScanner extends ScannerImpl {
    *          the column names
    * @param docId
    *          the document ID to use
+   * @param operation
+   *          the operation for the document
    * @return the document instance
    * @throws SQLException
    */
-  Document makeDoc(ResultSet rs, String[] columnNames, String docId) throws SQLException {
-    // TODO - deletion tracking. Configure a separate query to identify soft deletes.
-    // TODO - query Cassandra for whether the ID is in it, if so then it's an update
+  Document makeDoc(ResultSet rs, String[] columnNames, String docId, Document.Operation operation) throws SQLException {
+    if (operation == Document.Operation.DELETE) {
+      return newDocument((byte[]) null, docId, operation);
+    }
 
-    byte[] rawBytes = getContentBytes(rs);
+    Content content = getContent(rs);
 
-    DocumentImpl doc = new DocumentImpl(
-      rawBytes,
-      docId,
-      getPlan(),
-      Document.Operation.NEW,
-      JdbcScanner.this);
+    DocumentImpl doc = newDocument(content, docId, operation);
 
     // For each column value
     for (int i = 1; i <= columnNames.length; i++) {
       // Skip over the content column; if any is specified, we've already processed it as raw bytes.
       if (!columnNames[i - 1].equals(contentColumn)) {
         Object value = rs.getObject(i);
-        String strValue;
         if (value != null) {
-          // Take care of java.sql.Date, java.sql.Time, and java.sql.Timestamp
-          if (value instanceof Date) {
-            strValue = convertDateToString(value);
-          } else {
-            strValue = value.toString();
-          }
-          doc.put(columnNames[i - 1], strValue);
+          putColumnValue(doc, columnNames[i - 1], value);
         }
       }
     }
@@ -170,46 +582,114 @@ public class JdbcScanner extends ScannerImpl {
     return doc;
   }
 
-  private byte[] getContentBytes(ResultSet rs) throws SQLException {
-    byte[] rawBytes = null;
+  // Keeps numbers, dates and booleans typed so that they are not converted to text until they must be.
+  // LOBs other than the content are read whole, since a field value must be held in memory anyway.
+  private static void putColumnValue(Document doc, String column, Object value) throws SQLException {
+    if (value instanceof Clob) {
+      Clob clob = (Clob) value;
+      value = clob.getSubString(1, (int) clob.length());
+      free(clob);
+    } else if (value instanceof Blob) {
+      Blob blob = (Blob) value;
+      value = blob.getBytes(1, (int) blob.length());
+      free(blob);
+    }
+    // Take care of java.sql.Date, java.sql.Time, and java.sql.Timestamp
+    if (value instanceof Date) {
+      doc.putInstant(column, Instant.ofEpochMilli(((Date) value).getTime()));
+    } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      doc.putLong(column, ((Number) value).longValue());
+    } else if (value instanceof Double) {
+      doc.putDouble(column, (Double) value);
+    } else if (value instanceof Boolean) {
+      doc.putBoolean(column, (Boolean) value);
+    } else if (value instanceof byte[]) {
+      doc.putBytes(column, (byte[]) value);
+    } else {
+      doc.put(column, value.toString());
+    }
+  }
 
+  // LOBs are only readable while the row is current, so they are spooled rather than read when needed.
+  private Content getContent(ResultSet rs) throws SQLException {
     // If the content column was specified
-    if (StringUtils.isNotBlank(contentColumn)) {
-      // Get its value.
-      Object content = rs.getObject(contentColumn);
-
-      if (content != null) {
-        // Clob
-        if (content instanceof Clob) {
-          Clob clob = (Clob) content;
-          try (Reader reader = clob.getCharacterStream()) {
-            rawBytes = CharStreams.toString(reader).getBytes();
-          } catch (IOException ex) {
-            String msg = String.format("I/O error while reading value of content column '%s'.", contentColumn);
-            log.error(msg, ex);
-          }
-        }
-        // Blob
-        else if (content instanceof Blob) {
-          Blob blob = (Blob) content;
-          try (InputStream stream = blob.getBinaryStream()) {
-            rawBytes = IOUtils.toByteArray(stream);
-          } catch (IOException ex) {
-            String msg = String.format("I/O error while reading value of content column '%s'.", contentColumn);
-            log.error(msg, ex);
-          }
-        }
-        // Date (unlikely, but)
-        else if (content instanceof Date) {
-          rawBytes = convertDateToString(content).getBytes();
+    if (StringUtils.isBlank(contentColumn)) {
+      return null;
+    }
+    // Get its value.
+    Object content = rs.getObject(contentColumn);
+    if (content == null) {
+      return null;
+    }
+    try {
+      // Clob
+      if (content instanceof Clob) {
+        Clob clob = (Clob) content;
+        try (Reader reader = clob.getCharacterStream()) {
+          return spool(reader);
+        } finally {
+          free(clob);
         }
-        // Anything else
-        else {
-          rawBytes = content.toString().getBytes();
+      }
+      // Blob
+      if (content instanceof Blob) {
+        Blob blob = (Blob) content;
+        try (InputStream stream = blob.getBinaryStream()) {
+          return spool(stream);
+        } finally {
+          free(blob);
         }
       }
+    } catch (IOException ex) {
+      String msg = String.format("I/O error while reading value of content column '%s'.", contentColumn);
+      log.error(msg, ex);
+      return null;
+    }
+    // Binary
+    if (content instanceof byte[]) {
+      return new ByteArrayContent((byte[]) content);
+    }
+    // Date (unlikely, but)
+    if (content instanceof Date) {
+      return new ByteArrayContent(convertDateToString(content).getBytes(contentCharset));
+    }
+    // Anything else
+    return new ByteArrayContent(content.toString().getBytes(contentCharset));
+  }
+
+  private Content spool(InputStream in) throws IOException {
+    ContentSpool spool = new ContentSpool(contentMemoryLimit, contentSpoolDir, this);
+    try {
+      ByteStreams.copy(in, spool);
+      return spool.toContent();
+    } finally {
+      spool.discard();
+    }
+  }
+
+  private Content spool(Reader reader) throws IOException {
+    ContentSpool spool = new ContentSpool(contentMemoryLimit, contentSpoolDir, this);
+    try {
+      Writer writer = new OutputStreamWriter(spool, contentCharset);
+      CharStreams.copy(reader, writer);
+      writer.flush();
+      return spool.toContent();
+    } finally {
+      spool.discard();
+    }
+  }
+
+  // Lets the driver release the LOB now rather than when the result set is closed. Not all drivers support it.
+  private static void free(Object lob) {
+    try {
+      if (lob instanceof Blob) {
+        ((Blob) lob).free();
+      } else {
+        ((Clob) lob).free();
+      }
+    } catch (SQLException | AbstractMethodError ex) {
+      log.trace("Could not free LOB", ex);
     }
-    return rawBytes;
   }
 
   private static String convertDateToString(Object value) {
@@ -217,15 +697,12 @@ public class JdbcScanner extends ScannerImpl {
     return DATE_FORMATTER.format(instant);
   }
 
-  // Creates a statement to execute
-  private Statement createStatement(Connection conn) throws SQLException {
-    Statement statement = conn.createStatement(java.sql.ResultSet.TYPE_FORWARD_ONLY, java.sql.ResultSet.CONCUR_READ_ONLY);
-    if (fetchSize != -1) {
-      statement.setFetchSize(fetchSize);
-    }
-    if (queryTimeout > 0) {
-      statement.setQueryTimeout(queryTimeout);
-    }
+  // Creates a statement to execute. Pooled statements may have been used by another scanner, so the
+  // settings are always applied, with zero (the JDBC default) where none is configured.
+  private PreparedStatement createStatement(Connection conn, String sql) throws SQLException {
+    PreparedStatement statement = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    statement.setFetchSize(fetchSize != -1 ? fetchSize : 0);
+    statement.setQueryTimeout(queryTimeout > 0 ? queryTimeout : 0);
     return statement;
   }
 
@@ -242,6 +719,16 @@ public class JdbcScanner extends ScannerImpl {
     return names;
   }
 
+  // Like ResultSet.findColumn, but returns -1 rather than throwing if there is no such column
+  private static int findColumn(String[] columnNames, String name) {
+    for (int i = 0; i < columnNames.length; i++) {
+      if (columnNames[i].equalsIgnoreCase(name)) {
+        return i + 1; // + 1 for JDBC
+      }
+    }
+    return -1;
+  }
+
   // Gets the document ID column index
   private int getDocIdColumnIndex(String[] columnNames, String docIdColumnName) throws PersistenceException {
     int itemIdColNum = -1;
@@ -313,6 +800,33 @@ public class JdbcScanner extends ScannerImpl {
       return this;
     }
 
+    /**
+     * The encoding of content from a text column (such as a CLOB). The default is UTF-8.
+     *
+     * @param contentCharset the charset in which to encode text content
+     * @return this builder
+     */
+    public Builder withContentCharset(Charset contentCharset) {
+      getObject().contentCharset = contentCharset;
+      return this;
+    }
+
+    /**
+     * How much of the content of a LOB column to hold in memory. Larger values are spooled to a temporary
+     * file, which is deleted once no document refers to it, or when the scanner is deactivated. The default
+     * is 1 MiB.
+     *
+     * @param bytes    the most bytes of a LOB to hold in memory
+     * @param spoolDir the directory for temporary files, or null for the system's default. Each JVM spools
+     *                 into its own subdirectory, so the directory may be shared.
+     * @return this builder
+     */
+    public Builder withContentMemoryLimit(int bytes, File spoolDir) {
+      getObject().contentMemoryLimit = bytes;
+      getObject().contentSpoolDir = spoolDir;
+      return this;
+    }
+
     public Builder withFetchSize(int fetchSize) {
       getObject().fetchSize = fetchSize;
       return this;
@@ -328,6 +842,150 @@ public class JdbcScanner extends ScannerImpl {
       return this;
     }
 
+    /**
+     * Split the query into partitions by ranges of an integer column, and scan the partitions concurrently
+     * on separate connections. The range of the column is divided into partitions of equal width, so the
+     * column should be evenly distributed (such as a sequential key). The query is wrapped in a sub-select
+     * to which the ranges are applied, so the column must be one of its result columns.
+     *
+     * @param partitionColumn the name of the column, or an integer valued expression of result columns
+     * @param partitions      how many partitions to scan at once
+     * @return this builder
+     */
+    public Builder withPartitionColumn(String partitionColumn, int partitions) {
+      return partitioning(partitionColumn, partitions, false);
+    }
+
+    /**
+     * Split the query into partitions by the remainder of an integer column divided by the number of
+     * partitions, and scan the partitions concurrently on separate connections. Useful where the values of the
+     * column are not evenly distributed across their range. Each partition must read past the rows of the
+     * other partitions, unless the database can use an index on the expression.
+     *
+     * @param partitionColumn the name of the column, or an integer valued expression of result columns
+     * @param partitions      how many partitions to scan at once
+     * @return this builder
+     */
+    public Builder withModuloPartitionColumn(String partitionColumn, int partitions) {
+      return partitioning(partitionColumn, partitions, true);
+    }
+
+    /**
+     * Scan incrementally. The first scan selects every row and sends each as a new document. Later scans only
+     * select rows whose watermark column is greater than the greatest value seen by the last complete scan, and
+     * send them as updates. The column should increase whenever a row is inserted or changed, such as a last
+     * updated timestamp or a sequence maintained by a trigger, and must be one of the result columns of the query.
+     * <p>
+     * Rows are selected with the column strictly greater than the watermark, so a row that gets a value no greater
+     * than the watermark after a scan has seen it is never selected. This happens when a transaction that began
+     * before the scan commits after it, and when rows share a value (such as a coarse timestamp) but are not all
+     * committed before the scan. Where that is possible, set a lag with {@link #withWatermarkLag(long)} that covers
+     * the longest transaction. Rows within the lag are sent again on every scan, which a document index
+     * (see {@link ScannerImpl.Builder#trackingDocumentsIn}) turns into a cheap check that they are unchanged.
+     *
+     * @param watermarkColumn the name of the column
+     * @return this builder
+     */
+    public Builder withWatermarkColumn(String watermarkColumn) {
+      getObject().watermarkColumn = watermarkColumn;
+      return this;
+    }
+
+    /**
+     * Select rows whose watermark column is greater than the watermark less this lag, to pick up rows that were
+     * committed after a scan with a value it had already passed. For timestamp columns the lag is in milliseconds,
+     * for numeric columns it is subtracted from the watermark. It has no effect on text columns. The default is 0.
+     *
+     * @param lag how far behind the watermark to select rows
+     * @return this builder
+     */
+    public Builder withWatermarkLag(long lag) {
+      if (lag < 0) {
+        throw new IllegalArgumentException("The watermark lag may not be negative");
+      }
+      getObject().watermarkLag = lag;
+      return this;
+    }
+
+    /**
+     * Save the watermark to a file after each complete scan, so that scans after a restart remain incremental.
+     *
+     * @param watermarkFile where the watermark is saved
+     * @return this builder
+     */
+    public Builder withWatermarkFile(File watermarkFile) {
+      getObject().watermarkFile = watermarkFile;
+      return this;
+    }
+
+    /**
+     * The most connections to the source to have open at once. Scanners of the same source share a pool of
+     * connections that allows as many as the largest of their limits. By default a scanner asks for one
+     * connection per partition.
+     *
+     * @param maxConnections the most connections to have open at once
+     * @return this builder
+     */
+    public Builder withMaxConnections(int maxConnections) {
+      if (maxConnections < 1) {
+        throw new IllegalArgumentException("At least one connection is required");
+      }
+      getObject().maxConnections = maxConnections;
+      return this;
+    }
+
+    /**
+     * How long a pooled connection may be unused before it is closed. Scanners of the same source keep their
+     * connections for the longest of their idle times. Setting this longer than the scan frequency keeps
+     * connections open between scans. The default is five minutes.
+     *
+     * @param idleMillis the idle time in milliseconds
+     * @return this builder
+     */
+    public Builder withConnectionIdleMillis(long idleMillis) {
+      getObject().connectionIdleMillis = idleMillis;
+      return this;
+    }
+
+    /**
+     * Send a document to be deleted for each row of a second query, which selects rows that have been deleted
+     * from the source, such as those of a table of tombstones kept by a trigger. The query must return the
+     * document id column; other columns are ignored. It is run before the scan query each time the source is
+     * scanned. When scanning incrementally, a query that also returns the watermark column (such as the time of
+     * deletion) is restricted by a watermark of its own, which is kept and saved separately from that of the scan
+     * query, since the deleted rows are usually stamped independently of the rows that remain. Otherwise every
+     * deleted row is sent again on each scan.
+     *
+     * @param deletionQuery the SQL selecting deleted rows
+     * @return this builder
+     */
+    public Builder withDeletionQuery(String deletionQuery) {
+      getObject().deletionQuery = deletionQuery;
+      return this;
+    }
+
+    /**
+     * Send rows of the scan query as documents to be deleted when a column flags them as deleted. The flag is
+     * set when it is true, a non-zero number, or the text 1, t, true, y or yes in any case.
+     *
+     * @param deletedFlagColumn the name of the column, which must be one of the result columns of the query
+     * @return this builder
+     */
+    public Builder withDeletedFlagColumn(String deletedFlagColumn) {
+      getObject().deletedFlagColumn = deletedFlagColumn;
+      return this;
+    }
+
+    private Builder partitioning(String partitionColumn, int partitions, boolean modulo) {
+      if (partitions < 1) {
+        throw new IllegalArgumentException("At least one partition is required");
+      }
+      getObject().partitionColumn = partitionColumn;
+      getObject().partitionCount = partitions;
+      getObject().moduloPartitions = modulo;
+      return this;
+    }
+
     @Override
     public JdbcScanner.Builder batchSize(int size) {
       super.batchSize(size);
@@ -364,6 +1022,24 @@ public class JdbcScanner extends ScannerImpl {
       return this;
     }
 
+    @Override
+    public JdbcScanner.Builder producingCompactDocuments() {
+      super.producingCompactDocuments();
+      return this;
+    }
+
+    @Override
+    public JdbcScanner.Builder trackingDocumentsIn(DocumentIndex index) {
+      super.trackingDocumentsIn(index);
+      return this;
+    }
+
+    @Override
+    public JdbcScanner.Builder filteringSeenDocuments(File file, int expectedDocuments) {
+      super.filteringSeenDocuments(file, expectedDocuments);
+      return this;
+    }
+
     @Override
     public ScannerImpl build() {
       JdbcScanner tmp = obj;
@@ -421,4 +1097,64 @@ public class JdbcScanner extends ScannerImpl {
   public String getContentColumn() {
     return contentColumn;
   }
+
+  @SimpleProperty
+  public Charset getContentCharset() {
+    return contentCharset;
+  }
+
+  @SimpleProperty
+  public int getContentMemoryLimit() {
+    return contentMemoryLimit;
+  }
+
+  @SimpleProperty
+  public File getContentSpoolDir() {
+    return contentSpoolDir;
+  }
+
+  @SimpleProperty
+  public String getPartitionColumn() {
+    return partitionColumn;
+  }
+
+  @SimpleProperty
+  public int getPartitionCount() {
+    return partitionCount;
+  }
+
+  @SimpleProperty
+  public boolean isModuloPartitions() {
+    return moduloPartitions;
+  }
+
+  @SimpleProperty
+  public String getWatermarkColumn() {
+    return watermarkColumn;
+  }
+
+  @SimpleProperty
+  public long getWatermarkLag() {
+    return watermarkLag;
+  }
+
+  @SimpleProperty
+  public String getDeletionQuery() {
+    return deletionQuery;
+  }
+
+  @SimpleProperty
+  public String getDeletedFlagColumn() {
+    return deletedFlagColumn;
+  }
+
+  @SimpleProperty
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  @SimpleProperty
+  public long getConnectionIdleMillis() {
+    return connectionIdleMillis;
+  }
 }
@@ -21,9 +21,14 @@ import net.jini.space.JavaSpace;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jesterj.ingest.model.ConfiguredBuildable;
+import org.jesterj.ingest.model.Content;
 import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.DocumentIndex;
 import org.jesterj.ingest.model.Router;
+import org.jesterj.ingest.model.impl.ByteArrayContent;
 import org.jesterj.ingest.model.impl.DocumentImpl;
+import org.jesterj.ingest.model.impl.FileContent;
+import org.jesterj.ingest.model.impl.MappedContent;
 import org.jesterj.ingest.model.impl.ScannerImpl;
 
 import java.io.File;
@@ -56,14 +61,20 @@ import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
 /**
  * Scanner for local filesystems. This scanner operates in a two phase process. First a full walk of the filesystem
- * is performed, and then further changes are detected by a {@link WatchService}. No persistent
- * record of files detected is kept, so while this will only send files once and then only updated/modified
- * files during it's run, restarting will send all files in the directory again.
+ * is performed, and then further changes are detected by a {@link WatchService}. Unless a document index is
+ * configured with {@link Builder#trackingDocumentsIn(DocumentIndex)} no persistent record of files detected is
+ * kept, so while this will only send files once and then only updated/modified files during it's run, restarting
+ * will send all files in the directory again.
  */
 public class SimpleFileWatchScanner extends ScannerImpl {
   private static final Logger log = LogManager.getLogger();
 
+  private static final String MODIFIED = "modified";
+  private static final String ACCESSED = "accessed";
+  private static final String CREATED = "created";
+
   private File rootDir;
+  private long mappingThreshold = -1;
   LinkedHashMap<File, WatchService> watchers = new LinkedHashMap<>();
   private final Object watcherLock = new Object();
 
@@ -81,6 +92,19 @@ public class SimpleFileWatchScanner extends ScannerImpl {
     };
   }
 
+  @Override
+  protected long lastModified(Document doc) {
+    Long modified = doc.getLong(MODIFIED);
+    return modified == null ? -1 : modified;
+  }
+
+  // Only content and size matter. Reading a file to see if it changed would change its access time, and
+  // some filesystems report the modification time as the creation time.
+  @Override
+  protected boolean isHashed(String field) {
+    return !(MODIFIED.equals(field) || ACCESSED.equals(field) || CREATED.equals(field));
+  }
+
   @Override
   public Runnable getScanOperation() {
     return () -> {
@@ -175,27 +199,24 @@ public class SimpleFileWatchScanner extends ScannerImpl {
   }
 
   void makeDoc(Path file, Document.Operation operation, BasicFileAttributes attributes) {
-    byte[] rawData = new byte[0];
-    try {
-      rawData = Files.readAllBytes(file);
-    } catch (IOException e) {
-      log.error("Could not read bytes from file:" + file, e);
+    // the file is not read here, only if and when a processor needs its content
+    Content content;
+    if (attributes != null) {
+      content = contentOf(file, attributes.size());
+    } else if (Files.isReadable(file)) {
+      content = new FileContent(file);
+    } else {
+      log.error("Could not read bytes from file:" + file);
+      content = new ByteArrayContent(new byte[0]);
     }
     String id;
     try {
       id = file.toRealPath(new LinkOption[0]).toUri().toASCIIString();
-      DocumentImpl doc = new DocumentImpl(
-          rawData,
-          id,
-          getPlan(),
-          operation,
-          SimpleFileWatchScanner.this
-      );
+      DocumentImpl doc = newDocument(content, id, operation);
       if (attributes != null) {
-        doc.put("modified", String.valueOf(attributes.lastModifiedTime().toMillis()));
-        doc.put("accessed", String.valueOf(attributes.lastAccessTime().toMillis()));
-        doc.put("created", String.valueOf(attributes.creationTime().toMillis()));
-        doc.put("file_size", String.valueOf(attributes.size()));
+        doc.putLong(MODIFIED, attributes.lastModifiedTime().toMillis());
+        doc.putLong(ACCESSED, attributes.lastAccessTime().toMillis());
+        doc.putLong(CREATED, attributes.creationTime().toMillis());
       }
       SimpleFileWatchScanner.this.docFound(doc);
     } catch (IOException e) {
@@ -205,6 +226,26 @@ public class SimpleFileWatchScanner extends ScannerImpl {
   }
 
 
+  private Content contentOf(Path file, long size) {
+    if (mappingThreshold < 0 || size > Integer.MAX_VALUE) {
+      return new FileContent(file, size);
+    }
+    if (size >= mappingThreshold) {
+      return new MappedContent(file, size);
+    }
+    // small files are cheaper to read than to map
+    try {
+      return new ByteArrayContent(Files.readAllBytes(file));
+    } catch (IOException e) {
+      log.error("Could not read bytes from file:" + file, e);
+      return new ByteArrayContent(new byte[0]);
+    }
+  }
+
+  public long getMappingThreshold() {
+    return mappingThreshold;
+  }
+
   public static class Builder extends ScannerImpl.Builder {
 
     private SimpleFileWatchScanner obj;
@@ -225,6 +266,22 @@ public class SimpleFileWatchScanner extends ScannerImpl {
       return this;
     }
 
+    /**
+     * Memory map files of at least the given size rather than reading them, so that processors and senders
+     * can read their content without copying it to the heap. Smaller files are read into memory when found.
+     * Files larger than 2GB cannot be mapped and are always streamed from disk.
+     *
+     * @param minBytes the size at which files are mapped, 0 to map every file
+     * @return this builder
+     */
+    public Builder memoryMappingFilesOf(long minBytes) {
+      if (minBytes < 0) {
+        throw new IllegalArgumentException("Mapping threshold cannot be negative");
+      }
+      getObject().mappingThreshold = minBytes;
+      return this;
+    }
+
     @Override
     public SimpleFileWatchScanner.Builder batchSize(int size) {
       super.batchSize(size);
@@ -261,6 +318,24 @@ public class SimpleFileWatchScanner extends ScannerImpl {
       return this;
     }
 
+    @Override
+    public SimpleFileWatchScanner.Builder producingCompactDocuments() {
+      super.producingCompactDocuments();
+      return this;
+    }
+
+    @Override
+    public SimpleFileWatchScanner.Builder trackingDocumentsIn(DocumentIndex index) {
+      super.trackingDocumentsIn(index);
+      return this;
+    }
+
+    @Override
+    public SimpleFileWatchScanner.Builder filteringSeenDocuments(File file, int expectedDocuments) {
+      super.filteringSeenDocuments(file, expectedDocuments);
+      return this;
+    }
+
     @Override
     public ScannerImpl build() {
       SimpleFileWatchScanner tmp = obj;
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.utils;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, preallocated, lock-free queue for many producer threads and exactly one consumer thread.
+ * Producers claim a slot with a single compare and set on the producer index and the consumer never
+ * contends with anyone, so no locks are taken and nothing is allocated per element on the fast path.
+ * Blocked threads are parked and woken directly by the other side rather than via a lock and condition.
+ * <p>
+ * Only one thread may remove elements (poll, take, drainTo, clear etc.) at a time. The capacity is rounded up
+ * to the next power of two. Iteration is weakly consistent and does not support removal.
+ *
+ * @param <E> the type of element held
+ */
+public class MpscRingBuffer<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+  // how many times a blocked thread yields before parking, parking is far more expensive if the wait is brief
+  private static final int YIELDS_BEFORE_PARK = 64;
+
+  private final AtomicReferenceArray<E> buffer;
+  private final int capacity;
+  private final int mask;
+  private final AtomicLong producerIndex = new AtomicLong();
+  private final AtomicLong consumerIndex = new AtomicLong();
+
+  private volatile Thread waitingConsumer;
+  private final ConcurrentLinkedQueue<Thread> waitingProducers = new ConcurrentLinkedQueue<>();
+
+  public MpscRingBuffer(int requestedCapacity) {
+    if (requestedCapacity < 1) {
+      throw new IllegalArgumentException("Capacity must be at least 1, got " + requestedCapacity);
+    }
+    int cap = Integer.highestOneBit(requestedCapacity);
+    if (cap < requestedCapacity) {
+      cap <<= 1;
+    }
+    this.capacity = cap;
+    this.mask = cap - 1;
+    this.buffer = new AtomicReferenceArray<>(cap);
+  }
+
+  @Override
+  public boolean offer(E e) {
+    if (e == null) {
+      throw new NullPointerException();
+    }
+    while (true) {
+      long p = producerIndex.get();
+      if (p - consumerIndex.get() >= capacity) {
+        return false;
+      }
+      if (producerIndex.compareAndSet(p, p + 1)) {
+        buffer.lazySet((int) p & mask, e);
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+          LockSupport.unpark(consumer);
+        }
+        return true;
+      }
+    }
+  }
+
+  @Override
+  public E poll() {
+    long c = consumerIndex.get();
+    int slot = (int) c & mask;
+    E e = buffer.get(slot);
+    if (e == null) {
+      if (c == producerIndex.get()) {
+        return null;
+      }
+      // a producer has claimed the slot but not yet filled it, this is at most a few instructions away
+      do {
+        Thread.yield();
+        e = buffer.get(slot);
+      } while (e == null);
+    }
+    buffer.lazySet(slot, null);
+    consumerIndex.set(c + 1);
+    Thread producer = waitingProducers.poll();
+    if (producer != null) {
+      LockSupport.unpark(producer);
+    }
+    return e;
+  }
+
+  @Override
+  public E peek() {
+    return buffer.get((int) consumerIndex.get() & mask);
+  }
+
+  @Override
+  public void put(E e) throws InterruptedException {
+    for (int i = 0; !offer(e); i++) {
+      if (i < YIELDS_BEFORE_PARK) {
+        Thread.yield();
+      } else {
+        awaitSpace(0);
+      }
+    }
+  }
+
+  @Override
+  public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (!offer(e)) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return false;
+      }
+      awaitSpace(remaining);
+    }
+    return true;
+  }
+
+  @Override
+  public E take() throws InterruptedException {
+    E e;
+    for (int i = 0; (e = poll()) == null; i++) {
+      if (i < YIELDS_BEFORE_PARK) {
+        Thread.yield();
+      } else {
+        awaitElement(0);
+      }
+    }
+    return e;
+  }
+
+  @Override
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    E e;
+    while ((e = poll()) == null) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return null;
+      }
+      awaitElement(remaining);
+    }
+    return e;
+  }
+
+  // Publish ourselves before re-checking so that a producer either sees us and unparks us, or we see its element.
+  private void awaitElement(long nanos) throws InterruptedException {
+    waitingConsumer = Thread.currentThread();
+    try {
+      if (isEmpty()) {
+        park(nanos);
+      }
+    } finally {
+      waitingConsumer = null;
+    }
+  }
+
+  private void awaitSpace(long nanos) throws InterruptedException {
+    Thread me = Thread.currentThread();
+    waitingProducers.add(me);
+    try {
+      if (remainingCapacity() == 0) {
+        park(nanos);
+      }
+    } finally {
+      waitingProducers.remove(me);
+    }
+  }
+
+  private void park(long nanos) throws InterruptedException {
+    if (nanos > 0) {
+      LockSupport.parkNanos(this, nanos);
+    } else {
+      LockSupport.park(this);
+    }
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+  }
+
+  @Override
+  public int size() {
+    // read consumer first so that the difference can never be negative
+    long c = consumerIndex.get();
+    long p = producerIndex.get();
+    return (int) Math.max(0, Math.min(capacity, p - c));
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return consumerIndex.get() == producerIndex.get();
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return capacity - size();
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException();
+    }
+    int n = 0;
+    E e;
+    while (n < maxElements && (e = poll()) != null) {
+      c.add(e);
+      n++;
+    }
+    return n;
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    List<E> snapshot = new ArrayList<>();
+    long p = producerIndex.get();
+    for (long i = consumerIndex.get(); i < p; i++) {
+      E e = buffer.get((int) i & mask);
+      if (e != null) {
+        snapshot.add(e);
+      }
+    }
+    Iterator<E> it = snapshot.iterator();
+    return new Iterator<E>() {
+      @Override
+      public boolean hasNext() {
+        return it.hasNext();
+      }
+
+      @Override
+      public E next() {
+        return it.next();
+      }
+    };
+  }
+}
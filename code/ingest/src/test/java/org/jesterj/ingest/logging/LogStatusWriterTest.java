@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jesterj.ingest.logging;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.jesterj.ingest.model.Status;
+import org.jesterj.ingest.model.StatusEvent;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+
+public class LogStatusWriterTest {
+
+  @Test
+  public void testWritesTheTimeAndThreadOfTheEvent() throws Exception {
+    AtomicReference<StatusEvent> reported = new AtomicReference<>();
+    Thread reporter = new Thread(() ->
+        reported.set(new StatusEvent("doc1", Status.INDEXED, "Indexed {}", new Object[]{"doc1"})), "reporter");
+    reporter.start();
+    reporter.join();
+    StatusEvent event = reported.get();
+    Thread.sleep(50);
+
+    List<LogEvent> written = new ArrayList<>();
+    AbstractAppender capture = new AbstractAppender("LogStatusWriterTest", null, null) {
+      @Override
+      public void append(LogEvent logEvent) {
+        written.add(logEvent);
+      }
+    };
+    capture.start();
+    Logger logger = (Logger) LogManager.getLogger(LogStatusWriter.class);
+    LoggerConfig config = logger.getContext().getConfiguration().getLoggerConfig(logger.getName());
+    config.addAppender(capture, null, null);
+    try {
+      new LogStatusWriter().accept(Collections.singletonList(event));
+    } finally {
+      config.removeAppender(capture.getName());
+    }
+
+    assertEquals(1, written.size());
+    LogEvent logEvent = written.get(0);
+    assertEquals(event.getTimeMillis(), logEvent.getTimeMillis());
+    assertEquals("reporter", logEvent.getThreadName());
+    assertEquals(Status.INDEXED.getMarker(), logEvent.getMarker());
+    assertEquals("doc1", logEvent.getContextMap().get(JesterJAppender.JJ_INGEST_DOCID));
+    assertEquals("Indexed doc1", logEvent.getMessage().getFormattedMessage());
+
+    // the row written to cassandra records the reporting thread, not this one
+    JesterJAppender.LogRow row = JesterJAppender.LogRow.of(logEvent);
+    assertEquals("reporter", row.getThread());
+    assertEquals(event.getSequence(), row.getSequence());
+  }
+}
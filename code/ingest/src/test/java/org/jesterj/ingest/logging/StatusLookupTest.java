@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jesterj.ingest.logging;
+
+import com.copyright.easiertest.Mock;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.jesterj.ingest.model.Status;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.copyright.easiertest.EasierMocks.prepareMocks;
+import static com.copyright.easiertest.EasierMocks.replay;
+import static com.copyright.easiertest.EasierMocks.reset;
+import static com.copyright.easiertest.EasierMocks.verify;
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StatusLookupTest {
+  @Mock private Session mockSession;
+  @Mock private PreparedStatement mockPrepared;
+  @Mock private BoundStatement mockBound1;
+  @Mock private BoundStatement mockBound2;
+  @Mock private BoundStatement mockBound3;
+  @Mock private ResultSetFuture mockFuture1;
+  @Mock private ResultSetFuture mockFuture2;
+  @Mock private ResultSetFuture mockFuture3;
+  @Mock private ResultSet mockResults1;
+  @Mock private ResultSet mockResults2;
+  @Mock private ResultSet mockResults3;
+  @Mock private Row mockRow1;
+  @Mock private Row mockRow3;
+
+  public StatusLookupTest() {
+    prepareMocks(this);
+  }
+
+  @Before
+  public void setUp() {
+    reset();
+  }
+
+  @After
+  public void tearDown() {
+    verify();
+  }
+
+  @Test
+  public void testCurrentStatusIsTheFirstRow() {
+    expect(mockSession.prepare(StatusLookup.SELECT_CURRENT_STATUS)).andReturn(mockPrepared);
+    expect(mockPrepared.bind("doc1")).andReturn(mockBound1);
+    expect(mockSession.executeAsync(mockBound1)).andReturn(mockFuture1);
+    expect(mockFuture1.getUninterruptibly()).andReturn(mockResults1);
+    expect(mockResults1.one()).andReturn(mockRow1);
+    expect(mockRow1.getString("status")).andReturn("INDEXED");
+    replay();
+    assertEquals(Status.INDEXED, new StatusLookup(mockSession).currentStatus("doc1"));
+  }
+
+  @Test
+  public void testBatchSkipsUnloggedAndUnknownStatuses() {
+    expect(mockSession.prepare(StatusLookup.SELECT_CURRENT_STATUS)).andReturn(mockPrepared);
+    expect(mockPrepared.bind("doc1")).andReturn(mockBound1);
+    expect(mockPrepared.bind("doc2")).andReturn(mockBound2);
+    expect(mockPrepared.bind("doc3")).andReturn(mockBound3);
+    expect(mockSession.executeAsync(mockBound1)).andReturn(mockFuture1);
+    expect(mockSession.executeAsync(mockBound2)).andReturn(mockFuture2);
+    expect(mockSession.executeAsync(mockBound3)).andReturn(mockFuture3);
+    expect(mockFuture1.getUninterruptibly()).andReturn(mockResults1);
+    expect(mockFuture2.getUninterruptibly()).andReturn(mockResults2);
+    expect(mockFuture3.getUninterruptibly()).andReturn(mockResults3);
+    expect(mockResults1.one()).andReturn(mockRow1);
+    expect(mockResults2.one()).andReturn(null);
+    expect(mockResults3.one()).andReturn(mockRow3);
+    expect(mockRow1.getString("status")).andReturn("BATCHED");
+    expect(mockRow3.getString("status")).andReturn("NOT_A_STATUS");
+    replay();
+    Map<String, Status> statuses = new StatusLookup(mockSession).currentStatus(Arrays.asList("doc1", "doc2", "doc3"));
+    assertEquals(1, statuses.size());
+    assertEquals(Status.BATCHED, statuses.get("doc1"));
+    assertNull(statuses.get("doc2"));
+  }
+
+  @Test
+  public void testChangesInTheSameMillisecondAreOrderedNewestFirst() {
+    long now = System.currentTimeMillis();
+    JesterJAppender.LogRow processing = statusRow(Status.PROCESSING, 11, now);
+    JesterJAppender.LogRow indexed = statusRow(Status.INDEXED, 12, now);
+    assertEquals(processing.getTstamp(), indexed.getTstamp());
+
+    // the partition as cassandra returns it, in the clustering order of the table, which leaves only the
+    // sequence to tell the rows apart (the ids are random)
+    assertTrue(CassandraManager.CREATE_FT_TABLE.contains("CLUSTERING ORDER BY (tstamp DESC, seq DESC"));
+    List<JesterJAppender.LogRow> partition = new ArrayList<>(Arrays.asList(processing, indexed));
+    partition.sort(Comparator.comparing(JesterJAppender.LogRow::getTstamp)
+        .thenComparingLong(JesterJAppender.LogRow::getSequence).reversed());
+    assertSame(indexed, partition.get(0));
+
+    expect(mockSession.prepare(StatusLookup.SELECT_CURRENT_STATUS)).andReturn(mockPrepared);
+    expect(mockPrepared.bind("doc1")).andReturn(mockBound1);
+    expect(mockSession.executeAsync(mockBound1)).andReturn(mockFuture1);
+    expect(mockFuture1.getUninterruptibly()).andReturn(mockResults1);
+    expect(mockResults1.one()).andReturn(mockRow1);
+    expect(mockRow1.getString("status")).andReturn(partition.get(0).getStatus());
+    replay();
+    assertEquals(Status.INDEXED, new StatusLookup(mockSession).currentStatus("doc1"));
+  }
+
+  // the row the appender writes for a status change of doc1, as LogStatusWriter logs it
+  private static JesterJAppender.LogRow statusRow(Status status, long seq, long timeMillis) {
+    Map<String, String> context = new HashMap<>();
+    context.put(JesterJAppender.JJ_INGEST_DOCID, "doc1");
+    context.put(JesterJAppender.JJ_INGEST_SEQ, String.valueOf(seq));
+    return JesterJAppender.LogRow.of(new Log4jLogEvent("test", status.getMarker(), null, Level.INFO,
+        new SimpleMessage(status.name()), null, context, ThreadContext.EMPTY_STACK, "worker", null, timeMillis));
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model.impl;
+
+import org.jesterj.ingest.model.Status;
+import org.jesterj.ingest.model.StatusEvent;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncStatusReporterTest {
+
+  private final List<StatusEvent> written = Collections.synchronizedList(new ArrayList<>());
+  private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+  @Test
+  public void testStatusesAreWrittenInOrderInBatches() throws InterruptedException {
+    CountDownLatch release = new CountDownLatch(1);
+    AsyncStatusReporter reporter = new AsyncStatusReporter(batch -> {
+      await(release);
+      batchSizes.add(batch.size());
+      written.addAll(batch);
+    }, 64, 10);
+    reporter.start();
+
+    for (int i = 0; i < 25; i++) {
+      reporter.report("doc" + i, Status.PROCESSING, "{} finished processing {}", "step", "doc" + i);
+    }
+    assertFalse(reporter.flush(50)); // writer is held up
+    release.countDown();
+    assertTrue(reporter.flush(5000));
+
+    assertEquals(25, written.size());
+    for (int i = 0; i < 25; i++) {
+      StatusEvent event = written.get(i);
+      assertEquals("doc" + i, event.getDocId());
+      assertEquals("step finished processing doc" + i, event.getMessage());
+      assertEquals(Thread.currentThread().getName(), event.getThreadName());
+    }
+    for (int size : batchSizes) {
+      assertTrue(size <= 10);
+    }
+    assertNotEquals(25, batchSizes.size()); // events that waited were written together
+    reporter.stop();
+  }
+
+  @Test
+  public void testReportingWaitsWhenFull() throws InterruptedException {
+    CountDownLatch release = new CountDownLatch(1);
+    AsyncStatusReporter reporter = new AsyncStatusReporter(batch -> {
+      await(release);
+      written.addAll(batch);
+    }, 4, 4);
+    reporter.start();
+    Thread reporting = new Thread(() -> {
+      for (int i = 0; i < 20; i++) {
+        reporter.report("doc" + i, Status.INDEXED, "sent");
+      }
+    });
+    reporting.start();
+    reporting.join(200);
+    assertTrue(reporting.isAlive()); // queue and the batch being written are full
+    release.countDown();
+    reporting.join(5000);
+    assertTrue(reporter.flush(5000));
+    assertEquals(20, written.size());
+    reporter.stop();
+  }
+
+  @Test
+  public void testWriterFailureDoesNotStopWriting() throws InterruptedException {
+    AsyncStatusReporter reporter = new AsyncStatusReporter(batch -> {
+      if ("bad".equals(batch.get(0).getDocId())) {
+        throw new IllegalStateException("test failure");
+      }
+      written.addAll(batch);
+    }, 16, 1);
+    reporter.start();
+    reporter.report("bad", Status.ERROR, "boom");
+    reporter.report("good", Status.INDEXED, "fine");
+    assertTrue(reporter.flush(5000));
+    assertEquals(1, written.size());
+    assertEquals("good", written.get(0).getDocId());
+    reporter.stop();
+  }
+
+  @Test
+  public void testStopWritesEverythingAndEndsTheWriterThread() throws InterruptedException {
+    List<Thread> writerThreads = Collections.synchronizedList(new ArrayList<>());
+    AsyncStatusReporter reporter = new AsyncStatusReporter(batch -> {
+      writerThreads.add(Thread.currentThread());
+      written.addAll(batch);
+    }, 16, 4);
+    reporter.report("before", Status.PROCESSING, "not started");
+    reporter.start();
+    for (int i = 0; i < 10; i++) {
+      reporter.report("doc" + i, Status.INDEXED, "sent");
+    }
+    reporter.stop();
+    assertEquals(11, written.size());
+    Thread writer = writerThreads.get(1);
+    assertNotEquals(Thread.currentThread(), writer);
+    assertFalse(writer.isAlive());
+
+    reporter.report("after", Status.INDEXED, "stopped");
+    assertTrue(reporter.flush(0));
+    assertEquals("after", written.get(11).getDocId());
+    // written by the reporting thread when not started
+    assertEquals(Thread.currentThread(), writerThreads.get(0));
+    assertEquals(Thread.currentThread(), writerThreads.get(writerThreads.size() - 1));
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model.impl;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompactListMultimapTest {
+
+  private final CompactListMultimap compact = new CompactListMultimap(2);
+  private final ListMultimap<String, String> expected = ArrayListMultimap.create();
+
+  private void put(String key, String value) {
+    assertEquals(expected.put(key, value), compact.put(key, value));
+  }
+
+  private void check() {
+    assertEquals(expected, compact);
+    assertEquals(compact, expected);
+    assertEquals(expected.hashCode(), compact.hashCode());
+    assertEquals(expected.size(), compact.size());
+    assertEquals(expected.keySet(), compact.keySet());
+    assertEquals(expected.keys(), compact.keys());
+    for (String key : expected.keySet()) {
+      assertEquals(expected.get(key), compact.get(key));
+    }
+  }
+
+  @Test
+  public void testPutGetRemove() {
+    put("a", "1");
+    put("b", "2");
+    put("a", "3");
+    put("c", null);
+    check();
+    assertEquals(Arrays.asList("1", "3"), compact.get("a"));
+    assertTrue(compact.containsEntry("a", "3"));
+    assertTrue(compact.containsValue(null));
+    assertFalse(compact.containsKey("d"));
+    assertEquals(expected.remove("a", "1"), compact.remove("a", "1"));
+    check();
+    assertEquals(expected.removeAll("a"), compact.removeAll("a"));
+    check();
+    assertEquals(expected.replaceValues("b", Arrays.asList("x", "y")), compact.replaceValues("b", Arrays.asList("x", "y")));
+    check();
+    compact.clear();
+    expected.clear();
+    check();
+    assertTrue(compact.isEmpty());
+  }
+
+  @Test
+  public void testValuesForKeyIsALiveView() {
+    put("a", "1");
+    put("b", "2");
+    List<String> a = compact.get("a");
+    List<String> expectedA = expected.get("a");
+    a.add("3");
+    expectedA.add("3");
+    a.add(0, "0");
+    expectedA.add(0, "0");
+    check();
+    assertEquals("1", a.set(1, "one"));
+    expectedA.set(1, "one");
+    check();
+    a.remove("0");
+    expectedA.remove("0");
+    check();
+    List<String> missing = compact.get("z");
+    assertTrue(missing.isEmpty());
+    missing.add("26");
+    expected.put("z", "26");
+    check();
+    a.clear();
+    expectedA.clear();
+    check();
+    assertFalse(compact.containsKey("a"));
+  }
+
+  @Test
+  public void testReplaceWithOwnView() {
+    put("a", "1");
+    put("a", "2");
+    compact.replaceValues("a", compact.get("a"));
+    assertEquals(Arrays.asList("1", "2"), compact.get("a"));
+  }
+
+  @Test
+  public void testCollectionViews() {
+    put("a", "1");
+    put("b", "2");
+    put("a", "3");
+    Iterator<Map.Entry<String, String>> entries = compact.entries().iterator();
+    assertEquals("a", entries.next().getKey());
+    entries.next();
+    entries.remove(); // b=2
+    expected.remove("b", "2");
+    check();
+
+    Collection<String> values = compact.values();
+    assertEquals(Arrays.asList("1", "3"), Arrays.asList(values.toArray()));
+    values.remove("1");
+    expected.remove("a", "1");
+    check();
+
+    Map<String, Collection<String>> map = compact.asMap();
+    assertEquals(Collections.singletonList("3"), map.get("a"));
+    assertNull(map.get("b"));
+    put("c", "4");
+    assertEquals(expected.asMap(), map);
+    map.remove("a");
+    expected.removeAll("a");
+    check();
+
+    compact.keySet().remove("c");
+    expected.removeAll("c");
+    check();
+  }
+
+  @Test
+  public void testFieldNamesAreShared() {
+    CompactListMultimap other = new CompactListMultimap();
+    compact.put(new String("shared_name"), "1");
+    other.put(new String("shared_name"), "2");
+    assertTrue(compact.keySet().iterator().next() == other.keySet().iterator().next());
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model.impl;
+
+import org.jesterj.ingest.model.Content;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Reads a file the way a processor such as Tika does, through an 8k buffer, and reports the time taken and the
+ * heap allocated per read for each kind of content: the whole file read onto the heap and wrapped in a stream
+ * (what the file scanner used to do), a stream from the file, and a stream over a memory mapped view.
+ * Usage: <tt>ContentReadRunner [megabytes] [reads]</tt>
+ */
+public class ContentReadRunner {
+
+  public static void main(String[] args) throws IOException {
+    int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    int reads = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+    Path file = Files.createTempFile("content-read", ".bin");
+    try {
+      byte[] chunk = new byte[1024 * 1024];
+      new Random(42).nextBytes(chunk);
+      try (OutputStream out = Files.newOutputStream(file)) {
+        for (int i = 0; i < megabytes; i++) {
+          out.write(chunk);
+        }
+      }
+      long size = Files.size(file);
+      System.out.printf("java %s, %d MB file, %d reads each%n", System.getProperty("java.version"), megabytes, reads);
+      for (int round = 0; round < 2; round++) { // the first round warms up
+        boolean report = round == 1;
+        measure("heap copy", () -> new ByteArrayInputStream(Files.readAllBytes(file)), reads, report);
+        measure("file stream", new FileContent(file, size), reads, report);
+        measure("mapped", new MappedContent(file, size), reads, report);
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  private static void measure(String name, Content content, int reads, boolean report) throws IOException {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    byte[] buffer = new byte[8192];
+    long checksum = 0;
+    long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+    long start = System.nanoTime();
+    for (int i = 0; i < reads; i++) {
+      try (InputStream in = content.open()) {
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+          checksum += buffer[n - 1];
+        }
+      }
+    }
+    long nanos = System.nanoTime() - start;
+    long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+    if (report) {
+      System.out.printf("%-12s %8.1f ms/read %12.0f bytes allocated/read (checksum %d)%n",
+          name, nanos / 1e6 / reads, allocated / (double) reads, checksum);
+    }
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jesterj.ingest.model.impl;
+
+import org.jesterj.ingest.model.Content;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContentSpoolTest {
+
+  private Path dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("spool");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> left = Files.walk(dir)) {
+      for (Path path : left.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  private static byte[] bytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+
+  // each JVM spools into its own subdirectory
+  private int spoolFiles() throws IOException {
+    try (Stream<Path> files = Files.walk(dir)) {
+      return (int) files.filter(Files::isRegularFile)
+          .filter(path -> path.getFileName().toString().endsWith(".tmp")).count();
+    }
+  }
+
+  @Test
+  public void testSmallContentStaysInMemory() throws IOException {
+    byte[] data = bytes(100);
+    ContentSpool spool = new ContentSpool(100, dir.toFile());
+    spool.write(data, 0, 60);
+    spool.write(data, 60, 40);
+    assertFalse(spool.isSpilled());
+    Content content = spool.toContent();
+    spool.discard();
+    assertTrue(content instanceof ByteArrayContent);
+    assertArrayEquals(data, content.toBytes());
+    assertEquals(0, spoolFiles());
+  }
+
+  @Test
+  public void testLargeContentIsSpooledToFile() throws IOException {
+    byte[] data = bytes(10000);
+    ContentSpool spool = new ContentSpool(1000, dir.toFile());
+    for (int i = 0; i < data.length; i += 300) {
+      spool.write(data, i, Math.min(300, data.length - i));
+    }
+    assertTrue(spool.isSpilled());
+    assertEquals(10000, spool.getLength());
+    Content content = spool.toContent();
+    spool.discard();
+    assertTrue(content instanceof FileContent);
+    assertEquals(10000, content.length());
+    assertArrayEquals(data, content.toBytes());
+    assertArrayEquals(data, content.toBytes()); // may be read again
+    assertEquals(1, spoolFiles());
+  }
+
+  @Test
+  public void testDiscardDeletesUntakenFile() throws IOException {
+    ContentSpool spool = new ContentSpool(10, dir.toFile());
+    spool.write(bytes(100));
+    assertEquals(1, spoolFiles());
+    spool.discard();
+    assertEquals(0, spoolFiles());
+  }
+
+  @Test
+  public void testFileIsDeletedOnceContentIsUnreferenced() throws IOException, InterruptedException {
+    Content content = spill();
+    Path file = ((FileContent) content).getPath();
+    assertTrue(Files.exists(file));
+    assertEquals(100, content.toBytes().length);
+    //noinspection UnusedAssignment
+    content = null;
+    // collected content is cleaned up in the background
+    for (int i = 0; i < 50 && Files.exists(file); i++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+    assertFalse(Files.exists(file));
+  }
+
+  @Test
+  public void testOwnerCanDeleteItsFiles() throws IOException {
+    Object owner = new Object();
+    ContentSpool spool = new ContentSpool(10, dir.toFile(), owner);
+    spool.write(bytes(100));
+    Content owned = spool.toContent();
+    Content other = spill();
+    assertEquals(2, spoolFiles());
+    ContentSpool.deleteSpooled(owner);
+    assertFalse(Files.exists(((FileContent) owned).getPath()));
+    assertTrue(Files.exists(((FileContent) other).getPath()));
+  }
+
+  @Test
+  public void testFilesFromAnEarlierRunAreDeleted() throws IOException {
+    Path earlier = Files.createDirectory(dir.resolve("jj-content-earlier"));
+    Files.createFile(earlier.resolve("jj-content.lock"));
+    Path stale = Files.createFile(earlier.resolve("jj-content-1234.tmp"));
+    Files.setLastModifiedTime(stale, FileTime.fromMillis(0));
+    Path unrelated = Files.createFile(dir.resolve("jj-content-5678.tmp"));
+    Files.setLastModifiedTime(unrelated, FileTime.fromMillis(0));
+    Content content = spill();
+    assertFalse(Files.exists(earlier));
+    assertTrue(Files.exists(unrelated));
+    assertTrue(Files.exists(((FileContent) content).getPath()));
+  }
+
+  @Test
+  public void testFilesOfARunningJvmAreKept() throws IOException {
+    // Stands in for a JVM that started before this one and is still spooling to the same directory. The lock is
+    // held by this JVM, so the sweep finds it held through OverlappingFileLockException rather than through
+    // tryLock() returning null as it would for another process. Both mean the directory is in use.
+    Path running = Files.createDirectory(dir.resolve("jj-content-running"));
+    Path live = Files.createFile(running.resolve("jj-content-1234.tmp"));
+    Files.setLastModifiedTime(live, FileTime.fromMillis(0));
+    try (FileChannel channel = FileChannel.open(running.resolve("jj-content.lock"), StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.WRITE);
+         FileLock lock = channel.lock()) {
+      Content content = spill();
+      assertTrue(lock.isValid());
+      assertTrue(Files.exists(live));
+      Path ours = ((FileContent) content).getPath();
+      assertTrue(Files.exists(ours));
+      assertFalse(ours.getParent().equals(running));
+    }
+  }
+
+  private Content spill() throws IOException {
+    ContentSpool spool = new ContentSpool(10, dir.toFile());
+    try {
+      spool.write(bytes(100));
+      return spool.toContent();
+    } finally {
+      spool.discard();
+    }
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model.impl;
+
+import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.Plan;
+import org.jesterj.ingest.model.Status;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DocumentImplTest {
+
+  private static final Instant WHEN = Instant.parse("2016-03-20T12:34:56.789Z");
+
+  private final StepLatencyRunner.PushScanner scanner;
+  private final Plan plan;
+
+  public DocumentImplTest() {
+    StepLatencyRunner.PushScanner.Builder scannerBuilder = new StepLatencyRunner.PushScanner.Builder();
+    scannerBuilder.scanFreqMS(60000).named("scanner");
+    plan = new PlanImpl.Builder().named("typedPlan").addStep(null, scannerBuilder).withIdField("id").build();
+    scanner = (StepLatencyRunner.PushScanner) plan.findStep("scanner");
+  }
+
+  private void putTypedValues(Document doc) {
+    doc.putLong("size", 20678L);
+    doc.putDouble("score", 0.5);
+    doc.putInstant("modified", WHEN);
+    doc.putBoolean("hidden", true);
+    doc.putBytes("thumbnail", new byte[]{1, 2, 3});
+  }
+
+  private void checkTypedValues(Document doc) {
+    assertEquals(Long.valueOf(20678L), doc.getLong("size"));
+    assertEquals(Double.valueOf(0.5), doc.getDouble("score"));
+    assertEquals(WHEN, doc.getInstant("modified"));
+    assertEquals(Boolean.TRUE, doc.getBoolean("hidden"));
+    assertArrayEquals(new byte[]{1, 2, 3}, doc.getBytes("thumbnail"));
+
+    assertEquals("20678", doc.getFirstValue("size"));
+    assertEquals("0.5", doc.getFirstValue("score"));
+    assertEquals("2016-03-20T12:34:56.789Z", doc.getFirstValue("modified"));
+    assertEquals("true", doc.getFirstValue("hidden"));
+    assertEquals("AQID", doc.getFirstValue("thumbnail"));
+    assertTrue(doc.containsEntry("size", "20678"));
+    assertEquals("20678", doc.getDelegate().get("size").get(0));
+    assertEquals(Long.valueOf(3), doc.getLong(Document.FIELD_FILE_SIZE));
+  }
+
+  @Test
+  public void testTypedValues() {
+    DocumentImpl doc = new DocumentImpl(new byte[3], "1", plan, Document.Operation.NEW, scanner);
+    putTypedValues(doc);
+    checkTypedValues(doc);
+  }
+
+  @Test
+  public void testTypedValuesInCompactDocument() {
+    DocumentImpl doc = new CompactDocument(new byte[3], "1", plan, Document.Operation.NEW, scanner);
+    putTypedValues(doc);
+    checkTypedValues(doc);
+  }
+
+  @Test
+  public void testTypedValuesFromText() {
+    DocumentImpl doc = new CompactDocument(null, "1", plan, Document.Operation.NEW, scanner);
+    doc.put("size", " 1024 ");
+    doc.put("created", String.valueOf(WHEN.toEpochMilli()));
+    doc.put("modified", WHEN.toString());
+    doc.put("blank", "");
+    assertEquals(Long.valueOf(1024), doc.getLong("size"));
+    assertEquals(WHEN, doc.getInstant("created"));
+    assertEquals(WHEN, doc.getInstant("modified"));
+    assertEquals(Long.valueOf(WHEN.toEpochMilli()), doc.getLong("created"));
+    assertNull(doc.getLong("blank"));
+    assertNull(doc.getLong("missing"));
+  }
+
+  @Test
+  public void testTypedValuesAreTextToEveryView() {
+    DocumentImpl doc = new CompactDocument(null, "1", plan, Document.Operation.NEW, scanner);
+    doc.putLong("size", 7);
+    doc.putLong("size", 8);
+    assertEquals(Arrays.asList("7", "8"), doc.get("size"));
+    assertEquals(Collections.singletonList("7"), doc.removeAll("size").subList(0, 1));
+    doc.putLong("id", 42);
+    assertEquals("42", doc.getId());
+    assertEquals(1, doc.get("id").size());
+  }
+
+  @Test
+  public void testContentIsOnlyReadWhenNeeded() throws IOException {
+    AtomicInteger opened = new AtomicInteger();
+    DocumentImpl doc = scanner.newDocument(() -> {
+      opened.incrementAndGet();
+      return new ByteArrayInputStream(new byte[]{4, 5, 6});
+    }, "1", Document.Operation.NEW);
+    assertEquals(0, opened.get());
+    assertFalse(doc.containsKey(Document.FIELD_FILE_SIZE)); // length not known without reading
+    try (InputStream in = doc.getContent().open()) {
+      assertEquals(4, in.read());
+    }
+    assertArrayEquals(new byte[]{4, 5, 6}, doc.getRawData());
+    assertArrayEquals(new byte[]{4, 5, 6}, doc.getRawData());
+    assertEquals(2, opened.get());
+  }
+
+  @Test
+  public void testFileContent() throws IOException {
+    Path file = Files.createTempFile("content", ".txt");
+    try {
+      Files.write(file, "hello".getBytes(StandardCharsets.UTF_8));
+      DocumentImpl doc = scanner.newDocument(new FileContent(file), "1", Document.Operation.NEW);
+      assertEquals(Long.valueOf(5), doc.getLong(Document.FIELD_FILE_SIZE));
+      assertEquals("hello", new String(doc.getContent().toBytes(), StandardCharsets.UTF_8));
+      doc.setRawData("bye".getBytes(StandardCharsets.UTF_8));
+      assertEquals(3, doc.getContent().length());
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  private void checkForkIsolation(DocumentImpl doc) {
+    doc.put("title", "original");
+    doc.putLong("size", 7);
+    Document fork = doc.fork();
+    assertEquals(doc.getClass(), fork.getClass());
+    assertEquals(doc.getId(), fork.getId());
+    assertSame(doc.getContent(), fork.getContent());
+    assertEquals(Long.valueOf(7), fork.getLong("size"));
+
+    fork.put("title", "forked");
+    fork.get("size").clear();
+    doc.put("extra", "1");
+    assertEquals(Collections.singletonList("original"), doc.get("title"));
+    assertEquals(Arrays.asList("original", "forked"), fork.get("title"));
+    assertEquals(Long.valueOf(7), doc.getLong("size"));
+    assertNull(fork.getLong("size"));
+    assertFalse(fork.containsKey("extra"));
+
+    fork.setStatus(Status.DROPPED);
+    assertEquals(Status.PROCESSING, doc.getStatus());
+  }
+
+  private void checkForkReadsDoNotCopy(DocumentImpl doc) {
+    doc.putAll("title", Arrays.asList("a", "b", "a"));
+    DocumentImpl fork = (DocumentImpl) doc.fork();
+    for (DocumentImpl branch : Arrays.asList(doc, fork)) {
+      assertEquals(Arrays.asList("a", "b", "a"), branch.get("title"));
+      assertTrue(branch.keySet().contains("title"));
+      assertEquals(doc.size(), branch.entries().size());
+      assertTrue(branch.values().contains("b"));
+      assertEquals(3, branch.asMap().get("title").size());
+      assertEquals(3, branch.keys().count("title"));
+      for (String field : branch.keySet()) {
+        for (String ignored : branch.get(field)) {
+          assertTrue(branch.containsKey(field));
+        }
+      }
+      assertTrue(branch.isSharingFields());
+    }
+
+    // changes made through the views of shared fields are made in a copy, removing exactly what was returned
+    Iterator<Map.Entry<String, String>> entries = fork.entries().iterator();
+    while (entries.hasNext()) {
+      Map.Entry<String, String> entry = entries.next();
+      if ("title".equals(entry.getKey()) && "a".equals(entry.getValue())) {
+        entries.remove();
+      }
+    }
+    assertFalse(fork.isSharingFields());
+    assertEquals(Collections.singletonList("b"), fork.get("title"));
+    assertTrue(doc.isSharingFields());
+    assertEquals(Arrays.asList("a", "b", "a"), doc.get("title"));
+
+    Iterator<String> titles = doc.get("title").iterator();
+    titles.next();
+    titles.next();
+    titles.remove();
+    assertEquals(Arrays.asList("a", "a"), doc.get("title"));
+    assertFalse(doc.isSharingFields());
+  }
+
+  @Test
+  public void testReadingForkDoesNotCopyFields() {
+    checkForkReadsDoNotCopy(new DocumentImpl(new byte[3], "1", plan, Document.Operation.NEW, scanner));
+  }
+
+  @Test
+  public void testReadingCompactForkDoesNotCopyFields() {
+    checkForkReadsDoNotCopy(new CompactDocument(new byte[3], "1", plan, Document.Operation.NEW, scanner));
+  }
+
+  @Test
+  public void testFork() {
+    checkForkIsolation(new DocumentImpl(new byte[3], "1", plan, Document.Operation.NEW, scanner));
+  }
+
+  @Test
+  public void testForkCompactDocument() {
+    checkForkIsolation(new CompactDocument(new byte[3], "1", plan, Document.Operation.NEW, scanner));
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model.impl;
+
+import org.jesterj.ingest.model.DocumentIndex;
+import org.jesterj.ingest.model.Status;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * For tests of scanners that skip unchanged documents.
+ */
+public abstract class DocumentIndexTestBase {
+
+  /**
+   * A document index held in memory. Statuses are set directly rather than read from a status log, each one
+   * replacing the status of the entry as a later logged status would.
+   */
+  public static class MemoryDocumentIndex implements DocumentIndex {
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    @Override
+    public synchronized Entry get(String scanner, String docId) {
+      lookups.incrementAndGet();
+      return entries.get(scanner + "/" + docId);
+    }
+
+    @Override
+    public synchronized void put(String scanner, Entry entry) {
+      entries.put(scanner + "/" + entry.getDocId(), entry);
+    }
+
+    @Override
+    public synchronized void remove(String scanner, String docId) {
+      entries.remove(scanner + "/" + docId);
+    }
+
+    public synchronized void setStatus(String scanner, String docId, Status status) {
+      Entry entry = entries.get(scanner + "/" + docId);
+      entries.put(scanner + "/" + docId, new Entry(docId, entry.getHash(), entry.getModified(), status));
+    }
+
+    public int getLookups() {
+      return lookups.get();
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model.impl;
+
+import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.Plan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reports the heap used per document by {@link DocumentImpl} and {@link CompactDocument} when holding the kind of
+ * metadata Tika extracts from an office document: about 40 fields, most with one short value. Field names are
+ * created afresh for every document, as they are when parsed, and the extracted text is left out since it costs
+ * the same in both. Run with a fixed heap, e.g. <tt>-Xms2g -Xmx2g</tt>.
+ * Usage: <tt>DocumentMemoryRunner [documents]</tt>
+ */
+public class DocumentMemoryRunner {
+
+  private static final String SCANNER = "memory_scanner";
+
+  private static final String[][] TIKA_METADATA = {
+      {"Content-Type", "application/vnd.openxmlformats-officedocument.wordprocessingml.document"},
+      {"X-Parsed-By", "org.apache.tika.parser.DefaultParser"},
+      {"X-Parsed-By", "org.apache.tika.parser.microsoft.ooxml.OOXMLParser"},
+      {"Content-Length", "%d"},
+      {"resourceName", "report-%d.docx"},
+      {"title", "Quarterly report %d"},
+      {"dc:title", "Quarterly report %d"},
+      {"creator", "Jane Smith"},
+      {"dc:creator", "Jane Smith"},
+      {"meta:author", "Jane Smith"},
+      {"Author", "Jane Smith"},
+      {"Last-Author", "John Doe"},
+      {"meta:last-author", "John Doe"},
+      {"modifier", "John Doe"},
+      {"cp:revision", "%d"},
+      {"Revision-Number", "%d"},
+      {"Creation-Date", "2016-03-2%dT10:15:00Z"},
+      {"dcterms:created", "2016-03-2%dT10:15:00Z"},
+      {"meta:creation-date", "2016-03-2%dT10:15:00Z"},
+      {"created", "2016-03-2%dT10:15:00Z"},
+      {"Last-Modified", "2016-04-0%dT08:00:00Z"},
+      {"dcterms:modified", "2016-04-0%dT08:00:00Z"},
+      {"modified", "2016-04-0%dT08:00:00Z"},
+      {"Last-Save-Date", "2016-04-0%dT08:00:00Z"},
+      {"meta:save-date", "2016-04-0%dT08:00:00Z"},
+      {"date", "2016-04-0%dT08:00:00Z"},
+      {"Application-Name", "Microsoft Office Word"},
+      {"extended-properties:Application", "Microsoft Office Word"},
+      {"Application-Version", "15.0000"},
+      {"extended-properties:AppVersion", "15.0000"},
+      {"Template", "Normal.dotm"},
+      {"extended-properties:Template", "Normal.dotm"},
+      {"Total-Time", "%d"},
+      {"extended-properties:TotalTime", "%d"},
+      {"Page-Count", "%d"},
+      {"meta:page-count", "%d"},
+      {"xmpTPg:NPages", "%d"},
+      {"Word-Count", "%d"},
+      {"meta:word-count", "%d"},
+      {"Character Count", "%d"},
+      {"meta:character-count", "%d"},
+      {"Company", "Needham Software"},
+      {"extended-properties:Company", "Needham Software"},
+      {"publisher", "Needham Software"},
+      {"dc:publisher", "Needham Software"},
+  };
+
+  public static void main(String[] args) {
+    int docCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+    StepLatencyRunner.PushScanner.Builder scannerBuilder = new StepLatencyRunner.PushScanner.Builder();
+    scannerBuilder.scanFreqMS(60000).named(SCANNER);
+    Plan plan = new PlanImpl.Builder().named("memoryPlan").addStep(null, scannerBuilder).withIdField("id").build();
+    StepLatencyRunner.PushScanner scanner = (StepLatencyRunner.PushScanner) plan.findStep(SCANNER);
+
+    System.out.printf("java %s, %d documents with %d metadata fields%n",
+        System.getProperty("java.version"), docCount, TIKA_METADATA.length);
+    // once each to load classes and fill the field name pool before measuring
+    measure(plan, scanner, 1000, false);
+    measure(plan, scanner, 1000, true);
+    double map = measure(plan, scanner, docCount, false);
+    double compact = measure(plan, scanner, docCount, true);
+    System.out.printf("DocumentImpl:    %8.0f bytes/document%n", map);
+    System.out.printf("CompactDocument: %8.0f bytes/document (%.0f%% less)%n", compact, 100 * (1 - compact / map));
+    System.exit(0); // scanner scheduling threads are not daemons
+  }
+
+  private static double measure(Plan plan, StepLatencyRunner.PushScanner scanner, int count, boolean compact) {
+    List<Document> docs = new ArrayList<>(count);
+    long before = usedHeap();
+    for (int i = 0; i < count; i++) {
+      String id = "file:///data/reports/report-" + i + ".docx";
+      DocumentImpl doc = compact ?
+          new CompactDocument(null, id, plan, Document.Operation.NEW, scanner) :
+          new DocumentImpl(null, id, plan, Document.Operation.NEW, scanner);
+      for (String[] field : TIKA_METADATA) {
+        doc.put(new String(field[0]), String.format(field[1], i % 10));
+      }
+      docs.add(doc);
+    }
+    long after = usedHeap();
+    if (docs.size() != count) {
+      throw new IllegalStateException(); // keep the documents reachable until measured
+    }
+    return (after - before) / (double) count;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
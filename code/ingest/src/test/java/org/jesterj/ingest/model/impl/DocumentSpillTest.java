@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jesterj.ingest.model.impl;
+
+import org.jesterj.ingest.model.Content;
+import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.Plan;
+import org.jesterj.ingest.model.Scanner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DocumentSpillTest {
+
+  private static final Instant WHEN = Instant.parse("2016-03-20T12:34:56.789Z");
+
+  private final Plan plan;
+  private final Scanner scanner;
+  private Path dir;
+
+  public DocumentSpillTest() {
+    StepLatencyRunner.PushScanner.Builder scannerBuilder = new StepLatencyRunner.PushScanner.Builder();
+    scannerBuilder.scanFreqMS(60000).named("scanner");
+    plan = new PlanImpl.Builder().named("spillPlan").addStep(null, scannerBuilder).withIdField("id").build();
+    scanner = (Scanner) plan.findStep("scanner");
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("jj-spill");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    File[] left = dir.toFile().listFiles();
+    if (left != null) {
+      for (File file : left) {
+        Files.delete(file.toPath());
+      }
+    }
+    Files.delete(dir);
+  }
+
+  private Document roundTrip(Document doc) throws IOException {
+    DocumentSpill spill = new DocumentSpill(dir.toFile());
+    spill.write(doc);
+    Document read = spill.read(plan);
+    assertTrue(spill.isEmpty());
+    return read;
+  }
+
+  private static void assertSameEntries(DocumentImpl expected, DocumentImpl actual) {
+    List<Map.Entry<String, Object>> expectedEntries = expected.typedEntries();
+    List<Map.Entry<String, Object>> actualEntries = actual.typedEntries();
+    assertEquals(expectedEntries.size(), actualEntries.size());
+    for (int i = 0; i < expectedEntries.size(); i++) {
+      Object value = expectedEntries.get(i).getValue();
+      assertEquals(expectedEntries.get(i).getKey(), actualEntries.get(i).getKey());
+      if (value instanceof byte[]) {
+        assertArrayEquals((byte[]) value, (byte[]) actualEntries.get(i).getValue());
+      } else {
+        assertEquals(value, actualEntries.get(i).getValue());
+      }
+    }
+  }
+
+  @Test
+  public void testCompactDocumentKeepsTypedValues() throws IOException {
+    DocumentImpl doc = new CompactDocument("abc".getBytes(StandardCharsets.UTF_8), "1", plan,
+        Document.Operation.UPDATE, scanner);
+    doc.put("title", "spilled");
+    doc.putLong("size", 20678L);
+    doc.putDouble("score", 0.5);
+    doc.putInstant("modified", WHEN);
+    doc.putBoolean("hidden", true);
+    doc.putBytes("thumbnail", new byte[]{1, 2, 3});
+
+    DocumentImpl read = (DocumentImpl) roundTrip(doc);
+    assertTrue(read instanceof CompactDocument);
+    assertEquals(Document.Operation.UPDATE, read.getOperation());
+    assertEquals("1", read.getId());
+    assertSameEntries(doc, read);
+    assertTrue(read.typedEntries().get(3).getValue() instanceof Long);
+    assertArrayEquals("abc".getBytes(StandardCharsets.UTF_8), read.getContent().toBytes());
+  }
+
+  @Test
+  public void testPlainDocument() throws IOException {
+    DocumentImpl doc = new DocumentImpl(null, "2", plan, Document.Operation.DELETE, scanner);
+    doc.put("title", "plain");
+    doc.putLong("size", 7);
+
+    DocumentImpl read = (DocumentImpl) roundTrip(doc);
+    assertEquals(DocumentImpl.class, read.getClass());
+    assertEquals(Document.Operation.DELETE, read.getOperation());
+    assertSameEntries(doc, read);
+    assertNull(read.getContent());
+  }
+
+  @Test
+  public void testFileContentIsNotCopied() throws IOException {
+    Path file = Files.createTempFile("content", ".txt");
+    try {
+      Files.write(file, "hello".getBytes(StandardCharsets.UTF_8));
+      DocumentImpl doc = new DocumentImpl(null, "3", plan, Document.Operation.NEW, scanner);
+      doc.setContent(new FileContent(file));
+
+      Document read = roundTrip(doc);
+      assertTrue(read.getContent() instanceof FileContent);
+      assertEquals(file, ((FileContent) read.getContent()).getPath());
+      assertTrue(doc.getContent() instanceof FileContent); // not read into memory to spill it
+      assertEquals("hello", new String(read.getContent().toBytes(), StandardCharsets.UTF_8));
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void testLargeContentIsSpooled() throws IOException {
+    byte[] large = new byte[3 * 1024 * 1024];
+    new Random(3).nextBytes(large);
+    AtomicInteger opened = new AtomicInteger();
+    DocumentImpl doc = new DocumentImpl(null, "4", plan, Document.Operation.NEW, scanner);
+    doc.setContent(new Content() {
+      @Override
+      public InputStream open() {
+        opened.incrementAndGet();
+        return new ByteArrayInputStream(large);
+      }
+
+      @Override
+      public long length() {
+        return large.length;
+      }
+    });
+
+    Document read = roundTrip(doc);
+    assertEquals(1, opened.get());
+    assertTrue(read.getContent() instanceof ContentSpool.SpooledContent);
+    assertArrayEquals(large, read.getContent().toBytes());
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model.impl;
+
+import com.sun.net.httpserver.HttpServer;
+import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.DocumentProcessor;
+import org.jesterj.ingest.model.Plan;
+import org.jesterj.ingest.model.Status;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Compares the throughput of an I/O bound step using a fixed pool of platform threads against the same step
+ * processing each document on its own (virtual, where available) thread. The step sends every document to a
+ * local stub HTTP server that answers after a fixed delay.
+ * Usage: <tt>IoStepThroughputRunner [documents] [platformThreads] [maxInFlight] [serverDelayMs]</tt>
+ */
+public class IoStepThroughputRunner {
+
+  private static final String SCANNER = "io_scanner";
+  private static final String SENDER = "http_sender";
+  private static final String SINK = "sink";
+
+  public static void main(String[] args) throws Exception {
+    int docCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    int platformThreads = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+    int maxInFlight = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+    int delayMs = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+    ScheduledExecutorService responder = Executors.newScheduledThreadPool(4);
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 4096);
+    server.createContext("/", exchange -> responder.schedule(() -> {
+      try {
+        byte[] body = "ok".getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }, delayMs, TimeUnit.MILLISECONDS));
+    server.start();
+    String url = "http://localhost:" + server.getAddress().getPort() + "/";
+    System.out.printf("java %s, %d documents, server delay %d ms%n",
+        System.getProperty("java.version"), docCount, delayMs);
+
+    double platform = run("platform threads x" + platformThreads, docCount, url,
+        builder -> builder.concurrency(platformThreads));
+    double perDocument = run("per-document threads, " + maxInFlight + " in flight", docCount, url,
+        builder -> builder.virtualThreads(maxInFlight));
+    System.out.printf("speedup: %.1fx%n", perDocument / platform);
+
+    server.stop(0);
+    System.exit(0); // scanner scheduling threads are not daemons
+  }
+
+  private static double run(String label, int docCount, String url,
+                            Function<StepImpl.Builder, StepImpl.Builder> mode) throws InterruptedException {
+    CountDownLatch finished = new CountDownLatch(docCount);
+
+    PlanImpl.Builder planBuilder = new PlanImpl.Builder();
+    StepLatencyRunner.PushScanner.Builder scannerBuilder = new StepLatencyRunner.PushScanner.Builder();
+    scannerBuilder.scanFreqMS(60000).named(SCANNER);
+    StepImpl.Builder senderBuilder = new StepImpl.Builder();
+    mode.apply(senderBuilder.named(SENDER).batchSize(100)).withProcessor(processor(document -> {
+      try {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url + document.getId()).openConnection();
+        try (InputStream in = conn.getInputStream()) {
+          //noinspection StatementWithEmptyBody
+          while (in.read() != -1) {
+          }
+        }
+      } catch (IOException e) {
+        document.setStatus(Status.ERROR, e.getMessage());
+        finished.countDown();
+      }
+    }));
+    StepImpl.Builder sinkBuilder = new StepImpl.Builder();
+    sinkBuilder.named(SINK).batchSize(100).withProcessor(processor(document -> finished.countDown()));
+
+    Plan plan = planBuilder
+        .named("ioPlan")
+        .addStep(null, scannerBuilder)
+        .addStep(new String[]{SCANNER}, senderBuilder)
+        .addStep(new String[]{SENDER}, sinkBuilder)
+        .withIdField("id")
+        .build();
+    StepLatencyRunner.PushScanner scanner = (StepLatencyRunner.PushScanner) plan.findStep(SCANNER);
+    plan.activate();
+
+    long start = System.nanoTime();
+    for (int i = 0; i < docCount; i++) {
+      scanner.docFound(new DocumentImpl(null, "doc" + i, plan, Document.Operation.NEW, scanner));
+    }
+    finished.await();
+    double seconds = (System.nanoTime() - start) / 1e9;
+    plan.deactivate();
+
+    double docsPerSecond = docCount / seconds;
+    System.out.printf("%-40s %8.0f docs/s (%.2f s)%n", label, docsPerSecond, seconds);
+    return docsPerSecond;
+  }
+
+  private static NamedBuilder<DocumentProcessor> processor(Consumer<Document> action) {
+    return new NamedBuilder<DocumentProcessor>() {
+      @Override
+      public NamedBuilder<DocumentProcessor> named(String name) {
+        return this;
+      }
+
+      @Override
+      public DocumentProcessor build() {
+        return new DocumentProcessor() {
+          @Override
+          public String getName() {
+            return "io_runner_processor";
+          }
+
+          @Override
+          public Document[] processDocument(Document document) {
+            action.accept(document);
+            return new Document[]{document};
+          }
+        };
+      }
+    };
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MappedContentTest {
+
+  private Path file;
+  private byte[] bytes;
+
+  @Before
+  public void setUp() throws IOException {
+    bytes = new byte[10000];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) i;
+    }
+    file = Files.createTempFile("mapped", ".bin");
+    Files.write(file, bytes);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  @Test
+  public void testStreamsReadTheFile() throws IOException {
+    MappedContent content = new MappedContent(file, bytes.length);
+    assertEquals(bytes.length, content.length());
+    assertArrayEquals(bytes, content.toBytes());
+    try (InputStream first = content.open(); InputStream second = content.open()) {
+      assertEquals(0, first.read());
+      assertEquals(1, first.read());
+      assertEquals(0, second.read()); // independent positions
+      assertEquals(100, first.skip(100));
+      assertEquals(102, first.read());
+      first.mark(0);
+      byte[] buf = new byte[20000];
+      assertEquals(bytes.length - 103, first.read(buf, 0, buf.length));
+      assertEquals(-1, first.read());
+      first.reset();
+      assertEquals(103 & 0xFF, first.read());
+    }
+  }
+
+  @Test
+  public void testBufferIsReadOnlyView() throws IOException {
+    MappedContent content = new MappedContent(file, bytes.length);
+    ByteBuffer buffer = content.toByteBuffer();
+    assertTrue(buffer.isReadOnly());
+    assertTrue(buffer.isDirect());
+    assertEquals(bytes.length, buffer.remaining());
+    buffer.position(500);
+    assertEquals(bytes.length, content.toByteBuffer().remaining());
+    assertFalse(new ByteArrayContent(bytes).toByteBuffer().isDirect());
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model.impl;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.DocumentProcessor;
+import org.jesterj.ingest.model.Plan;
+import org.jesterj.ingest.processors.CopyField;
+import org.jesterj.ingest.processors.SimpleDateTimeReformatter;
+import org.jesterj.ingest.processors.TikaProcessor;
+import org.jesterj.ingest.routers.DuplicateToAll;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs the plan from the example in {@link org.jesterj.ingest.Main} with and without step fusion. The scanner is
+ * replaced by one the runner pushes documents into and the Solr sender by a step that counts documents.
+ * Logging is turned down to warnings for the duration so that per hop status logging does not swamp the
+ * difference. Usage: <tt>PlanFusionRunner [documents] [rounds] [tika]</tt>, pass <tt>false</tt> for tika to
+ * leave out the (comparatively expensive) Tika step.
+ */
+public class PlanFusionRunner {
+
+  private static final String SCANNER = "push_scanner";
+  private static final String CREATED = "format_created";
+  private static final String MODIFIED = "format_modified";
+  private static final String ACCESSED = "format_accessed";
+  private static final String SIZE_TO_INT = "size_to_int_step";
+  private static final String TIKA = "tika_step";
+  private static final byte[] CONTENT = ("To be, or not to be, that is the question: Whether 'tis nobler in the mind " +
+      "to suffer the slings and arrows of outrageous fortune").getBytes(StandardCharsets.UTF_8);
+
+  public static void main(String[] args) throws InterruptedException {
+    int docCount = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    boolean tika = args.length <= 2 || Boolean.parseBoolean(args[2]);
+    LoggerContext logging = (LoggerContext) LogManager.getContext(false);
+    logging.getConfiguration().getLoggerConfig("org.jesterj").setLevel(Level.WARN);
+    logging.updateLoggers();
+
+    System.out.printf("java %s, %d documents, %s tika, %d cores%n", System.getProperty("java.version"), docCount,
+        tika ? "with" : "without", Runtime.getRuntime().availableProcessors());
+    double bestUnfused = 0;
+    double bestFused = 0;
+    for (int r = 0; r < rounds; r++) {
+      double unfused = run("unfused" + r, docCount, tika, false);
+      double fused = run("fused" + r, docCount, tika, true);
+      System.out.printf("round %d: unfused %8.0f docs/s, fused %8.0f docs/s%n", r, unfused, fused);
+      if (r > 0 || rounds == 1) { // first round is warm up
+        bestUnfused = Math.max(bestUnfused, unfused);
+        bestFused = Math.max(bestFused, fused);
+      }
+    }
+    System.out.printf("best: unfused %8.0f docs/s, fused %8.0f docs/s (%.2fx)%n",
+        bestUnfused, bestFused, bestFused / bestUnfused);
+    System.exit(0); // scanner scheduling threads are not daemons
+  }
+
+  private static double run(String planName, int docCount, boolean tika, boolean fuse) throws InterruptedException {
+    CountDownLatch finished = new CountDownLatch(docCount);
+    StepLatencyRunner.PushScanner.Builder scanner = new StepLatencyRunner.PushScanner.Builder();
+    scanner.scanFreqMS(60000).named(SCANNER);
+    StepImpl.Builder formatCreated = new StepImpl.Builder();
+    StepImpl.Builder formatModified = new StepImpl.Builder();
+    StepImpl.Builder formatAccessed = new StepImpl.Builder();
+    StepImpl.Builder renameFileszieToInteger = new StepImpl.Builder();
+    StepImpl.Builder tikaBuilder = new StepImpl.Builder();
+    StepImpl.Builder sinkBuilder = new StepImpl.Builder();
+
+    formatCreated.named(CREATED).withProcessor(
+        new SimpleDateTimeReformatter.Builder().named("format_created").from("created").into("created_dt"));
+    formatModified.named(MODIFIED).withProcessor(
+        new SimpleDateTimeReformatter.Builder().named("format_modified").from("modified").into("modified_dt"));
+    formatAccessed.named(ACCESSED).withProcessor(
+        new SimpleDateTimeReformatter.Builder().named("format_accessed").from("accessed").into("accessed_dt"));
+    renameFileszieToInteger.named(SIZE_TO_INT).withProcessor(
+        new CopyField.Builder().named("copy_size_to_int").from("file_size").into("file_size_i"));
+    tikaBuilder.named(TIKA).concurrency(4)
+        .routingBy(new DuplicateToAll.Builder().named("duplicator"))
+        .withProcessor(new TikaProcessor.Builder().named("tika"));
+    sinkBuilder.named("sink").withProcessor(counting(finished));
+
+    PlanImpl.Builder planBuilder = new PlanImpl.Builder()
+        .named(planName)
+        .addStep(null, scanner)
+        .addStep(new String[]{SCANNER}, formatCreated)
+        .addStep(new String[]{CREATED}, formatModified)
+        .addStep(new String[]{MODIFIED}, formatAccessed)
+        .addStep(new String[]{ACCESSED}, renameFileszieToInteger);
+    if (tika) {
+      planBuilder
+          .addStep(new String[]{SIZE_TO_INT}, tikaBuilder)
+          .addStep(new String[]{TIKA}, sinkBuilder);
+    } else {
+      planBuilder.addStep(new String[]{SIZE_TO_INT}, sinkBuilder);
+    }
+    if (fuse) {
+      planBuilder.fusingLinearSteps();
+    }
+    Plan plan = planBuilder.withIdField("id").build();
+    StepLatencyRunner.PushScanner push = (StepLatencyRunner.PushScanner) plan.findStep(SCANNER);
+    plan.activate();
+
+    long now = System.currentTimeMillis();
+    long start = System.nanoTime();
+    for (int i = 0; i < docCount; i++) {
+      DocumentImpl doc = new DocumentImpl(CONTENT, "doc" + i, plan, Document.Operation.NEW, push);
+      doc.put("created", String.valueOf(now - i));
+      doc.put("modified", String.valueOf(now));
+      doc.put("accessed", String.valueOf(now));
+      push.docFound(doc);
+    }
+    finished.await();
+    double seconds = (System.nanoTime() - start) / 1e9;
+    plan.deactivate();
+    return docCount / seconds;
+  }
+
+  private static NamedBuilder<DocumentProcessor> counting(CountDownLatch finished) {
+    return new NamedBuilder<DocumentProcessor>() {
+      @Override
+      public NamedBuilder<DocumentProcessor> named(String name) {
+        return this;
+      }
+
+      @Override
+      public DocumentProcessor build() {
+        return new DocumentProcessor() {
+          @Override
+          public String getName() {
+            return "counter";
+          }
+
+          @Override
+          public Document[] processDocument(Document document) {
+            finished.countDown();
+            return new Document[0];
+          }
+        };
+      }
+    };
+  }
+}
@@ -25,15 +25,27 @@ import org.apache.logging.log4j.Level;
 import org.jesterj.ingest.model.Document;
 import org.jesterj.ingest.model.Plan;
 import org.jesterj.ingest.model.Scanner;
+import org.jesterj.ingest.model.Status;
 import org.jesterj.ingest.model.Step;
 import org.jesterj.ingest.processors.LogAndDrop;
+import org.jesterj.ingest.routers.DuplicateToAll;
+import org.jesterj.ingest.routers.RouteByStepName;
 import org.jesterj.ingest.scanners.SimpleFileWatchScanner;
 import org.junit.Test;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class PlanImplTest {
 
@@ -70,4 +82,183 @@ public class PlanImplTest {
 
   }
 
+  @Test
+  public void testFusingLinearSteps() {
+    PlanImpl.Builder planBuilder = new PlanImpl.Builder();
+    SimpleFileWatchScanner.Builder scannerBuilder = new SimpleFileWatchScanner.Builder();
+    scannerBuilder.withRoot(new File("/Users/gus/foo/bar")).named(SCAN_FOO_BAR).batchSize(10);
+
+    // scanner -> a -> b -> c -> d,e with f (4 threads) after d
+    planBuilder
+        .named("testFusingLinearSteps")
+        .addStep(null, scannerBuilder)
+        .addStep(new String[]{SCAN_FOO_BAR}, dropStep("a"))
+        .addStep(new String[]{"a"}, dropStep("b"))
+        .addStep(new String[]{"b"}, dropStep("c"))
+        .addStep(new String[]{"c"}, dropStep("d"))
+        .addStep(new String[]{"c"}, dropStep("e"))
+        .addStep(new String[]{"d"}, dropStep("f").concurrency(4))
+        .withIdField("id")
+        .fusingLinearSteps();
+    Plan plan = planBuilder.build();
+
+    assertFalse(((StepImpl) plan.findStep("a")).isFused()); // never fused with a scanner
+    assertTrue(((StepImpl) plan.findStep("b")).isFused());
+    assertTrue(((StepImpl) plan.findStep("c")).isFused());
+    assertFalse(((StepImpl) plan.findStep("d")).isFused()); // c forks
+    assertFalse(((StepImpl) plan.findStep("e")).isFused());
+    assertFalse(((StepImpl) plan.findStep("f")).isFused()); // would lose its threads
+  }
+
+  @Test
+  public void testFusedStepWaitsForActivation() throws Exception {
+    PlanImpl.Builder planBuilder = new PlanImpl.Builder();
+    SimpleFileWatchScanner.Builder scannerBuilder = new SimpleFileWatchScanner.Builder();
+    scannerBuilder.withRoot(new File("/Users/gus/foo/bar")).named(SCAN_FOO_BAR).batchSize(10);
+    planBuilder
+        .named("testFusedStepWaitsForActivation")
+        .addStep(null, scannerBuilder)
+        .addStep(new String[]{SCAN_FOO_BAR}, dropStep("a"))
+        .addStep(new String[]{"a"}, dropStep("b"))
+        .withIdField("id")
+        .fusingLinearSteps();
+    Plan plan = planBuilder.build();
+    StepImpl b = (StepImpl) plan.findStep("b");
+    assertTrue(b.isFused());
+    Document doc = new DocumentImpl(null, "doc", plan, Document.Operation.NEW, (Scanner) plan.findStep(SCAN_FOO_BAR));
+
+    Thread predecessor = new Thread(() -> b.enqueue(doc));
+    predecessor.start();
+    predecessor.join(200);
+    assertTrue(predecessor.isAlive());
+    assertEquals(Status.PROCESSING, doc.getStatus());
+
+    b.activate();
+    try {
+      predecessor.join(10000);
+      assertFalse(predecessor.isAlive());
+      assertEquals(Status.DROPPED, doc.getStatus());
+    } finally {
+      b.deactivate();
+    }
+  }
+
+  @Test
+  public void testNoFusionByDefault() {
+    PlanImpl.Builder planBuilder = new PlanImpl.Builder();
+    SimpleFileWatchScanner.Builder scannerBuilder = new SimpleFileWatchScanner.Builder();
+    scannerBuilder.withRoot(new File("/Users/gus/foo/bar")).named(SCAN_FOO_BAR).batchSize(10);
+    planBuilder
+        .named("testNoFusionByDefault")
+        .addStep(null, scannerBuilder)
+        .addStep(new String[]{SCAN_FOO_BAR}, dropStep("a"))
+        .addStep(new String[]{"a"}, dropStep("b"))
+        .withIdField("id");
+    Plan plan = planBuilder.build();
+
+    assertFalse(((StepImpl) plan.findStep("b")).isFused());
+  }
+
+  @Test
+  public void testRoutingReusesSuccessorArrays() {
+    PlanImpl.Builder planBuilder = new PlanImpl.Builder();
+    SimpleFileWatchScanner.Builder scannerBuilder = new SimpleFileWatchScanner.Builder();
+    scannerBuilder.withRoot(new File("/Users/gus/foo/bar")).named(SCAN_FOO_BAR).batchSize(10);
+    StepImpl.Builder fork = dropStep("fork");
+    fork.routingBy(new DuplicateToAll.Builder().named("duplicator"));
+    StepImpl.Builder byName = dropStep("byName");
+    planBuilder
+        .named("testRoutingReusesSuccessorArrays")
+        .addStep(null, scannerBuilder)
+        .addStep(new String[]{SCAN_FOO_BAR}, fork)
+        .addStep(new String[]{"fork"}, dropStep("b"))
+        .addStep(new String[]{"fork"}, byName)
+        .addStep(new String[]{"byName"}, dropStep("d"))
+        .addStep(new String[]{"byName"}, dropStep("e"))
+        .withIdField("id");
+    Plan plan = planBuilder.build();
+    Scanner scanner = (Scanner) plan.findStep(SCAN_FOO_BAR);
+    Document doc1 = new DocumentImpl(null, "doc1", plan, Document.Operation.NEW, scanner);
+    Document doc2 = new DocumentImpl(null, "doc2", plan, Document.Operation.NEW, scanner);
+
+    Step[] single = scanner.getNext(doc1);
+    assertSame(single, scanner.getNext(doc2));
+    assertEquals("fork", single[0].getName());
+
+    Step forkStep = plan.findStep("fork");
+    Step[] all = forkStep.getNext(doc1);
+    assertSame(all, forkStep.getNext(doc2));
+    assertEquals(2, all.length);
+
+    Step byNameStep = plan.findStep("byName");
+    doc1.put(RouteByStepName.JESTERJ_NEXT_STEP_NAME, "e");
+    doc2.put(RouteByStepName.JESTERJ_NEXT_STEP_NAME, "e");
+    Step[] routed = byNameStep.getNext(doc1);
+    assertEquals("e", routed[0].getName());
+    assertSame(routed, byNameStep.getNext(doc2));
+    doc2.replaceValues(RouteByStepName.JESTERJ_NEXT_STEP_NAME, Collections.singletonList("nowhere"));
+    assertNull(byNameStep.getNext(doc2));
+  }
+
+  @Test
+  public void testDuplicateToAllForksDocuments() {
+    PlanImpl.Builder planBuilder = new PlanImpl.Builder();
+    SimpleFileWatchScanner.Builder scannerBuilder = new SimpleFileWatchScanner.Builder();
+    scannerBuilder.withRoot(new File("/Users/gus/foo/bar")).named(SCAN_FOO_BAR).batchSize(10);
+    StepImpl.Builder fork = dropStep("fork");
+    fork.routingBy(new DuplicateToAll.Builder().named("duplicator"));
+    planBuilder
+        .named("testDuplicateToAllForksDocuments")
+        .addStep(null, scannerBuilder)
+        .addStep(new String[]{SCAN_FOO_BAR}, fork)
+        .addStep(new String[]{"fork"}, dropStep("b"))
+        .addStep(new String[]{"fork"}, dropStep("c"))
+        .withIdField("id");
+    Plan plan = planBuilder.build();
+    Scanner scanner = (Scanner) plan.findStep(SCAN_FOO_BAR);
+    Document doc = new DocumentImpl(null, "doc", plan, Document.Operation.NEW, scanner);
+    doc.put("title", "shared");
+
+    // the plan is not active, so the documents wait in the queues of b and c
+    plan.findStep("fork").sendToNext(doc);
+    Document toB = plan.findStep("b").poll();
+    Document toC = plan.findStep("c").poll();
+    assertNotSame(toB, toC);
+    assertSame(doc, toC);
+
+    toB.put("branch", "b");
+    toC.get("title").set(0, "changed");
+    assertEquals(Collections.singletonList("shared"), toB.get("title"));
+    assertEquals(Collections.singletonList("changed"), toC.get("title"));
+    assertFalse(toC.containsKey("branch"));
+    assertEquals("doc", toB.getId());
+  }
+
+  @Test
+  public void testStatusIsReportedToThePlansReporter() {
+    List<String> reported = new ArrayList<>();
+    PlanImpl.Builder planBuilder = new PlanImpl.Builder();
+    SimpleFileWatchScanner.Builder scannerBuilder = new SimpleFileWatchScanner.Builder();
+    scannerBuilder.withRoot(new File("/Users/gus/foo/bar")).named(SCAN_FOO_BAR).batchSize(10);
+    planBuilder
+        .named("testStatusIsReportedToThePlansReporter")
+        .addStep(null, scannerBuilder)
+        .addStep(new String[]{SCAN_FOO_BAR}, dropStep("a"))
+        .withIdField("id")
+        .reportingStatusTo((docId, status, message, params) -> reported.add(docId + " " + status));
+    Plan plan = planBuilder.build();
+    Scanner scanner = (Scanner) plan.findStep(SCAN_FOO_BAR);
+    Document doc = new DocumentImpl(null, "doc", plan, Document.Operation.NEW, scanner);
+
+    plan.findStep("a").sendToNext(doc);
+    doc.setStatus(Status.ERROR, "broken");
+    assertEquals(Arrays.asList("doc PROCESSING", "doc DROPPED", "doc ERROR"), reported);
+  }
+
+  private StepImpl.Builder dropStep(String name) {
+    StepImpl.Builder builder = new StepImpl.Builder();
+    builder.named(name).batchSize(10).withProcessor(new LogAndDrop.Builder().withLogLevel(Level.ERROR));
+    return builder;
+  }
+
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jesterj.ingest.model.impl;
+
+import org.apache.logging.log4j.Level;
+import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.Plan;
+import org.jesterj.ingest.model.Status;
+import org.jesterj.ingest.model.Step;
+import org.jesterj.ingest.processors.LogAndDrop;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ScannerImplTest extends DocumentIndexTestBase {
+
+  private static final String SCANNER = "scanner";
+
+  private final MemoryDocumentIndex index = new MemoryDocumentIndex();
+  private StepLatencyRunner.PushScanner scanner;
+  private Plan plan;
+  private Step next;
+
+  public ScannerImplTest() {
+    StepLatencyRunner.PushScanner.Builder scannerBuilder = new StepLatencyRunner.PushScanner.Builder();
+    scannerBuilder.scanFreqMS(60000).named(SCANNER);
+    scannerBuilder.trackingDocumentsIn(index);
+    buildPlan(scannerBuilder);
+  }
+
+  private void buildPlan(StepLatencyRunner.PushScanner.Builder scannerBuilder) {
+    StepImpl.Builder nextBuilder = new StepImpl.Builder();
+    nextBuilder.named("next").batchSize(10).withProcessor(new LogAndDrop.Builder().withLogLevel(Level.ERROR));
+    // the plan is never activated, so documents sent by the scanner wait in the queue of the next step
+    plan = new PlanImpl.Builder()
+        .named("trackingPlan")
+        .addStep(null, scannerBuilder)
+        .addStep(new String[]{SCANNER}, nextBuilder)
+        .withIdField("id")
+        .build();
+    scanner = (StepLatencyRunner.PushScanner) plan.findStep(SCANNER);
+    next = plan.findStep("next");
+  }
+
+  private Document scan(String id, String title, Document.Operation operation) {
+    DocumentImpl doc = new DocumentImpl(title.getBytes(), id, plan, operation, scanner);
+    doc.put("title", title);
+    scanner.docFound(doc);
+    return next.poll();
+  }
+
+  @Test
+  public void testUnchangedDocumentsAreSkippedOnceFinished() {
+    assertNotNull(scan("1", "hamlet", Document.Operation.NEW));
+    // no status has been reported yet, so it may not have finished
+    assertNotNull(scan("1", "hamlet", Document.Operation.NEW));
+    index.setStatus(SCANNER, "1", Status.PROCESSING);
+    assertNotNull(scan("1", "hamlet", Document.Operation.NEW));
+
+    index.setStatus(SCANNER, "1", Status.INDEXED);
+    assertNull(scan("1", "hamlet", Document.Operation.NEW));
+    index.setStatus(SCANNER, "1", Status.ERROR);
+    assertNull(scan("1", "hamlet", Document.Operation.NEW));
+    index.setStatus(SCANNER, "1", Status.DIRTY);
+    assertNotNull(scan("1", "hamlet", Document.Operation.NEW));
+  }
+
+  @Test
+  public void testChangedDocumentsAreSent() {
+    assertNotNull(scan("1", "hamlet", Document.Operation.NEW));
+    index.setStatus(SCANNER, "1", Status.SEARCHABLE);
+    assertNotNull(scan("1", "macbeth", Document.Operation.UPDATE));
+    index.setStatus(SCANNER, "1", Status.SEARCHABLE);
+    assertNull(scan("1", "macbeth", Document.Operation.UPDATE));
+    assertNotNull(scan("2", "macbeth", Document.Operation.NEW));
+  }
+
+  @Test
+  public void testChangeIsSentAgainIfItsStatusWasLost() {
+    assertNotNull(scan("1", "hamlet", Document.Operation.NEW));
+    index.setStatus(SCANNER, "1", Status.INDEXED);
+    assertNotNull(scan("1", "macbeth", Document.Operation.UPDATE));
+    // as if the JVM stopped before any status was written for macbeth, the index must not pass off
+    // hamlet's status as macbeth's
+    assertEquals(Status.DIRTY, index.get(SCANNER, "1").getStatus());
+    assertNotNull(scan("1", "macbeth", Document.Operation.UPDATE));
+  }
+
+  @Test
+  public void testDeletedDocumentsAreForgotten() {
+    assertNotNull(scan("1", "hamlet", Document.Operation.NEW));
+    index.setStatus(SCANNER, "1", Status.INDEXED);
+    assertNotNull(scan("1", "hamlet", Document.Operation.DELETE));
+    assertNull(index.get(SCANNER, "1"));
+    assertNotNull(scan("1", "hamlet", Document.Operation.NEW));
+  }
+
+  @Test
+  public void testSeenFilterAvoidsLookingUpNewDocuments() throws IOException {
+    Path dir = Files.createTempDirectory("seen");
+    File file = new File(dir.toFile(), "scanner.bloom");
+    try {
+      StepLatencyRunner.PushScanner.Builder scannerBuilder = new StepLatencyRunner.PushScanner.Builder();
+      scannerBuilder.scanFreqMS(60000).named(SCANNER);
+      scannerBuilder.trackingDocumentsIn(index).filteringSeenDocuments(file, 1000);
+      buildPlan(scannerBuilder);
+
+      // nothing saved yet, so the filter can't be trusted
+      assertNotNull(scan("1", "hamlet", Document.Operation.NEW));
+      assertEquals(1, index.getLookups());
+      scanner.saveSeenFilter();
+      assertTrue(file.exists());
+
+      // as if restarted
+      scannerBuilder.scanFreqMS(60000).named(SCANNER);
+      scannerBuilder.trackingDocumentsIn(index).filteringSeenDocuments(file, 1000);
+      buildPlan(scannerBuilder);
+      for (int i = 2; i < 100; i++) {
+        assertNotNull(scan(String.valueOf(i), "hamlet", Document.Operation.NEW));
+      }
+      assertTrue(index.getLookups() < 5); // only false positives are looked up
+      index.setStatus(SCANNER, "1", Status.INDEXED);
+      int lookups = index.getLookups();
+      assertNull(scan("1", "hamlet", Document.Operation.NEW));
+      assertEquals(lookups + 1, index.getLookups());
+      scanner.saveSeenFilter();
+    } finally {
+      Files.deleteIfExists(file.toPath());
+      Files.delete(dir);
+    }
+  }
+
+  @Test
+  public void testNoIndexSendsEverything() {
+    StepLatencyRunner.PushScanner.Builder scannerBuilder = new StepLatencyRunner.PushScanner.Builder();
+    scannerBuilder.scanFreqMS(60000).named(SCANNER);
+    buildPlan(scannerBuilder);
+    assertNull(scanner.getDocumentIndex());
+
+    assertNotNull(scan("1", "hamlet", Document.Operation.NEW));
+    assertNotNull(scan("1", "hamlet", Document.Operation.NEW));
+    assertEquals(0, index.getLookups());
+  }
+}
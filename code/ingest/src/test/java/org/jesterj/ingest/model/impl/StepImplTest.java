@@ -23,14 +23,41 @@ package org.jesterj.ingest.model.impl;
 
 import com.copyright.easiertest.Mock;
 import com.copyright.easiertest.ObjectUnderTest;
+import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.DocumentProcessor;
+import org.jesterj.ingest.model.Plan;
+import org.jesterj.ingest.model.Scanner;
+import org.jesterj.ingest.model.Status;
+import org.jesterj.ingest.model.Step;
+import org.jesterj.ingest.scanners.SimpleFileWatchScanner;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
 import static com.copyright.easiertest.EasierMocks.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class StepImplTest {
 
+  private static final String SCANNER = "scanner";
+  private static final int TIMEOUT_SECONDS = 5;
+
   @Before
   public void setUp() {
   }
@@ -46,4 +73,297 @@ public class StepImplTest {
     StepImpl built = builder.build();
   }
 
+  @Test
+  public void testBuildWithConcurrency() {
+    StepImpl.Builder builder = new StepImpl.Builder();
+    builder.batchSize(5).concurrency(3);
+    StepImpl built = builder.build();
+    assertEquals(3, built.getConcurrency());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConcurrencyMustBePositive() {
+    new StepImpl.Builder().concurrency(0);
+  }
+
+  @Test
+  public void testBuildWithRingBuffer() {
+    StepImpl.Builder builder = new StepImpl.Builder();
+    builder.queueCapacity(5).usingRingBuffer();
+    StepImpl built = builder.build();
+    assertEquals(8, built.remainingCapacity());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testRingBufferRequiresSingleWorker() {
+    new StepImpl.Builder().usingRingBuffer().concurrency(2).build();
+  }
+
+  @Test
+  public void testBuildWithVirtualThreads() {
+    StepImpl.Builder builder = new StepImpl.Builder();
+    builder.batchSize(5).virtualThreads(100);
+    StepImpl built = builder.build();
+    assertEquals(100, built.getMaxInFlight());
+  }
+
+  @Test
+  public void testRejectWhenFull() {
+    Plan plan = scannerOnlyPlan();
+    StepImpl.Builder builder = new StepImpl.Builder();
+    builder.named("reject").queueCapacity(1).rejectingWhenFull();
+    StepImpl step = builder.build();
+    Document first = newDoc(plan, "first");
+    Document second = newDoc(plan, "second");
+
+    step.enqueue(first);
+    step.enqueue(second);
+
+    assertEquals(1, step.size());
+    assertEquals(Status.PROCESSING, first.getStatus());
+    assertEquals(Status.ERROR, second.getStatus());
+  }
+
+  @Test
+  public void testSpillWhenFull() throws Exception {
+    Plan plan = scannerOnlyPlan();
+    File dir = Files.createTempDirectory("jj-spill").toFile();
+    StepImpl.Builder builder = new StepImpl.Builder();
+    builder.named("spill").queueCapacity(1).spillingWhenFull(dir);
+    StepImpl step = builder.build();
+    step.setPlan(plan);
+    Document second = newDoc(plan, "second");
+    second.put("foo", "bar");
+
+    step.enqueue(newDoc(plan, "first"));
+    step.enqueue(second);
+    step.enqueue(newDoc(plan, "third"));
+    assertEquals(1, step.size());
+    assertEquals(2, new File(dir, "spill").list().length);
+
+    assertEquals("first", step.poll().getId());
+    step.enqueue(newDoc(plan, "fourth"));
+    Document unspilled = step.poll();
+    assertEquals("second", unspilled.getId());
+    assertEquals("bar", unspilled.getFirstValue("foo"));
+    assertTrue(unspilled != second);
+    assertEquals(2, new File(dir, "spill").list().length);
+  }
+
+  @Test
+  public void testSpillDrainsWhenQueueIsSmallerThanBatch() throws Exception {
+    File dir = Files.createTempDirectory("jj-spill").toFile();
+    SimpleFileWatchScanner.Builder scanner = new SimpleFileWatchScanner.Builder().named(SCANNER);
+    StepImpl.Builder spilling = new StepImpl.Builder();
+    spilling.named("spill").batchSize(5).queueCapacity(2).spillingWhenFull(dir);
+    StepImpl.Builder sink = new StepImpl.Builder();
+    sink.named("sink").queueCapacity(100);
+    Plan plan = new PlanImpl.Builder().named("plan").addStep(null, scanner)
+        .addStep(new String[]{SCANNER}, spilling).addStep(new String[]{"spill"}, sink).withIdField("id").build();
+    StepImpl step = (StepImpl) plan.findStep("spill");
+    Step next = plan.findStep("sink");
+
+    // more than two batches wait on disk before the worker starts
+    for (int i = 0; i < 12; i++) {
+      step.enqueue(newDoc(plan, "doc" + i));
+    }
+    assertEquals(10, new File(dir, "spill").list().length);
+    step.activate();
+    try {
+      List<String> ids = ids(take(next, 12));
+      List<String> expected = new ArrayList<>();
+      for (int i = 0; i < 12; i++) {
+        expected.add("doc" + i);
+      }
+      assertEquals(expected, ids);
+      assertEquals(0, new File(dir, "spill").list().length);
+    } finally {
+      step.deactivate();
+    }
+  }
+
+  @Test
+  public void testFailingDocumentDoesNotLoseItsBatch() throws Exception {
+    checkFailureIsolated(false);
+  }
+
+  @Test
+  public void testBatchProcessorReportsFailingDocument() throws Exception {
+    checkFailureIsolated(true);
+  }
+
+  private void checkFailureIsolated(boolean batching) throws Exception {
+    BlockingQueue<String> errors = new LinkedBlockingQueue<>();
+    SimpleFileWatchScanner.Builder scanner = new SimpleFileWatchScanner.Builder().named(SCANNER);
+    StepImpl.Builder failing = new StepImpl.Builder();
+    failing.named("failing").batchSize(5).queueCapacity(10).withProcessor(failOn("bad", batching));
+    StepImpl.Builder sink = new StepImpl.Builder();
+    sink.named("sink").queueCapacity(10);
+    Plan plan = new PlanImpl.Builder().named("plan").addStep(null, scanner)
+        .addStep(new String[]{SCANNER}, failing).addStep(new String[]{"failing"}, sink).withIdField("id")
+        .reportingStatusTo((docId, status, message, params) -> {
+          if (status == Status.ERROR) {
+            errors.add(docId);
+          }
+        }).build();
+    StepImpl step = (StepImpl) plan.findStep("failing");
+    Step next = plan.findStep("sink");
+    for (String id : new String[]{"a", "b", "bad", "c", "d"}) {
+      step.enqueue(newDoc(plan, id));
+    }
+    step.activate();
+    try {
+      assertEquals(Arrays.asList("a", "b", "c", "d"), ids(take(next, 4)));
+      // a document the step does not send on is reported again as terminated, so only which failed is checked
+      assertEquals(Collections.singleton("bad"), new HashSet<>(errors));
+    } finally {
+      step.deactivate();
+    }
+  }
+
+  @Test
+  public void testFailingBatchDoesNotProcessDocumentsTwice() throws Exception {
+    BlockingQueue<String> errors = new LinkedBlockingQueue<>();
+    Map<String, Integer> processed = new ConcurrentHashMap<>();
+    SimpleFileWatchScanner.Builder scanner = new SimpleFileWatchScanner.Builder().named(SCANNER);
+    StepImpl.Builder failing = new StepImpl.Builder();
+    failing.named("failing").batchSize(5).queueCapacity(10).withProcessor(inPlaceFailingOn("bad", processed));
+    StepImpl.Builder sink = new StepImpl.Builder();
+    sink.named("sink").queueCapacity(10);
+    Plan plan = new PlanImpl.Builder().named("plan").addStep(null, scanner)
+        .addStep(new String[]{SCANNER}, failing).addStep(new String[]{"failing"}, sink).withIdField("id")
+        .reportingStatusTo((docId, status, message, params) -> {
+          if (status == Status.ERROR) {
+            errors.add(docId);
+          }
+        }).build();
+    StepImpl step = (StepImpl) plan.findStep("failing");
+    Step next = plan.findStep("sink");
+    for (String id : new String[]{"a", "b", "bad", "c", "d"}) {
+      step.enqueue(newDoc(plan, id));
+    }
+    step.activate();
+    try {
+      // a batch that throws has failed as a whole, and may have changed any of its documents, so all of them
+      // are reported and none are processed again
+      assertEquals(Arrays.asList("a", "b", "bad", "c", "d"), take(errors, 5));
+      assertEquals(Integer.valueOf(1), processed.get("a"));
+      assertEquals(Integer.valueOf(1), processed.get("b"));
+      assertNull(processed.get("c"));
+      assertNull(processed.get("d"));
+      assertTrue(next.isEmpty());
+    } finally {
+      step.deactivate();
+    }
+  }
+
+  // changes each document in place, and throws out of the whole batch when it meets the bad one
+  private static NamedBuilder<DocumentProcessor> inPlaceFailingOn(String badId, Map<String, Integer> processed) {
+    return new NamedBuilder<DocumentProcessor>() {
+      @Override
+      public NamedBuilder<DocumentProcessor> named(String name) {
+        return this;
+      }
+
+      @Override
+      public DocumentProcessor build() {
+        return new Failing(badId) {
+          @Override
+          public Document[] processDocument(Document document) {
+            super.processDocument(document);
+            processed.merge(document.getId(), 1, Integer::sum);
+            return new Document[]{document};
+          }
+
+          @Override
+          public List<Document> processBatch(List<Document> documents) {
+            for (Document document : documents) {
+              processDocument(document);
+            }
+            return documents;
+          }
+        };
+      }
+    };
+  }
+
+  private static NamedBuilder<DocumentProcessor> failOn(String badId, boolean batching) {
+    return new NamedBuilder<DocumentProcessor>() {
+      @Override
+      public NamedBuilder<DocumentProcessor> named(String name) {
+        return this;
+      }
+
+      @Override
+      public DocumentProcessor build() {
+        if (!batching) {
+          return new Failing(badId);
+        }
+        // reports the documents it cannot process, as batch processors must
+        return new Failing(badId) {
+          @Override
+          public List<Document> processBatch(List<Document> documents) {
+            for (Document document : documents) {
+              try {
+                processDocument(document);
+              } catch (IllegalStateException e) {
+                document.setStatus(Status.ERROR, e.getMessage());
+              }
+            }
+            return documents;
+          }
+        };
+      }
+    };
+  }
+
+  private static class Failing implements DocumentProcessor {
+    private final String badId;
+
+    Failing(String badId) {
+      this.badId = badId;
+    }
+
+    @Override
+    public String getName() {
+      return "failing_processor";
+    }
+
+    @Override
+    public Document[] processDocument(Document document) {
+      if (badId.equals(document.getId())) {
+        throw new IllegalStateException("cannot process " + badId);
+      }
+      return new Document[]{document};
+    }
+  }
+
+  // Blocks until the items arrive, so that a passing test takes no longer than the work, and a failing one
+  // fails rather than hanging.
+  private static <T> List<T> take(BlockingQueue<T> queue, int count) throws InterruptedException {
+    List<T> taken = new ArrayList<>(count);
+    while (taken.size() < count) {
+      T item = queue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      assertNotNull("Timed out after receiving " + taken.size() + " of " + count, item);
+      taken.add(item);
+    }
+    return taken;
+  }
+
+  private static List<String> ids(List<Document> documents) {
+    List<String> ids = new ArrayList<>(documents.size());
+    for (Document document : documents) {
+      ids.add(document.getId());
+    }
+    return ids;
+  }
+
+  private Plan scannerOnlyPlan() {
+    SimpleFileWatchScanner.Builder scanner = new SimpleFileWatchScanner.Builder().named(SCANNER);
+    return new PlanImpl.Builder().named("plan").addStep(null, scanner).withIdField("id").build();
+  }
+
+  private Document newDoc(Plan plan, String id) {
+    return new DocumentImpl(null, id, plan, Document.Operation.NEW, (Scanner) plan.findStep(SCANNER));
+  }
 }
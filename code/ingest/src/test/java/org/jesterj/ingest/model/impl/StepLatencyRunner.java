@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.model.impl;
+
+import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.DocumentProcessor;
+import org.jesterj.ingest.model.Plan;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Pushes single documents through a linear multi-step plan one at a time and reports the latency of each
+ * hop from one step's processor to the next. Usage: <tt>StepLatencyRunner [steps] [documents] [fuse]</tt>, where
+ * fuse is true to build the plan with {@link PlanImpl.Builder#fusingLinearSteps()}.
+ */
+public class StepLatencyRunner {
+
+  private static final String STAMP = "__latency_stamp__";
+  private static final String SCANNER = "latency_scanner";
+
+  public static void main(String[] args) throws InterruptedException {
+    int stepCount = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    int docCount = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    boolean fuse = args.length > 2 && Boolean.parseBoolean(args[2]);
+    int warmup = docCount / 10;
+
+    long[] hops = new long[docCount * stepCount];
+    AtomicInteger hopCount = new AtomicInteger();
+    Semaphore finished = new Semaphore(0);
+
+    PlanImpl.Builder planBuilder = new PlanImpl.Builder();
+    PushScanner.Builder scannerBuilder = new PushScanner.Builder();
+    scannerBuilder.scanFreqMS(60000).named(SCANNER);
+    planBuilder.named("latencyPlan").addStep(null, scannerBuilder).withIdField("id");
+
+    String previous = SCANNER;
+    for (int i = 0; i < stepCount; i++) {
+      boolean last = i == stepCount - 1;
+      String stepName = "step_" + i;
+      StepImpl.Builder stepBuilder = new StepImpl.Builder();
+      stepBuilder.named(stepName).batchSize(10).withProcessor(new NamedBuilder<DocumentProcessor>() {
+        @Override
+        public NamedBuilder<DocumentProcessor> named(String name) {
+          return this;
+        }
+
+        @Override
+        public DocumentProcessor build() {
+          return new DocumentProcessor() {
+            @Override
+            public String getName() {
+              return stepName + "_timer";
+            }
+
+            @Override
+            public Document[] processDocument(Document document) {
+              long arrived = System.nanoTime();
+              hops[hopCount.getAndIncrement()] = arrived - Long.parseLong(document.getFirstValue(STAMP));
+              document.replaceValues(STAMP, Collections.singletonList(String.valueOf(System.nanoTime())));
+              if (last) {
+                finished.release();
+              }
+              return new Document[]{document};
+            }
+          };
+        }
+      });
+      planBuilder.addStep(new String[]{previous}, stepBuilder);
+      previous = stepName;
+    }
+
+    if (fuse) {
+      planBuilder.fusingLinearSteps();
+    }
+    Plan plan = planBuilder.build();
+    PushScanner scanner = (PushScanner) plan.findStep(SCANNER);
+    plan.activate();
+
+    for (int i = 0; i < docCount; i++) {
+      DocumentImpl doc = new DocumentImpl(null, "doc" + i, plan, Document.Operation.NEW, scanner);
+      doc.put(STAMP, String.valueOf(System.nanoTime()));
+      scanner.docFound(doc);
+      if (!finished.tryAcquire(30, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("document " + i + " did not finish");
+      }
+    }
+    plan.deactivate();
+
+    long[] measured = Arrays.copyOfRange(hops, warmup * stepCount, hopCount.get());
+    Arrays.sort(measured);
+    System.out.printf("%d %ssteps, %d documents (%d warmup), %d hops measured%n",
+        stepCount, fuse ? "fused " : "", docCount, warmup, measured.length);
+    System.out.printf("hop latency p50: %8.1f us%n", percentile(measured, 0.50) / 1000.0);
+    System.out.printf("hop latency p99: %8.1f us%n", percentile(measured, 0.99) / 1000.0);
+    System.out.printf("hop latency max: %8.1f us%n", measured[measured.length - 1] / 1000.0);
+    System.exit(0); // scanner scheduling threads are not daemons
+  }
+
+  private static long percentile(long[] sorted, double pct) {
+    return sorted[(int) Math.min(sorted.length - 1, Math.round(pct * (sorted.length - 1)))];
+  }
+
+  /**
+   * A scanner that never scans, documents are handed to it directly by the runner.
+   */
+  public static class PushScanner extends ScannerImpl {
+
+    @Override
+    public Function<String, String> getIdFunction() {
+      return s -> s;
+    }
+
+    @Override
+    public Consumer<Document> getDocumentTracker() {
+      return document -> {
+      };
+    }
+
+    @Override
+    public Runnable getScanOperation() {
+      return () -> {
+      };
+    }
+
+    public static class Builder extends ScannerImpl.Builder {
+      private PushScanner obj = new PushScanner();
+
+      @Override
+      protected PushScanner getObject() {
+        return obj;
+      }
+
+      @Override
+      public ScannerImpl build() {
+        PushScanner tmp = obj;
+        this.obj = new PushScanner();
+        return tmp;
+      }
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.processors;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.DocumentProcessor;
+import org.jesterj.ingest.model.Plan;
+import org.jesterj.ingest.model.impl.DocumentImpl;
+import org.jesterj.ingest.model.impl.NamedBuilder;
+import org.jesterj.ingest.model.impl.PlanImpl;
+import org.jesterj.ingest.model.impl.StepImpl;
+import org.jesterj.ingest.model.impl.StepLatencyRunner;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Pushes a million small documents through a plan made of the field transform steps from the example plan, once
+ * with steps taking one document at a time and once with them handing batches to
+ * {@link DocumentProcessor#processBatch(List)}. Both runs use the same queue capacity. Logging is turned down to
+ * warnings for the duration so that per hop status logging does not swamp the difference.
+ * Usage: <tt>FieldTransformThroughputRunner [documents] [batchSize] [rounds]</tt>
+ */
+public class FieldTransformThroughputRunner {
+
+  private static final String SCANNER = "transform_scanner";
+  private static final int QUEUE_CAPACITY = 1000;
+
+  public static void main(String[] args) throws InterruptedException {
+    int docCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+    LoggerContext logging = (LoggerContext) LogManager.getContext(false);
+    logging.getConfiguration().getLoggerConfig("org.jesterj").setLevel(Level.WARN);
+    logging.updateLoggers();
+
+    System.out.printf("java %s, %d documents, batches of %d%n", System.getProperty("java.version"), docCount, batchSize);
+    double bestSingle = 0;
+    double bestBatch = 0;
+    for (int r = 0; r < rounds; r++) {
+      double single = run("single" + r, docCount, 1);
+      double batch = run("batch" + r, docCount, batchSize);
+      System.out.printf("round %d: one at a time %8.0f docs/s, batched %8.0f docs/s%n", r, single, batch);
+      if (r > 0 || rounds == 1) { // first round is warm up
+        bestSingle = Math.max(bestSingle, single);
+        bestBatch = Math.max(bestBatch, batch);
+      }
+    }
+    System.out.printf("best: one at a time %8.0f docs/s, batched %8.0f docs/s (%.2fx)%n",
+        bestSingle, bestBatch, bestBatch / bestSingle);
+    System.exit(0); // scanner scheduling threads are not daemons
+  }
+
+  private static double run(String planName, int docCount, int batchSize) throws InterruptedException {
+    CountDownLatch finished = new CountDownLatch(docCount);
+    StepLatencyRunner.PushScanner.Builder scannerBuilder = new StepLatencyRunner.PushScanner.Builder();
+    scannerBuilder.scanFreqMS(60000).named(SCANNER);
+    Plan plan = new PlanImpl.Builder()
+        .named(planName)
+        .addStep(null, scannerBuilder)
+        .addStep(new String[]{SCANNER}, step("copy_title", batchSize,
+            new CopyField.Builder().from("title").into("title_s")))
+        .addStep(new String[]{"copy_title"}, step("format_created", batchSize,
+            new SimpleDateTimeReformatter.Builder().from("created").into("created_dt")))
+        .addStep(new String[]{"format_created"}, step("format_modified", batchSize,
+            new SimpleDateTimeReformatter.Builder().from("modified").into("modified_dt")))
+        .addStep(new String[]{"format_modified"}, step("sink", batchSize, counting(finished)))
+        .withIdField("id")
+        .build();
+    StepLatencyRunner.PushScanner scanner = (StepLatencyRunner.PushScanner) plan.findStep(SCANNER);
+    plan.activate();
+
+    long now = System.currentTimeMillis();
+    long start = System.nanoTime();
+    for (int i = 0; i < docCount; i++) {
+      DocumentImpl doc = new DocumentImpl(null, "doc" + i, plan, Document.Operation.NEW, scanner);
+      doc.put("title", "title " + i);
+      doc.put("created", String.valueOf(now - i));
+      doc.put("modified", String.valueOf(now));
+      scanner.docFound(doc);
+    }
+    finished.await();
+    double seconds = (System.nanoTime() - start) / 1e9;
+    plan.deactivate();
+    return docCount / seconds;
+  }
+
+  private static StepImpl.Builder step(String name, int batchSize, NamedBuilder<? extends DocumentProcessor> processor) {
+    StepImpl.Builder builder = new StepImpl.Builder();
+    builder.named(name).batchSize(batchSize).queueCapacity(QUEUE_CAPACITY).withProcessor(processor.named(name));
+    return builder;
+  }
+
+  private static NamedBuilder<DocumentProcessor> counting(CountDownLatch finished) {
+    return new NamedBuilder<DocumentProcessor>() {
+      @Override
+      public NamedBuilder<DocumentProcessor> named(String name) {
+        return this;
+      }
+
+      @Override
+      public DocumentProcessor build() {
+        return new DocumentProcessor() {
+          @Override
+          public String getName() {
+            return "counter";
+          }
+
+          @Override
+          public Document[] processDocument(Document document) {
+            finished.countDown();
+            return new Document[0];
+          }
+
+          @Override
+          public List<Document> processBatch(List<Document> documents) {
+            for (int i = 0; i < documents.size(); i++) {
+              finished.countDown();
+            }
+            return Collections.emptyList();
+          }
+        };
+      }
+    };
+  }
+}
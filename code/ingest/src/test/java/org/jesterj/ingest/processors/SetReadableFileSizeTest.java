@@ -74,7 +74,7 @@ public class SetReadableFileSizeTest {
     expect(obj.getNumericField()).andReturn(FIELD_DISPLAY_FILE_SIZE_NUM).anyTimes();
     expect(obj.getUnitsField()).andReturn(FIELD_DISPLAY_FILE_SIZE_UNITS).anyTimes();
 
-    expect(mockDocument.getFirstValue(FIELD_FILE_SIZE)).andReturn("1024");
+    expect(mockDocument.getLong(FIELD_FILE_SIZE)).andReturn(1024L);
     expect(mockDocument.put(FIELD_DISPLAY_FILE_SIZE, "1 KB")).andReturn(true);
     expect(mockDocument.put(FIELD_DISPLAY_FILE_SIZE_NUM, "1")).andReturn(true);
     expect(mockDocument.put(FIELD_DISPLAY_FILE_SIZE_UNITS, "KB")).andReturn(true);
@@ -94,7 +94,7 @@ public class SetReadableFileSizeTest {
     expect(obj.getNumericField()).andReturn(null).anyTimes();
     expect(obj.getUnitsField()).andReturn(null).anyTimes();
 
-    expect(mockDocument.getFirstValue(FIELD_FILE_SIZE)).andReturn("1024");
+    expect(mockDocument.getLong(FIELD_FILE_SIZE)).andReturn(1024L);
 
     replay();
     obj.processDocument(mockDocument);
@@ -110,7 +110,7 @@ public class SetReadableFileSizeTest {
     expect(obj.getNumericField()).andReturn(FIELD_DISPLAY_FILE_SIZE_NUM).anyTimes();
     expect(obj.getUnitsField()).andReturn(FIELD_DISPLAY_FILE_SIZE_UNITS).anyTimes();
 
-    expect(mockDocument.getFirstValue(FIELD_FILE_SIZE)).andReturn("10");
+    expect(mockDocument.getLong(FIELD_FILE_SIZE)).andReturn(10L);
     expect(mockDocument.put(FIELD_DISPLAY_FILE_SIZE, "10 bytes")).andReturn(true);
     expect(mockDocument.put(FIELD_DISPLAY_FILE_SIZE_NUM, "10")).andReturn(true);
     expect(mockDocument.put(FIELD_DISPLAY_FILE_SIZE_UNITS, "bytes")).andReturn(true);
@@ -129,7 +129,7 @@ public class SetReadableFileSizeTest {
     expect(obj.getNumericField()).andReturn(FIELD_DISPLAY_FILE_SIZE_NUM).anyTimes();
     expect(obj.getUnitsField()).andReturn(FIELD_DISPLAY_FILE_SIZE_UNITS).anyTimes();
 
-    expect(mockDocument.getFirstValue(FIELD_FILE_SIZE)).andReturn("20678");
+    expect(mockDocument.getLong(FIELD_FILE_SIZE)).andReturn(20678L);
     expect(mockDocument.put(FIELD_DISPLAY_FILE_SIZE, "20 KB")).andReturn(true);
     expect(mockDocument.put(FIELD_DISPLAY_FILE_SIZE_NUM, "20")).andReturn(true);
     expect(mockDocument.put(FIELD_DISPLAY_FILE_SIZE_UNITS, "KB")).andReturn(true);
@@ -148,7 +148,7 @@ public class SetReadableFileSizeTest {
     expect(obj.getNumericField()).andReturn(FIELD_DISPLAY_FILE_SIZE_NUM).anyTimes();
     expect(obj.getUnitsField()).andReturn(FIELD_DISPLAY_FILE_SIZE_UNITS).anyTimes();
 
-    expect(mockDocument.getFirstValue(FIELD_FILE_SIZE)).andReturn("1925099");
+    expect(mockDocument.getLong(FIELD_FILE_SIZE)).andReturn(1925099L);
     expect(mockDocument.put(FIELD_DISPLAY_FILE_SIZE, "1 MB")).andReturn(true);
     expect(mockDocument.put(FIELD_DISPLAY_FILE_SIZE_NUM, "1")).andReturn(true);
     expect(mockDocument.put(FIELD_DISPLAY_FILE_SIZE_UNITS, "MB")).andReturn(true);
@@ -167,7 +167,7 @@ public class SetReadableFileSizeTest {
     expect(obj.getNumericField()).andReturn(FIELD_DISPLAY_FILE_SIZE_NUM).anyTimes();
     expect(obj.getUnitsField()).andReturn(FIELD_DISPLAY_FILE_SIZE_UNITS).anyTimes();
 
-    expect(mockDocument.getFirstValue(FIELD_FILE_SIZE)).andReturn("9856506880");
+    expect(mockDocument.getLong(FIELD_FILE_SIZE)).andReturn(9856506880L);
     expect(mockDocument.put(FIELD_DISPLAY_FILE_SIZE, "9 GB")).andReturn(true);
     expect(mockDocument.put(FIELD_DISPLAY_FILE_SIZE_NUM, "9")).andReturn(true);
     expect(mockDocument.put(FIELD_DISPLAY_FILE_SIZE_UNITS, "GB")).andReturn(true);
@@ -186,7 +186,7 @@ public class SetReadableFileSizeTest {
     expect(obj.getNumericField()).andReturn(FIELD_DISPLAY_FILE_SIZE_NUM).anyTimes();
     expect(obj.getUnitsField()).andReturn(FIELD_DISPLAY_FILE_SIZE_UNITS).anyTimes();
 
-    expect(mockDocument.getFirstValue(FIELD_FILE_SIZE)).andReturn("2199023255552");
+    expect(mockDocument.getLong(FIELD_FILE_SIZE)).andReturn(2199023255552L);
     expect(mockDocument.put(FIELD_DISPLAY_FILE_SIZE, "2 TB")).andReturn(true);
     expect(mockDocument.put(FIELD_DISPLAY_FILE_SIZE_NUM, "2")).andReturn(true);
     expect(mockDocument.put(FIELD_DISPLAY_FILE_SIZE_UNITS, "TB")).andReturn(true);
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.routers;
+
+import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.NextSteps;
+import org.jesterj.ingest.model.Plan;
+import org.jesterj.ingest.model.Scanner;
+import org.jesterj.ingest.model.Step;
+import org.jesterj.ingest.model.impl.DocumentImpl;
+import org.jesterj.ingest.model.impl.PlanImpl;
+import org.jesterj.ingest.model.impl.StepImpl;
+import org.jesterj.ingest.scanners.SimpleFileWatchScanner;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class RouteByHashTest {
+
+  private static final String SCANNER = "scanner";
+
+  private Plan plan;
+  private Scanner scanner;
+  private LinkedHashMap<String, Step> lanes;
+  private NextSteps nextSteps;
+
+  @Before
+  public void setUp() {
+    plan = new PlanImpl.Builder()
+        .named("routeByHash")
+        .addStep(null, new SimpleFileWatchScanner.Builder().withRoot(new File("/tmp")).named(SCANNER))
+        .withIdField("id")
+        .build();
+    scanner = (Scanner) plan.findStep(SCANNER);
+    lanes = new LinkedHashMap<>();
+    for (int i = 0; i < 4; i++) {
+      StepImpl lane = new StepImpl.Builder().named("lane" + i).build();
+      lanes.put(lane.getName(), lane);
+    }
+    nextSteps = new NextSteps(lanes);
+  }
+
+  @Test
+  public void testSameIdSameLane() {
+    RouteByHash router = new RouteByHash.Builder().named("hash").build();
+    Set<Step> used = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      Step[] first = router.route(doc("doc" + i), nextSteps);
+      assertSame(first, router.route(doc("doc" + i), nextSteps));
+      assertSame(first[0], router.route(doc("doc" + i), lanes)[0]);
+      used.add(first[0]);
+    }
+    assertEquals(4, used.size());
+  }
+
+  @Test
+  public void testHashingField() {
+    RouteByHash router = new RouteByHash.Builder().named("hash").hashingField("parent").build();
+    Document a = doc("a");
+    Document b = doc("b");
+    a.put("parent", "p1");
+    b.put("parent", "p1");
+    assertSame(router.route(a, nextSteps), router.route(b, nextSteps));
+    assertSame(lanes.get("lane0"), router.route(doc("c"), nextSteps)[0]); // no value
+  }
+
+  private Document doc(String id) {
+    return new DocumentImpl(null, id, plan, Document.Operation.NEW, scanner);
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.routers;
+
+import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.NextSteps;
+import org.jesterj.ingest.model.Plan;
+import org.jesterj.ingest.model.Scanner;
+import org.jesterj.ingest.model.Step;
+import org.jesterj.ingest.model.impl.DocumentImpl;
+import org.jesterj.ingest.model.impl.PlanImpl;
+import org.jesterj.ingest.model.impl.StepImpl;
+import org.jesterj.ingest.scanners.SimpleFileWatchScanner;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+
+import static org.junit.Assert.assertSame;
+
+public class RouteToLeastLoadedTest {
+
+  private static final String SCANNER = "scanner";
+
+  private Plan plan;
+  private Scanner scanner;
+  private LinkedHashMap<String, Step> lanes;
+  private NextSteps nextSteps;
+
+  @Before
+  public void setUp() {
+    plan = new PlanImpl.Builder()
+        .named("leastLoaded")
+        .addStep(null, new SimpleFileWatchScanner.Builder().withRoot(new File("/tmp")).named(SCANNER))
+        .withIdField("id")
+        .build();
+    scanner = (Scanner) plan.findStep(SCANNER);
+    lanes = new LinkedHashMap<>();
+    lanes.put("small", new StepImpl.Builder().named("small").queueCapacity(4).build());
+    lanes.put("large", new StepImpl.Builder().named("large").queueCapacity(10).build());
+    lanes.put("medium", new StepImpl.Builder().named("medium").queueCapacity(6).build());
+    nextSteps = new NextSteps(lanes);
+  }
+
+  @Test
+  public void testMostRoom() {
+    RouteToLeastLoaded router = new RouteToLeastLoaded.Builder().named("router").build();
+    fill("large", 7); // 3 left, medium has 6
+    assertSame(lanes.get("medium"), router.route(doc(), nextSteps)[0]);
+    assertSame(lanes.get("medium"), router.route(doc(), lanes)[0]);
+  }
+
+  @Test
+  public void testFewestWaiting() {
+    RouteToLeastLoaded router = new RouteToLeastLoaded.Builder().named("router").byQueueDepth().build();
+    fill("small", 1);
+    fill("large", 3);
+    fill("medium", 2);
+    assertSame(lanes.get("small"), router.route(doc(), nextSteps)[0]);
+  }
+
+  @Test
+  public void testTieBreaking() {
+    RouteToLeastLoaded first = new RouteToLeastLoaded.Builder().named("router").byQueueDepth()
+        .breakingTiesBy(RouteToLeastLoaded.TieBreak.FIRST).build();
+    assertSame(lanes.get("small"), first.route(doc(), nextSteps)[0]);
+    assertSame(lanes.get("small"), first.route(doc(), nextSteps)[0]);
+
+    RouteToLeastLoaded rotate = new RouteToLeastLoaded.Builder().named("router").byQueueDepth().build();
+    assertSame(lanes.get("small"), rotate.route(doc(), nextSteps)[0]);
+    assertSame(lanes.get("large"), rotate.route(doc(), nextSteps)[0]);
+    assertSame(lanes.get("medium"), rotate.route(doc(), nextSteps)[0]);
+  }
+
+  private void fill(String lane, int count) {
+    for (int i = 0; i < count; i++) {
+      lanes.get(lane).offer(doc());
+    }
+  }
+
+  private Document doc() {
+    return new DocumentImpl(null, "doc", plan, Document.Operation.NEW, scanner);
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jesterj.ingest.scanners;
+
+import org.jesterj.ingest.model.exception.PersistenceException;
+import org.jesterj.ingest.utils.SqlUtils;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JdbcConnectionPoolTest {
+
+  private static final String DRIVER = "org.h2.Driver";
+
+  private final String url = "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+
+  private JdbcConnectionPool pool(int maxConnections, long idleMillis) {
+    return JdbcConnectionPool.forSource(new SqlUtils(), DRIVER, url, "sa", "", maxConnections, idleMillis);
+  }
+
+  private static Connection underlying(Connection conn) throws SQLException {
+    return conn.unwrap(Connection.class);
+  }
+
+  @Test
+  public void testConnectionsAreReused() throws Exception {
+    JdbcConnectionPool pool = pool(2, 60000);
+    Connection first = pool.borrow(true);
+    Connection physical = underlying(first);
+    first.close();
+    assertTrue(first.isClosed());
+    assertFalse(physical.isClosed());
+    assertEquals(1, pool.getIdleCount());
+
+    try (Connection second = pool.borrow(false)) {
+      assertSame(physical, underlying(second));
+      assertFalse(second.getAutoCommit());
+    }
+  }
+
+  @Test
+  public void testPoolIsSharedBySource() throws Exception {
+    JdbcConnectionPool pool = pool(1, 60000);
+    assertSame(pool, pool(3, 1000));
+    assertEquals(3, pool.getMaxConnections());
+    assertNotSame(pool, JdbcConnectionPool.forSource(new SqlUtils(), DRIVER, url, "other", "", 1, 60000));
+  }
+
+  @Test
+  public void testBorrowWaitsForReturn() throws Exception {
+    JdbcConnectionPool pool = pool(1, 60000);
+    Connection held = pool.borrow(true);
+    ExecutorService exec = Executors.newSingleThreadExecutor();
+    try {
+      CountDownLatch waiting = new CountDownLatch(1);
+      Future<Connection> next = exec.submit(() -> {
+        waiting.countDown();
+        try (Connection conn = pool.borrow(true)) {
+          return underlying(conn);
+        }
+      });
+      waiting.await();
+      Thread.sleep(200);
+      assertFalse(next.isDone());
+      Connection physical = underlying(held);
+      held.close();
+      assertSame(physical, next.get(10, TimeUnit.SECONDS));
+    } finally {
+      exec.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testInvalidConnectionsAreReplaced() throws Exception {
+    JdbcConnectionPool pool = pool(1, 60000);
+    Connection physical;
+    try (Connection conn = pool.borrow(true)) {
+      physical = underlying(conn);
+    }
+    physical.close();
+    try (Connection conn = pool.borrow(true)) {
+      assertNotSame(physical, underlying(conn));
+      assertTrue(conn.isValid(1));
+    }
+  }
+
+  @Test
+  public void testIdleConnectionsAreEvicted() throws Exception {
+    JdbcConnectionPool pool = pool(1, 50);
+    Connection physical;
+    try (Connection conn = pool.borrow(true)) {
+      physical = underlying(conn);
+    }
+    Thread.sleep(200);
+    try (Connection conn = pool.borrow(true)) {
+      assertNotSame(physical, underlying(conn));
+    }
+    assertTrue(physical.isClosed());
+  }
+
+  @Test
+  public void testIdleConnectionsAreEvictedWithoutBorrowing() throws Exception {
+    JdbcConnectionPool pool = pool(1, 50);
+    Connection physical;
+    try (Connection conn = pool.borrow(true)) {
+      physical = underlying(conn);
+    }
+    Thread.sleep(200);
+    // as the background evictor does
+    pool.evictIdle();
+    assertEquals(0, pool.getIdleCount());
+    assertTrue(physical.isClosed());
+  }
+
+  @Test
+  public void testPoolIsClosedWhenLastUserReleasesIt() throws Exception {
+    JdbcConnectionPool pool = pool(2, 60000);
+    assertSame(pool, pool(2, 60000));
+    Connection lent = pool.borrow(true);
+    Connection idle;
+    try (Connection conn = pool.borrow(true)) {
+      idle = underlying(conn);
+    }
+    pool.release();
+    assertFalse(pool.isClosed());
+    assertFalse(idle.isClosed());
+
+    pool.release();
+    assertTrue(pool.isClosed());
+    assertTrue(idle.isClosed());
+    Connection physical = underlying(lent);
+    assertFalse(physical.isClosed());
+    lent.close();
+    assertTrue(physical.isClosed());
+
+    // a new pool is made for the next user
+    JdbcConnectionPool next = pool(1, 60000);
+    assertNotSame(pool, next);
+    next.release();
+  }
+
+  @Test(expected = PersistenceException.class)
+  public void testClosedPoolDoesNotLend() throws Exception {
+    JdbcConnectionPool pool = pool(1, 60000);
+    pool.release();
+    pool.borrow(true);
+  }
+
+  @Test
+  public void testPreparedStatementsAreReused() throws Exception {
+    JdbcConnectionPool pool = pool(1, 60000);
+    PreparedStatement physical;
+    try (Connection conn = pool.borrow(true);
+         PreparedStatement statement = conn.prepareStatement("SELECT X FROM SYSTEM_RANGE(1, 10) WHERE X > ?")) {
+      physical = statement.unwrap(PreparedStatement.class);
+      statement.setInt(1, 8);
+      try (ResultSet rs = statement.executeQuery()) {
+        assertTrue(rs.next());
+        assertEquals(9, rs.getInt(1));
+      }
+    }
+    assertFalse(physical.isClosed());
+    try (Connection conn = pool.borrow(true);
+         PreparedStatement statement = conn.prepareStatement("SELECT X FROM SYSTEM_RANGE(1, 10) WHERE X > ?",
+             ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+      assertSame(physical, statement.unwrap(PreparedStatement.class));
+      assertSame(conn, statement.getConnection());
+      statement.setInt(1, 9);
+      try (ResultSet rs = statement.executeQuery()) {
+        assertTrue(rs.next());
+        assertEquals(10, rs.getInt(1));
+        assertFalse(rs.next());
+      }
+    }
+  }
+
+  @Test(expected = SQLException.class)
+  public void testReturnedConnectionCannotBeUsed() throws Exception {
+    Connection conn = pool(1, 60000).borrow(true);
+    conn.close();
+    conn.createStatement();
+  }
+
+  @Test(expected = PersistenceException.class)
+  public void testBadUrlFailsWithoutLeakingPermit() throws Exception {
+    JdbcConnectionPool pool = JdbcConnectionPool.forSource(new SqlUtils(), DRIVER, "jdbc:nosuchdb:foo", "sa", "", 1, 1000);
+    try {
+      pool.borrow(true);
+    } catch (PersistenceException e) {
+      // the permit was released, so a second attempt fails the same way rather than waiting
+      long start = System.nanoTime();
+      try {
+        pool.borrow(true);
+      } finally {
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+      }
+    }
+  }
+}
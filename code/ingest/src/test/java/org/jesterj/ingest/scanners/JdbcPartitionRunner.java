@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jesterj.ingest.scanners;
+
+import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.DocumentProcessor;
+import org.jesterj.ingest.model.Plan;
+import org.jesterj.ingest.model.impl.NamedBuilder;
+import org.jesterj.ingest.model.impl.PlanImpl;
+import org.jesterj.ingest.model.impl.StepImpl;
+import org.h2.tools.Server;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Times a full scan of a table in an h2 database served over TCP, unpartitioned and then split into increasing
+ * numbers of partitions. Usage: <tt>JdbcPartitionRunner [rows] [max partitions] [fetch size]</tt>
+ */
+public class JdbcPartitionRunner {
+
+  private static final String SCANNER = "partitioned scanner";
+
+  public static void main(String[] args) throws Exception {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    int maxPartitions = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+    int fetchSize = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+    Server server = Server.createTcpServer("-tcpPort", "0").start();
+    String url = "jdbc:h2:tcp://localhost:" + server.getPort() + "/mem:partitions;DB_CLOSE_DELAY=-1";
+    try (Connection conn = DriverManager.getConnection(url, "sa", "");
+         Statement statement = conn.createStatement()) {
+      statement.execute("CREATE TABLE numbers AS SELECT X AS id, 'row number ' || X AS title, " +
+          "REPEAT('summary ', 32) AS summary FROM SYSTEM_RANGE(1, " + rows + ")");
+    }
+
+    System.out.printf("%d rows, fetch size %d, %d processors%n", rows, fetchSize, Runtime.getRuntime().availableProcessors());
+    scan(url, fetchSize, rows, 1); // warm up
+    long single = 0;
+    for (int partitions = 1; partitions <= maxPartitions; partitions *= 2) {
+      long nanos = scan(url, fetchSize, rows, partitions);
+      if (partitions == 1) {
+        single = nanos;
+      }
+      System.out.printf("%2d partitions: %7.1f ms, speedup %.2f%n", partitions, nanos / 1e6, (double) single / nanos);
+    }
+    server.stop();
+    System.exit(0); // scanner scheduling threads are not daemons
+  }
+
+  private static long scan(String url, int fetchSize, int rows, int partitions) throws InterruptedException {
+    AtomicInteger received = new AtomicInteger();
+    JdbcScanner.Builder scannerBuilder = new JdbcScanner.Builder();
+    scannerBuilder
+        .withJdbcDriver("org.h2.Driver")
+        .withJdbcUrl(url)
+        .withJdbcUser("sa")
+        .withJdbcPassword("")
+        .withAutoCommit(true)
+        .withFetchSize(fetchSize)
+        .withSqlStatement("SELECT * FROM numbers")
+        .named(SCANNER).scanFreqMS(600000);
+    if (partitions > 1) {
+      scannerBuilder.withPartitionColumn("id", partitions);
+    }
+    StepImpl.Builder countBuilder = new StepImpl.Builder();
+    countBuilder.named("count").batchSize(100).queueCapacity(10000).withProcessor(new NamedBuilder<DocumentProcessor>() {
+      @Override
+      public NamedBuilder<DocumentProcessor> named(String name) {
+        return this;
+      }
+
+      @Override
+      public DocumentProcessor build() {
+        return new DocumentProcessor() {
+          @Override
+          public String getName() {
+            return "counter";
+          }
+
+          @Override
+          public Document[] processDocument(Document document) {
+            received.incrementAndGet();
+            return new Document[0];
+          }
+        };
+      }
+    });
+    Plan plan = new PlanImpl.Builder()
+        .named("partitionedPlan")
+        .addStep(null, scannerBuilder)
+        .addStep(new String[]{SCANNER}, countBuilder)
+        .withIdField("ID")
+        .build();
+    plan.activate();
+    long start = System.nanoTime();
+    ((JdbcScanner) plan.findStep(SCANNER)).getScanOperation().run();
+    while (received.get() < rows) {
+      Thread.sleep(1);
+    }
+    long elapsed = System.nanoTime() - start;
+    plan.deactivate();
+    return elapsed;
+  }
+}
@@ -0,0 +1,446 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jesterj.ingest.scanners;
+
+import org.jesterj.ingest.model.Document;
+import org.jesterj.ingest.model.Plan;
+import org.jesterj.ingest.model.Step;
+import org.jesterj.ingest.model.impl.FileContent;
+import org.jesterj.ingest.model.impl.PlanImpl;
+import org.jesterj.ingest.model.impl.StepImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JdbcScannerTest {
+
+  private static final String SCANNER = "jdbc scanner";
+  private static final int ROWS = 1000;
+
+  private final String url = "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+  private Connection conn;
+
+  @Before
+  public void setUp() throws SQLException {
+    conn = DriverManager.getConnection(url, "sa", "");
+    try (Statement statement = conn.createStatement()) {
+      statement.execute("RUNSCRIPT FROM 'classpath:testdb.sql'");
+      // every tenth row has no bucket
+      statement.execute("CREATE TABLE numbers AS SELECT X AS id, " +
+          "CASE WHEN MOD(X, 10) = 0 THEN NULL ELSE X - 500 END AS bucket, 'row ' || X AS title " +
+          "FROM SYSTEM_RANGE(1, " + ROWS + ")");
+    }
+  }
+
+  @After
+  public void tearDown() throws SQLException {
+    try (Statement statement = conn.createStatement()) {
+      statement.execute("DROP ALL OBJECTS");
+    }
+    conn.close();
+  }
+
+  private JdbcScanner.Builder scanner(String sql) {
+    JdbcScanner.Builder builder = new JdbcScanner.Builder();
+    builder
+        .withJdbcDriver("org.h2.Driver")
+        .withJdbcUrl(url)
+        .withJdbcUser("sa")
+        .withJdbcPassword("")
+        .withAutoCommit(true)
+        .withSqlStatement(sql)
+        .named(SCANNER).scanFreqMS(60000);
+    return builder;
+  }
+
+  private Plan plan(JdbcScanner.Builder scannerBuilder) {
+    StepImpl.Builder testStepBuilder = new StepImpl.Builder();
+    testStepBuilder.named("test").batchSize(10).queueCapacity(ROWS * 2);
+    return new PlanImpl.Builder()
+        .named("jdbcScan")
+        .addStep(null, scannerBuilder)
+        .addStep(new String[]{SCANNER}, testStepBuilder)
+        .withIdField("ID") // h2 reports unquoted names in upper case
+        .build();
+  }
+
+  /**
+   * Run one scan and return the documents sent.
+   */
+  private List<Document> scan(Plan plan) {
+    // the plan is not active, so documents wait in the queue of the test step
+    ((JdbcScanner) plan.findStep(SCANNER)).getScanOperation().run();
+    Step test = plan.findStep("test");
+    List<Document> found = new ArrayList<>();
+    for (Document doc; (doc = test.poll()) != null; ) {
+      found.add(doc);
+    }
+    return found;
+  }
+
+  /**
+   * Run one scan and count how often each id was sent.
+   */
+  private Map<String, Integer> scan(JdbcScanner.Builder scannerBuilder) {
+    Map<String, Integer> found = new HashMap<>();
+    for (Document doc : scan(plan(scannerBuilder))) {
+      found.merge(doc.getId(), 1, Integer::sum);
+    }
+    return found;
+  }
+
+  private void execute(String sql) throws SQLException {
+    try (Statement statement = conn.createStatement()) {
+      statement.execute(sql);
+    }
+  }
+
+  private void assertAllRowsOnce(Map<String, Integer> found, int rows) {
+    assertEquals(rows, found.size());
+    for (Map.Entry<String, Integer> entry : found.entrySet()) {
+      assertEquals(entry.getKey(), Integer.valueOf(1), entry.getValue());
+    }
+  }
+
+  @Test
+  public void testScan() {
+    Map<String, Integer> found = scan(scanner("SELECT id, title, author_id FROM Books;"));
+    assertAllRowsOnce(found, 5);
+  }
+
+  @Test
+  public void testRangePartitions() {
+    assertAllRowsOnce(scan(scanner("SELECT * FROM Books").withPartitionColumn("id", 2)), 5);
+    assertAllRowsOnce(scan(scanner("SELECT * FROM Books").withPartitionColumn("id", 8)), 5);
+    assertAllRowsOnce(scan(scanner("SELECT * FROM numbers").withPartitionColumn("bucket", 3)), ROWS);
+    assertAllRowsOnce(scan(scanner("SELECT * FROM numbers").withPartitionColumn("bucket * 2", 4)), ROWS);
+  }
+
+  @Test
+  public void testModuloPartitions() {
+    assertAllRowsOnce(scan(scanner("SELECT * FROM Books").withModuloPartitionColumn("author_id", 2)), 5);
+    assertAllRowsOnce(scan(scanner("SELECT * FROM numbers").withModuloPartitionColumn("bucket", 7)), ROWS);
+  }
+
+  @Test
+  public void testWatermark() throws SQLException, IOException {
+    execute("CREATE TABLE changes AS SELECT X AS id, 'row ' || X AS title, X AS version FROM SYSTEM_RANGE(1, 10)");
+    Path dir = Files.createTempDirectory("watermark");
+    File file = new File(dir.toFile(), "changes.watermark");
+    try {
+      Plan plan = plan(scanner("SELECT * FROM changes").withWatermarkColumn("version").withWatermarkFile(file));
+      List<Document> found = scan(plan);
+      assertEquals(10, found.size());
+      assertEquals(Document.Operation.NEW, found.get(0).getOperation());
+      assertEquals(0, scan(plan).size());
+
+      execute("UPDATE changes SET title = 'changed', version = 100 WHERE id = 3");
+      execute("INSERT INTO changes VALUES (11, 'added', 101)");
+      found = scan(plan);
+      assertEquals(2, found.size());
+      for (Document doc : found) {
+        assertEquals(Document.Operation.UPDATE, doc.getOperation());
+      }
+      assertEquals(0, scan(plan).size());
+
+      // as if restarted
+      plan = plan(scanner("SELECT * FROM changes").withWatermarkColumn("version").withWatermarkFile(file)
+          .withPartitionColumn("id", 3));
+      assertEquals(0, scan(plan).size());
+      execute("UPDATE changes SET version = 102 WHERE id IN (1, 5, 9)");
+      assertEquals(3, scan(plan).size());
+    } finally {
+      Files.deleteIfExists(file.toPath());
+      Files.delete(dir);
+    }
+  }
+
+  @Test
+  public void testWatermarkLag() throws SQLException {
+    execute("CREATE TABLE changes AS SELECT X AS id, 'row ' || X AS title, X AS version FROM SYSTEM_RANGE(1, 10)");
+    Plan plan = plan(scanner("SELECT * FROM changes").withWatermarkColumn("version"));
+    assertEquals(10, scan(plan).size());
+    // committed after the scan, but stamped with the value it had already reached
+    execute("INSERT INTO changes VALUES (11, 'late', 10)");
+    assertEquals(0, scan(plan).size());
+
+    execute("DROP TABLE changes");
+    execute("CREATE TABLE changes AS SELECT X AS id, 'row ' || X AS title, X AS version FROM SYSTEM_RANGE(1, 10)");
+    plan = plan(scanner("SELECT * FROM changes").withWatermarkColumn("version").withWatermarkLag(2));
+    assertEquals(10, scan(plan).size());
+    execute("INSERT INTO changes VALUES (11, 'late', 10), (12, 'later', 9)");
+    Map<String, Integer> found = new HashMap<>();
+    for (Document doc : scan(plan)) {
+      found.merge(doc.getId(), 1, Integer::sum);
+    }
+    // rows within the lag are sent again
+    assertAllRowsOnce(found, 4);
+    assertTrue(found.containsKey("11"));
+    assertTrue(found.containsKey("12"));
+  }
+
+  @Test
+  public void testTimestampLag() throws SQLException {
+    execute("CREATE TABLE changes (id INT PRIMARY KEY, title VARCHAR, updated TIMESTAMP)");
+    execute("INSERT INTO changes VALUES (1, 'one', '2016-03-20 12:00:01.000001')");
+    Plan plan = plan(scanner("SELECT * FROM changes").withWatermarkColumn("updated").withWatermarkLag(1500));
+    assertEquals(1, scan(plan).size());
+    execute("INSERT INTO changes VALUES (2, 'two', '2016-03-20 11:59:59.500002'), " +
+        "(3, 'three', '2016-03-20 11:59:59.500001')");
+    List<Document> found = scan(plan);
+    assertEquals(2, found.size());
+    assertEquals("1", found.get(0).getId());
+    assertEquals("2", found.get(1).getId());
+  }
+
+  @Test
+  public void testTimestampWatermark() throws SQLException, IOException {
+    execute("CREATE TABLE changes (id INT PRIMARY KEY, title VARCHAR, updated TIMESTAMP)");
+    execute("INSERT INTO changes VALUES (1, 'one', '2016-03-20 12:00:00.123456'), (2, 'two', '2016-03-20 12:00:01')");
+    Path dir = Files.createTempDirectory("watermark");
+    File file = new File(dir.toFile(), "changes.watermark");
+    try {
+      assertEquals(2, scan(plan(scanner("SELECT * FROM changes").withWatermarkColumn("updated").withWatermarkFile(file))).size());
+      execute("UPDATE changes SET updated = '2016-03-20 12:00:01.000001' WHERE id = 1");
+      Plan plan = plan(scanner("SELECT * FROM changes").withWatermarkColumn("updated").withWatermarkFile(file));
+      List<Document> found = scan(plan);
+      assertEquals(1, found.size());
+      assertEquals("1", found.get(0).getId());
+    } finally {
+      Files.deleteIfExists(file.toPath());
+      Files.delete(dir);
+    }
+  }
+
+  @Test
+  public void testDeletedFlagColumn() throws SQLException {
+    execute("CREATE TABLE flagged AS SELECT X AS id, 'row ' || X AS title, MOD(X, 4) = 0 AS deleted, " +
+        "CASE WHEN MOD(X, 5) = 0 THEN 'Y' ELSE 'N' END AS retired FROM SYSTEM_RANGE(1, 20)");
+    List<Document> found = scan(plan(scanner("SELECT * FROM flagged").withDeletedFlagColumn("deleted")
+        .withPartitionColumn("id", 2)));
+    assertEquals(20, found.size());
+    for (Document doc : found) {
+      boolean deleted = Integer.parseInt(doc.getId()) % 4 == 0;
+      assertEquals(doc.getId(), deleted ? Document.Operation.DELETE : Document.Operation.NEW, doc.getOperation());
+      assertEquals(deleted, doc.get("TITLE").isEmpty());
+    }
+
+    found = scan(plan(scanner("SELECT * FROM flagged").withDeletedFlagColumn("retired")));
+    for (Document doc : found) {
+      boolean deleted = Integer.parseInt(doc.getId()) % 5 == 0;
+      assertEquals(doc.getId(), deleted ? Document.Operation.DELETE : Document.Operation.NEW, doc.getOperation());
+    }
+  }
+
+  @Test
+  public void testDeletionQuery() throws SQLException, IOException {
+    execute("CREATE TABLE changes AS SELECT X AS id, 'row ' || X AS title, X AS version FROM SYSTEM_RANGE(1, 10)");
+    execute("CREATE TABLE tombstones (id INT PRIMARY KEY, version INT)");
+    execute("INSERT INTO tombstones VALUES (20, 5)");
+    Path dir = Files.createTempDirectory("watermark");
+    File file = new File(dir.toFile(), "changes.watermark");
+    try {
+      Plan plan = plan(scanner("SELECT * FROM changes").withWatermarkColumn("version").withWatermarkFile(file)
+          .withContentColumn("title").withDeletionQuery("SELECT id, version FROM tombstones"));
+      List<Document> found = scan(plan);
+      assertEquals(11, found.size());
+      assertEquals("20", found.get(0).getId());
+      assertEquals(Document.Operation.DELETE, found.get(0).getOperation());
+      assertEquals(0, scan(plan).size());
+
+      // as a trigger would
+      execute("DELETE FROM changes WHERE id IN (2, 7)");
+      execute("INSERT INTO tombstones VALUES (2, 11), (7, 12)");
+      execute("UPDATE changes SET version = 13 WHERE id = 4");
+      found = scan(plan);
+      assertEquals(3, found.size());
+      assertEquals(Document.Operation.DELETE, found.get(0).getOperation());
+      assertEquals(Document.Operation.DELETE, found.get(1).getOperation());
+      assertEquals(Document.Operation.UPDATE, found.get(2).getOperation());
+      assertEquals("4", found.get(2).getId());
+      assertEquals(0, scan(plan).size());
+    } finally {
+      Files.deleteIfExists(file.toPath());
+      Files.delete(dir);
+    }
+  }
+
+  @Test
+  public void testDeletionQueryHasItsOwnWatermark() throws SQLException, IOException {
+    execute("CREATE TABLE changes AS SELECT X AS id, 'row ' || X AS title, X AS version FROM SYSTEM_RANGE(1, 10)");
+    // tombstones numbered by their own sequence, far ahead of the rows
+    execute("CREATE TABLE tombstones (id INT PRIMARY KEY, version INT)");
+    execute("INSERT INTO tombstones VALUES (20, 1000)");
+    Path dir = Files.createTempDirectory("watermark");
+    File file = new File(dir.toFile(), "changes.watermark");
+    try {
+      Plan plan = plan(scanner("SELECT * FROM changes").withWatermarkColumn("version").withWatermarkFile(file)
+          .withDeletionQuery("SELECT id, version FROM tombstones"));
+      assertEquals(11, scan(plan).size());
+
+      execute("UPDATE changes SET version = 13 WHERE id = 4");
+      execute("DELETE FROM changes WHERE id = 2");
+      execute("INSERT INTO tombstones VALUES (2, 1001)");
+      List<Document> found = scan(plan);
+      assertEquals(2, found.size());
+      assertEquals("2", found.get(0).getId());
+      assertEquals(Document.Operation.DELETE, found.get(0).getOperation());
+      assertEquals("4", found.get(1).getId());
+      assertEquals(Document.Operation.UPDATE, found.get(1).getOperation());
+
+      // as if restarted, both watermarks were saved
+      plan = plan(scanner("SELECT * FROM changes").withWatermarkColumn("version").withWatermarkFile(file)
+          .withDeletionQuery("SELECT id, version FROM tombstones"));
+      assertEquals(0, scan(plan).size());
+    } finally {
+      Files.deleteIfExists(file.toPath());
+      Files.delete(dir);
+    }
+  }
+
+  @Test
+  public void testLateTombstoneIsNotSkipped() throws SQLException {
+    execute("CREATE TABLE changes AS SELECT X AS id, 'row ' || X AS title, X AS version FROM SYSTEM_RANGE(1, 10)");
+    execute("CREATE TABLE tombstones (id INT PRIMARY KEY, version INT)");
+    execute("INSERT INTO tombstones VALUES (20, 5)");
+    Plan plan = plan(scanner("SELECT * FROM changes").withWatermarkColumn("version")
+        .withDeletionQuery("SELECT id, version FROM tombstones"));
+    assertEquals(11, scan(plan).size());
+    // committed after the deletion query of the last scan had run, stamped below what the scan query reached
+    execute("DELETE FROM changes WHERE id = 3");
+    execute("INSERT INTO tombstones VALUES (3, 8)");
+    List<Document> found = scan(plan);
+    assertEquals(1, found.size());
+    assertEquals("3", found.get(0).getId());
+    assertEquals(Document.Operation.DELETE, found.get(0).getOperation());
+  }
+
+  @Test
+  public void testDeletionQueryWithoutWatermarkColumn() throws SQLException {
+    execute("CREATE TABLE changes AS SELECT X AS id, 'row ' || X AS title, X AS version FROM SYSTEM_RANGE(1, 10)");
+    execute("CREATE TABLE tombstones (id INT PRIMARY KEY)");
+    execute("INSERT INTO tombstones VALUES (20)");
+    Plan plan = plan(scanner("SELECT * FROM changes").withWatermarkColumn("version")
+        .withDeletionQuery("SELECT id FROM tombstones"));
+    assertEquals(11, scan(plan).size());
+    execute("UPDATE changes SET version = 11 WHERE id = 4");
+    List<Document> found = scan(plan);
+    // every tombstone is sent again, but the scan query stays incremental
+    assertEquals(2, found.size());
+    assertEquals("20", found.get(0).getId());
+    assertEquals(Document.Operation.DELETE, found.get(0).getOperation());
+    assertEquals("4", found.get(1).getId());
+  }
+
+  @Test
+  public void testLobContent() throws SQLException, IOException {
+    execute("CREATE TABLE docs (id INT PRIMARY KEY, kind VARCHAR, body CLOB, data BLOB)");
+    byte[] large = new byte[200000];
+    new Random(1).nextBytes(large);
+    String text = "caf\u00e9 \u2603";
+    try (PreparedStatement insert = conn.prepareStatement("INSERT INTO docs VALUES (?, ?, ?, ?)")) {
+      insert.setInt(1, 1);
+      insert.setString(2, "small");
+      insert.setString(3, text);
+      insert.setBytes(4, new byte[]{1, 2, 3});
+      insert.executeUpdate();
+      insert.setInt(1, 2);
+      insert.setString(2, "large");
+      insert.setString(3, String.join("", Collections.nCopies(20000, text)));
+      insert.setBytes(4, large);
+      insert.executeUpdate();
+    }
+    Path dir = Files.createTempDirectory("spool");
+    try {
+      List<Document> found = scan(plan(scanner("SELECT * FROM docs ORDER BY id").withContentColumn("data")
+          .withContentMemoryLimit(1000, dir.toFile())));
+      assertArrayEquals(new byte[]{1, 2, 3}, found.get(0).getContent().toBytes());
+      assertTrue(found.get(1).getContent() instanceof FileContent);
+      assertEquals(Long.valueOf(large.length), found.get(1).getLong(Document.FIELD_FILE_SIZE));
+      assertArrayEquals(large, found.get(1).getContent().toBytes());
+      assertEquals(text, found.get(0).getFirstValue("BODY"));
+
+      found = scan(plan(scanner("SELECT * FROM docs ORDER BY id").withContentColumn("body")
+          .withContentMemoryLimit(1000, dir.toFile())));
+      assertEquals(text, new String(found.get(0).getContent().toBytes(), StandardCharsets.UTF_8));
+      assertTrue(found.get(1).getContent() instanceof FileContent);
+      assertEquals(20000 * text.getBytes(StandardCharsets.UTF_8).length, found.get(1).getContent().length());
+
+      found = scan(plan(scanner("SELECT * FROM docs ORDER BY id").withContentColumn("kind")
+          .withContentCharset(StandardCharsets.UTF_16BE)));
+      assertArrayEquals("small".getBytes(StandardCharsets.UTF_16BE), found.get(0).getContent().toBytes());
+    } finally {
+      // spooled content is in a subdirectory belonging to this JVM
+      try (Stream<Path> spooled = Files.walk(dir)) {
+        for (Path path : spooled.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+          Files.delete(path);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testInactiveScannerReleasesConnections() {
+    JdbcScanner scanner = (JdbcScanner) plan(scanner("SELECT * FROM Books")).findStep(SCANNER);
+    JdbcConnectionPool pool = scanner.getConnectionPool();
+    assertSame(pool, scanner.getConnectionPool());
+    scanner.releaseConnectionPool();
+    assertTrue(pool.isClosed());
+    assertNotSame(pool, scanner.getConnectionPool());
+    scanner.releaseConnectionPool();
+  }
+
+  @Test
+  public void testEmptyPartitionedScan() {
+    assertAllRowsOnce(scan(scanner("SELECT * FROM numbers WHERE id < 0").withPartitionColumn("id", 4)), 0);
+  }
+
+  @Test
+  public void testRangePartitionsWithoutValues() {
+    // every tenth row has no bucket, so the range of the partition column is null
+    assertAllRowsOnce(scan(scanner("SELECT * FROM numbers WHERE MOD(id, 10) = 0")
+        .withPartitionColumn("bucket", 3)), ROWS / 10);
+  }
+}
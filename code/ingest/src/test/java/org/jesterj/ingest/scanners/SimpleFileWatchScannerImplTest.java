@@ -25,6 +25,8 @@ import org.jesterj.ingest.model.Document;
 import org.jesterj.ingest.model.DocumentProcessor;
 import org.jesterj.ingest.model.Plan;
 import org.jesterj.ingest.model.impl.NamedBuilder;
+import org.jesterj.ingest.model.Status;
+import org.jesterj.ingest.model.impl.DocumentIndexTestBase;
 import org.jesterj.ingest.model.impl.PlanImpl;
 import org.jesterj.ingest.model.impl.ScannerImpl;
 import org.jesterj.ingest.model.impl.StepImpl;
@@ -33,12 +35,20 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.HashMap;
 
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
-public class SimpleFileWatchScannerImplTest {
+public class SimpleFileWatchScannerImplTest extends DocumentIndexTestBase {
 
   private static final String SHAKESPEAR = "Shakespear scanner";
 
@@ -113,4 +123,47 @@ public class SimpleFileWatchScannerImplTest {
     assertEquals(1, scannedDocs.size());
 
   }
+
+  @Test
+  public void testUnchangedFilesAreSkipped() throws IOException {
+    Path dir = Files.createTempDirectory("tracked");
+    Path file = dir.resolve("sonnet");
+    try {
+      Files.write(file, "shall I compare thee".getBytes(StandardCharsets.UTF_8));
+      MemoryDocumentIndex index = new MemoryDocumentIndex();
+      SimpleFileWatchScanner.Builder scannerBuilder = new SimpleFileWatchScanner.Builder();
+      scannerBuilder.withRoot(dir.toFile()).named(SHAKESPEAR).trackingDocumentsIn(index);
+      StepImpl.Builder testStepBuilder = new StepImpl.Builder();
+      testStepBuilder.named("test").batchSize(10);
+      Plan plan = new PlanImpl.Builder()
+          .named("testUnchangedFilesAreSkipped")
+          .addStep(null, scannerBuilder)
+          .addStep(new String[]{SHAKESPEAR}, testStepBuilder)
+          .withIdField("id")
+          .build();
+      SimpleFileWatchScanner scanner = (SimpleFileWatchScanner) plan.findStep(SHAKESPEAR);
+      String id = file.toRealPath().toUri().toASCIIString();
+
+      // the plan is not active, so documents wait in the queue of the test step
+      scanner.makeDoc(file, Document.Operation.NEW, Files.readAttributes(file, BasicFileAttributes.class));
+      assertNotNull(plan.findStep("test").poll());
+      index.setStatus(SHAKESPEAR, id, Status.INDEXED);
+      scanner.makeDoc(file, Document.Operation.NEW, Files.readAttributes(file, BasicFileAttributes.class));
+      assertNull(plan.findStep("test").poll());
+
+      // touched but not changed
+      long touched = Files.getLastModifiedTime(file).toMillis() + 5000;
+      Files.setLastModifiedTime(file, FileTime.fromMillis(touched));
+      scanner.makeDoc(file, Document.Operation.UPDATE, Files.readAttributes(file, BasicFileAttributes.class));
+      assertNull(plan.findStep("test").poll());
+      assertEquals(touched, index.get(SHAKESPEAR, id).getModified());
+
+      Files.write(file, "to a summer's day".getBytes(StandardCharsets.UTF_8));
+      scanner.makeDoc(file, Document.Operation.UPDATE, Files.readAttributes(file, BasicFileAttributes.class));
+      assertNotNull(plan.findStep("test").poll());
+    } finally {
+      Files.delete(file);
+      Files.delete(dir);
+    }
+  }
 }
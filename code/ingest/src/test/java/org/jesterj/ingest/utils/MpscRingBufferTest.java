@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MpscRingBufferTest {
+
+  @Test
+  public void testCapacityRoundsUpToPowerOfTwo() {
+    assertEquals(8, new MpscRingBuffer<String>(5).remainingCapacity());
+    assertEquals(8, new MpscRingBuffer<String>(8).remainingCapacity());
+    assertEquals(1, new MpscRingBuffer<String>(1).remainingCapacity());
+  }
+
+  @Test
+  public void testFifoAndFull() throws InterruptedException {
+    MpscRingBuffer<String> ring = new MpscRingBuffer<>(4);
+    assertTrue(ring.offer("a"));
+    assertTrue(ring.offer("b"));
+    assertTrue(ring.offer("c"));
+    assertTrue(ring.offer("d"));
+    assertFalse(ring.offer("e"));
+    assertFalse(ring.offer("e", 10, TimeUnit.MILLISECONDS));
+    assertEquals(4, ring.size());
+    assertEquals(0, ring.remainingCapacity());
+    assertArrayEquals(new Object[]{"a", "b", "c", "d"}, ring.toArray());
+    assertEquals("a", ring.peek());
+    assertEquals("a", ring.poll());
+    assertTrue(ring.offer("e"));
+    List<String> drained = new ArrayList<>();
+    assertEquals(4, ring.drainTo(drained));
+    assertEquals("[b, c, d, e]", drained.toString());
+    assertTrue(ring.isEmpty());
+    assertNull(ring.poll());
+    assertNull(ring.poll(10, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testManyProducersBlockingOnSmallBuffer() throws InterruptedException {
+    int producers = 8;
+    int perProducer = 20000;
+    MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(16);
+    List<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      int base = p * perProducer;
+      Thread t = new Thread(() -> {
+        try {
+          for (int i = 0; i < perProducer; i++) {
+            ring.put(base + i);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      threads.add(t);
+      t.start();
+    }
+    // every producer's values must arrive in the order that producer sent them
+    int[] lastSeen = new int[producers];
+    Arrays.fill(lastSeen, -1);
+    for (int n = 0; n < producers * perProducer; n++) {
+      Integer value = ring.poll(10, TimeUnit.SECONDS);
+      assertTrue("timed out after " + n + " elements", value != null);
+      int producer = value / perProducer;
+      int seq = value % perProducer;
+      assertEquals(lastSeen[producer] + 1, seq);
+      lastSeen[producer] = seq;
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertTrue(ring.isEmpty());
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 Needham Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jesterj.ingest.utils;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * Compares the hand off rate of {@link MpscRingBuffer} with the {@link LinkedBlockingQueue} steps use by default,
+ * with 1, 4 and 16 producers feeding a single consumer through a queue of the same capacity. Each configuration
+ * is run several times and the first rounds are discarded to let the JIT settle.
+ * Usage: <tt>QueueThroughputRunner [messagesPerRound] [capacity] [rounds]</tt>
+ */
+public class QueueThroughputRunner {
+
+  private static final int WARMUP_ROUNDS = 3;
+  private static final Object ITEM = new Object();
+
+  public static void main(String[] args) throws InterruptedException {
+    int messages = args.length > 0 ? Integer.parseInt(args[0]) : 4_000_000;
+    int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    System.out.printf("java %s, %d messages per round, capacity %d, %d cores%n",
+        System.getProperty("java.version"), messages, capacity, Runtime.getRuntime().availableProcessors());
+    System.out.printf("%-10s %20s %20s%n", "producers", "linked (M msg/s)", "ring (M msg/s)");
+    for (int producers : new int[]{1, 4, 16}) {
+      double linked = measure(() -> new LinkedBlockingQueue<>(capacity), producers, messages, rounds);
+      double ring = measure(() -> new MpscRingBuffer<>(capacity), producers, messages, rounds);
+      System.out.printf("%-10d %20.2f %20.2f%n", producers, linked, ring);
+    }
+  }
+
+  private static double measure(Supplier<BlockingQueue<Object>> queues, int producers, int messages, int rounds)
+      throws InterruptedException {
+    double best = 0;
+    for (int r = 0; r < WARMUP_ROUNDS + rounds; r++) {
+      double rate = round(queues.get(), producers, messages / producers * producers);
+      if (r >= WARMUP_ROUNDS) {
+        best = Math.max(best, rate);
+      }
+    }
+    return best;
+  }
+
+  private static double round(BlockingQueue<Object> queue, int producers, int messages) throws InterruptedException {
+    int perProducer = messages / producers;
+    CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[producers];
+    for (int p = 0; p < producers; p++) {
+      threads[p] = new Thread(() -> {
+        try {
+          start.await();
+          for (int i = 0; i < perProducer; i++) {
+            queue.put(ITEM);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      threads[p].start();
+    }
+    long begin = System.nanoTime();
+    start.countDown();
+    for (int i = 0; i < messages; i++) {
+      queue.take();
+    }
+    long elapsed = System.nanoTime() - begin;
+    for (Thread t : threads) {
+      t.join();
+    }
+    return messages / (elapsed / 1e9) / 1e6;
+  }
+}